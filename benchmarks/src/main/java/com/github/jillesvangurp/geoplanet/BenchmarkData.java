@@ -0,0 +1,189 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static com.github.jsonj.tools.JsonBuilder.array;
+import static com.github.jsonj.tools.JsonBuilder.object;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonObject;
+
+/**
+ * Synthetic data with the columns and quoting of the geoplanet 7.10.0 tsv files and the structure of the flickr shapes,
+ * so that the benchmarks don't need the real dumps. Everything is generated from a fixed seed, so every run gets the
+ * same data.
+ *
+ * Place i has woeid {@link #woeid(int)} and place i / 10 as its parent, which gives a hierarchy that is a few levels
+ * deep.
+ */
+class BenchmarkData {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    static final String[] PLACE_TYPES = { "Town", "Suburb", "Zip", "County", "State", "LocalAdmin", "POI", "Country" };
+    static final String[] ISO_CODES = { "US", "GB", "DE", "FR", "NL", "JP", "CN", "BR", "IN", "ES" };
+    static final String[] LANGUAGES = { "ENG", "GER", "FRE", "DUT", "JPN", "CHI", "POR", "SPA", "ITA", "UNK" };
+    private static final String[] NAME_TYPES = { "P", "Q", "V", "S", "A" };
+
+    static long woeid(int place) {
+        return 1000 + place * 7L;
+    }
+
+    static String name(Random random, int place) {
+        // some non ascii names so the utf8 handling is exercised
+        return (random.nextInt(5) == 0 ? "S\u00e3o " : "Place ") + place;
+    }
+
+    /**
+     * @return the places tsv: WOE_ID, ISO, Name, Language, PlaceType, Parent_ID
+     */
+    static byte[] places(int places) {
+        Random random = new Random(42);
+        StringBuilder tsv = new StringBuilder("\"WOE_ID\"\t\"ISO\"\t\"Name\"\t\"Language\"\t\"PlaceType\"\t\"Parent_ID\"\n");
+        for(int i=0;i<places;i++) {
+            tsv.append(woeid(i)).append('\t');
+            quoted(tsv, ISO_CODES[random.nextInt(ISO_CODES.length)]).append('\t');
+            quoted(tsv, name(random, i)).append('\t');
+            quoted(tsv, LANGUAGES[random.nextInt(LANGUAGES.length)]).append('\t');
+            quoted(tsv, PLACE_TYPES[random.nextInt(PLACE_TYPES.length)]).append('\t');
+            tsv.append(i == 0 ? 0 : woeid(i / 10)).append('\n');
+        }
+        return tsv.toString().getBytes(UTF8);
+    }
+
+    /**
+     * @return the aliases tsv: WOE_ID, Name, Name_Type, Language; 0 to twice aliasesPerPlace aliases per place
+     */
+    static byte[] aliases(int places, int aliasesPerPlace) {
+        Random random = new Random(43);
+        StringBuilder tsv = new StringBuilder("\"WOE_ID\"\t\"Name\"\t\"Name_Type\"\t\"Language\"\n");
+        for(int i=0;i<places;i++) {
+            int aliases = random.nextInt(aliasesPerPlace * 2 + 1);
+            for(int a=0;a<aliases;a++) {
+                tsv.append(woeid(i)).append('\t');
+                quoted(tsv, name(random, i) + " " + a).append('\t');
+                quoted(tsv, NAME_TYPES[random.nextInt(NAME_TYPES.length)]).append('\t');
+                quoted(tsv, LANGUAGES[random.nextInt(LANGUAGES.length)]).append('\n');
+            }
+        }
+        return tsv.toString().getBytes(UTF8);
+    }
+
+    /**
+     * @return the adjacencies tsv: Place_WOE_ID, Place_ISO, Neighbour_WOE_ID, Neighbour_ISO; neighbors are nearby
+     *         places, so a place shows up both as place and as neighbour, like in the real file
+     */
+    static byte[] adjacencies(int places, int neighborsPerPlace) {
+        Random random = new Random(44);
+        StringBuilder tsv = new StringBuilder("\"Place_WOE_ID\"\t\"Place_ISO\"\t\"Neighbour_WOE_ID\"\t\"Neighbour_ISO\"\n");
+        for(int i=0;i<places;i++) {
+            int neighbors = random.nextInt(neighborsPerPlace * 2 + 1);
+            for(int n=0;n<neighbors;n++) {
+                int neighbor = Math.max(0, Math.min(places - 1, i + random.nextInt(41) - 20));
+                tsv.append(woeid(i)).append('\t');
+                quoted(tsv, ISO_CODES[i % ISO_CODES.length]).append('\t');
+                tsv.append(woeid(neighbor)).append('\t');
+                quoted(tsv, ISO_CODES[neighbor % ISO_CODES.length]).append('\n');
+            }
+        }
+        return tsv.toString().getBytes(UTF8);
+    }
+
+    /**
+     * @return store with the places of the places tsv, indexed
+     */
+    static PlaceStore placeStore(byte[] placesTsv) throws IOException {
+        PlaceStore store = new PlaceStore();
+        try(TsvReader reader = new TsvReader(new ByteArrayInputStream(placesTsv), TsvReader.DEFAULT_BLOCK_SIZE)) {
+            for(TsvReader.Block block: reader) {
+                TsvReader.Record record = block.records();
+                while(record.next()) {
+                    store.addPlace(record.longValue(0), record.id(1, store.isoCodes()), record.bytes(2),
+                            record.id(3, store.languages()), record.id(4, store.placeTypes()), record.longValue(5, -1));
+                }
+            }
+        }
+        store.index();
+        return store;
+    }
+
+    /**
+     * @return store with places, names and neighbors, merged and ready to be serialized
+     */
+    static PlaceStore joinedPlaceStore(int places) throws IOException {
+        PlaceStore store = placeStore(places(places));
+        try(TsvReader reader = new TsvReader(new ByteArrayInputStream(aliases(places, 3)), TsvReader.DEFAULT_BLOCK_SIZE)) {
+            for(TsvReader.Block block: reader) {
+                TsvReader.Record record = block.records();
+                while(record.next()) {
+                    store.addName(store.row(record.longValue(0)), record.id(3, store.languages()), record.data(),
+                            record.offset(1), record.length(1), record.equalsIgnoreCase(2, "P"));
+                }
+            }
+        }
+        try(TsvReader reader = new TsvReader(new ByteArrayInputStream(adjacencies(places, 4)), TsvReader.DEFAULT_BLOCK_SIZE)) {
+            for(TsvReader.Block block: reader) {
+                TsvReader.Record record = block.records();
+                while(record.next()) {
+                    store.addNeighbor(store.row(record.longValue(0)), record.longValue(2));
+                }
+            }
+        }
+        store.merge(PhaseSettings.CORES);
+        return store;
+    }
+
+    private static StringBuilder quoted(StringBuilder tsv, String value) {
+        return tsv.append('"').append(value).append('"');
+    }
+
+    /**
+     * @return closed ring around the center that looks a bit like a flickr shape; self intersecting rings have two
+     *         vertices swapped
+     */
+    static double[][] ring(Random random, double x, double y, double radius, int vertices, boolean selfIntersecting) {
+        double[][] ring = new double[vertices + 1][];
+        for(int i=0;i<vertices;i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            double r = radius * (0.7 + 0.3 * random.nextDouble());
+            ring[i] = new double[] { x + r * Math.cos(angle), y + r * Math.sin(angle) };
+        }
+        if(selfIntersecting && vertices > 6) {
+            int i = 1 + random.nextInt(vertices / 2);
+            double[] swap = ring[i];
+            ring[i] = ring[i + 2];
+            ring[i + 2] = swap;
+        }
+        ring[vertices] = ring[0];
+        return ring;
+    }
+
+    static JsonArray toJson(double[][] ring) {
+        JsonArray points = new JsonArray();
+        for(double[] point: ring) {
+            points.add(array(point[0], point[1]));
+        }
+        return points;
+    }
+
+    static JsonObject polygon(double[][] ring) {
+        JsonArray coordinates = new JsonArray();
+        coordinates.add(toJson(ring));
+        return object().put("type", "Polygon").put("coordinates", coordinates).get();
+    }
+
+    /**
+     * @return a feature like the ones in the flickr shapes files
+     */
+    static JsonObject feature(Random random, int place, int vertices, boolean selfIntersecting) {
+        double[][] ring = ring(random, random.nextDouble() * 340 - 170, random.nextDouble() * 160 - 80, 0.5, vertices, selfIntersecting);
+        JsonObject properties = object()
+                .put("woe_id", Long.toString(woeid(place)))
+                .put("place_id", "p" + place)
+                .put("label", name(random, place))
+                .put("place_type", PLACE_TYPES[random.nextInt(PLACE_TYPES.length)].toLowerCase())
+                .get();
+        return object().put("type", "Feature").put("properties", properties).put("geometry", polygon(ring)).get();
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compressing with a plain GZIPOutputStream versus {@link ParallelGzipOutputStream}, and the places phase reading from
+ * a plain GZIPInputStream versus decompressing ahead with {@link ReadAheadInputStream}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class GzipBenchmark {
+    @Param({ "500000" })
+    int places;
+
+    private byte[] tsv;
+    private byte[] compressed;
+
+    @Setup
+    public void setup() throws IOException {
+        tsv = BenchmarkData.places(places);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try(OutputStream out = new GZIPOutputStream(bos, 65536)) {
+            out.write(tsv);
+        }
+        compressed = bos.toByteArray();
+    }
+
+    @Benchmark
+    public void gzipOutputStream() throws IOException {
+        try(OutputStream out = new GZIPOutputStream(new NullOutputStream(), 65536)) {
+            out.write(tsv);
+        }
+    }
+
+    @Benchmark
+    public void parallelGzipOutputStream() throws IOException {
+        try(OutputStream out = new ParallelGzipOutputStream(new NullOutputStream())) {
+            out.write(tsv);
+        }
+    }
+
+    @Benchmark
+    public long readPlacesGzipInputStream() throws IOException {
+        return readPlaces(new GZIPInputStream(new ByteArrayInputStream(compressed), 65536));
+    }
+
+    @Benchmark
+    public long readPlacesReadAhead() throws IOException {
+        return readPlaces(new ReadAheadInputStream(new GZIPInputStream(new ByteArrayInputStream(compressed), 65536)));
+    }
+
+    private static long readPlaces(InputStream in) throws IOException {
+        StringPool pool = new StringPool();
+        long checksum = 0;
+        try(TsvReader reader = new TsvReader(in, TsvReader.DEFAULT_BLOCK_SIZE)) {
+            for(TsvReader.Block block: reader) {
+                TsvReader.Record record = block.records();
+                while(record.next()) {
+                    checksum += record.longValue(0) + record.id(4, pool) + record.longValue(5, -1);
+                }
+            }
+        }
+        return checksum;
+    }
+}
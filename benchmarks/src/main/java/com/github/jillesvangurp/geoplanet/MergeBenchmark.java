@@ -0,0 +1,113 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Adding aliases and adjacencies to the store from 1 to n threads and merging them, which is what the aliases and
+ * adjacencies phases do after parsing. Shows how the per thread logs and the merge by shard scale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MergeBenchmark {
+    @Param({ "1", "2", "4", "8" })
+    int threads;
+
+    @Param({ "200000" })
+    int places;
+
+    private byte[] placesTsv;
+    private long[] aliasWoeids;
+    private String[] aliasNames;
+    private String[] aliasLanguages;
+    private long[] adjacencies;
+
+    private PlaceStore store;
+
+    @Setup
+    public void setup() throws IOException {
+        placesTsv = BenchmarkData.places(places);
+        try(TsvReader reader = new TsvReader(new ByteArrayInputStream(BenchmarkData.aliases(places, 3)), TsvReader.DEFAULT_BLOCK_SIZE)) {
+            int count = 0;
+            aliasWoeids = new long[places * 4];
+            aliasNames = new String[aliasWoeids.length];
+            aliasLanguages = new String[aliasWoeids.length];
+            for(TsvReader.Block block: reader) {
+                TsvReader.Record record = block.records();
+                while(record.next() && count < aliasWoeids.length) {
+                    aliasWoeids[count] = record.longValue(0);
+                    aliasNames[count] = record.string(1);
+                    aliasLanguages[count] = record.string(3);
+                    count++;
+                }
+            }
+        }
+        try(TsvReader reader = new TsvReader(new ByteArrayInputStream(BenchmarkData.adjacencies(places, 4)), TsvReader.DEFAULT_BLOCK_SIZE)) {
+            adjacencies = new long[places * 8 * 2];
+            int count = 0;
+            for(TsvReader.Block block: reader) {
+                TsvReader.Record record = block.records();
+                while(record.next() && count < adjacencies.length) {
+                    adjacencies[count++] = record.longValue(0);
+                    adjacencies[count++] = record.longValue(2);
+                }
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void freshStore() throws IOException {
+        store = BenchmarkData.placeStore(placesTsv);
+    }
+
+    @Benchmark
+    public PlaceStore addAndMerge() throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        for(int t=0;t<threads;t++) {
+            final int thread = t;
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for(int i=thread;i<aliasWoeids.length && aliasNames[i] != null;i+=threads) {
+                        int row = store.row(aliasWoeids[i]);
+                        if(row >= 0) {
+                            store.addName(row, aliasLanguages[i], aliasNames[i], false);
+                        }
+                    }
+                    for(int i=thread * 2;i<adjacencies.length && adjacencies[i] != 0;i+=threads * 2) {
+                        int row1 = store.row(adjacencies[i]);
+                        int row2 = store.row(adjacencies[i + 1]);
+                        if(row1 >= 0 && row2 >= 0) {
+                            store.addNeighbor(row1, adjacencies[i + 1]);
+                            store.addNeighbor(row2, adjacencies[i]);
+                        }
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for(Thread worker: workers) {
+            worker.join();
+        }
+        store.merge(threads);
+        return store;
+    }
+}
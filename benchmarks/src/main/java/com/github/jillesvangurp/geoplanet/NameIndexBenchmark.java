@@ -0,0 +1,114 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the name index over all names and alternative names and the latency percentiles of exact and autocomplete
+ * lookups. Queries are names of the indexed places and prefixes of 1 to 6 characters of them.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class NameIndexBenchmark {
+    @Param({ "100000" })
+    int places;
+
+    @Param({ "10" })
+    int limit;
+
+    private PlaceStore store;
+    private File file;
+    private File buildFile;
+    private NameIndex index;
+    private String[] names;
+    private String[] prefixes;
+
+    @Setup
+    public void setup() throws IOException {
+        store = BenchmarkData.joinedPlaceStore(places);
+        file = File.createTempFile("names", ".gz");
+        buildFile = File.createTempFile("build", ".gz");
+        write(file);
+        index = NameIndex.load(file.getPath());
+
+        final List<String> all = new ArrayList<>();
+        for(int row=0;row<store.rows();row++) {
+            store.names(row, new PlaceStore.NameVisitor() {
+                @Override
+                public void visit(String language, String name) {
+                    all.add(name);
+                }
+            });
+        }
+        Random random = new Random(42);
+        names = new String[10000];
+        prefixes = new String[names.length];
+        for(int i=0;i<names.length;i++) {
+            names[i] = all.get(random.nextInt(all.size()));
+            String normalized = NameIndex.normalize(names[i]);
+            prefixes[i] = normalized.substring(0, Math.min(normalized.length(), 1 + random.nextInt(6)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+        buildFile.delete();
+    }
+
+    private void write(File target) throws IOException {
+        try(NameIndex.Writer writer = new NameIndex.Writer(target.getPath())) {
+            for(int row=0;row<store.rows();row++) {
+                final long woeid = store.woeid(row);
+                final String placeType = store.placeType(row);
+                store.names(row, new PlaceStore.NameVisitor() {
+                    @Override
+                    public void visit(String language, String name) {
+                        writer.add(woeid, placeType, language, name);
+                    }
+                });
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void build() throws IOException {
+        write(buildFile);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long[] exact() {
+        return index.exact(names[ThreadLocalRandom.current().nextInt(names.length)], limit);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long[] complete() {
+        return index.complete(prefixes[ThreadLocalRandom.current().nextInt(prefixes.length)], limit);
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+
+/**
+ * Checking flickr rings for self intersections, on json and on primitive arrays, and processing whole features the
+ * way FlickShapeProcessor does, with and without simplification.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RepairBenchmark {
+    @Param({ "200" })
+    int vertices;
+
+    @Param({ "5" })
+    int selfIntersectingPercent;
+
+    private final List<double[][]> rings = new ArrayList<>();
+    private final List<JsonArray> jsonRings = new ArrayList<>();
+    private final List<JsonObject> features = new ArrayList<>();
+    private FlickShapeProcessor processor;
+    private FlickShapeProcessor simplifyingProcessor;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(45);
+        for(int i=0;i<1000;i++) {
+            boolean selfIntersecting = random.nextInt(100) < selfIntersectingPercent;
+            double[][] ring = BenchmarkData.ring(random, 0, 0, 1, vertices, selfIntersecting);
+            rings.add(ring);
+            jsonRings.add(BenchmarkData.toJson(ring));
+            features.add(BenchmarkData.feature(random, i, vertices, selfIntersecting));
+        }
+        PolygonRepair repair = new PolygonRepair(PolygonRepair.Strategy.HULL, 100000, 1000);
+        processor = new FlickShapeProcessor(new JsonParser(), true, null, repair, null);
+        Map<String, Double> tolerances = new HashMap<>();
+        for(String placeType: BenchmarkData.PLACE_TYPES) {
+            tolerances.put(placeType, 0.01);
+        }
+        simplifyingProcessor = new FlickShapeProcessor(new JsonParser(), true, null, repair, new Simplifier(tolerances, 5));
+    }
+
+    @Benchmark
+    public void selfIntersectsJson(Blackhole blackhole) {
+        SelfIntersectionDetector detector = SelfIntersectionDetector.get();
+        for(JsonArray ring: jsonRings) {
+            blackhole.consume(detector.selfIntersects(ring));
+        }
+    }
+
+    @Benchmark
+    public void selfIntersectsArrays(Blackhole blackhole) {
+        SelfIntersectionDetector detector = SelfIntersectionDetector.get();
+        for(double[][] ring: rings) {
+            blackhole.consume(detector.selfIntersects(ring));
+        }
+    }
+
+    @Benchmark
+    public void processFeatures(Blackhole blackhole) {
+        PolygonRepair.Stats stats = new PolygonRepair.Stats();
+        Simplifier.Stats simplified = new Simplifier.Stats();
+        for(JsonObject feature: features) {
+            blackhole.consume(processor.processFeature(feature, stats, simplified));
+        }
+    }
+
+    @Benchmark
+    public void processFeaturesSimplified(Blackhole blackhole) {
+        PolygonRepair.Stats stats = new PolygonRepair.Stats();
+        Simplifier.Stats simplified = new Simplifier.Stats();
+        for(JsonObject feature: features) {
+            blackhole.consume(simplifyingProcessor.processFeature(feature, stats, simplified));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+import com.github.jsonj.tools.JsonSerializer;
+
+/**
+ * Turning the joined places into cleaned up json or binary records, and loading the result again: parsing the gzipped
+ * json lines versus iterating over the binary file. The benchmarks also print the sizes of both files once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SerializationBenchmark {
+    @Param({ "100000" })
+    int places;
+
+    private PlaceStore store;
+    private File jsonFile;
+    private File binaryFile;
+
+    @Setup
+    public void setup() throws IOException {
+        store = BenchmarkData.joinedPlaceStore(places);
+        jsonFile = File.createTempFile("places", ".json.gz");
+        binaryFile = File.createTempFile("places", ".bin");
+        try(BufferedWriter bw = GeoPlanetConverter.gzipFileWriter(jsonFile.getPath());
+                BinaryOutput.Writer binary = new BinaryOutput.Writer(binaryFile.getPath())) {
+            for(int row=0;row<store.rows();row++) {
+                JsonObject cleaned = GeoPlanetConverter.PostProcess.clean(store.toJson(row));
+                JsonSerializer.write(bw, cleaned, false);
+                bw.newLine();
+                binary.add(cleaned);
+            }
+        }
+        System.out.println("json lines " + jsonFile.length() + " bytes; binary " + binaryFile.length() + " bytes");
+    }
+
+    @TearDown
+    public void tearDown() {
+        jsonFile.delete();
+        binaryFile.delete();
+    }
+
+    @Benchmark
+    public void serializeJson() throws IOException {
+        try(BufferedWriter bw = new BufferedWriter(new NullWriter(), 65536)) {
+            for(int row=0;row<store.rows();row++) {
+                JsonSerializer.write(bw, GeoPlanetConverter.PostProcess.clean(store.toJson(row)), false);
+                bw.newLine();
+            }
+        }
+    }
+
+    @Benchmark
+    public void serializeBinary() throws IOException {
+        File file = File.createTempFile("places", ".bin");
+        try {
+            try(BinaryOutput.Writer binary = new BinaryOutput.Writer(file.getPath())) {
+                for(int row=0;row<store.rows();row++) {
+                    binary.add(GeoPlanetConverter.PostProcess.clean(store.toJson(row)));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public void loadJsonLines(Blackhole blackhole) throws IOException {
+        JsonParser parser = new JsonParser();
+        try(BufferedReader reader = GeoPlanetConverter.gzipFileReader(jsonFile.getPath())) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                JsonObject place = parser.parse(line).asObject();
+                blackhole.consume(place.getString(GeoPlanetConverter.ID));
+                blackhole.consume(place.getString(GeoPlanetConverter.TITLE));
+            }
+        }
+    }
+
+    @Benchmark
+    public void loadBinary(Blackhole blackhole) throws IOException {
+        try(BinaryOutput output = BinaryOutput.open(binaryFile.getPath())) {
+            BinaryOutput.Cursor cursor = output.cursor();
+            while(cursor.next()) {
+                blackhole.consume(cursor.woeid());
+                blackhole.consume(cursor.title());
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.jsonj.JsonObject;
+
+/**
+ * Writing the cleaned up places to shards and looking up single places by woeid. The lookup reports latency
+ * percentiles.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ShardedOutputBenchmark {
+    @Param({ "100000" })
+    int places;
+
+    @Param({ "1", "4", "16" })
+    int shards;
+
+    private JsonObject[] cleaned;
+    private File dir;
+    private ShardedOutput output;
+
+    @Setup
+    public void setup() throws IOException {
+        PlaceStore store = BenchmarkData.joinedPlaceStore(places);
+        cleaned = new JsonObject[store.rows()];
+        for(int row=0;row<store.rows();row++) {
+            cleaned[row] = GeoPlanetConverter.PostProcess.clean(store.toJson(row));
+        }
+        dir = Files.createTempDirectory("shards").toFile();
+        String prefix = new File(dir, "lookup").getPath();
+        write(prefix);
+        output = ShardedOutput.open(prefix);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        output.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private void write(String prefix) throws IOException {
+        try(ShardedOutput.Writer writer = new ShardedOutput.Writer(prefix, shards)) {
+            for(int i=0;i<cleaned.length;i++) {
+                writer.add(BenchmarkData.woeid(i), cleaned[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void write() throws IOException {
+        write(new File(dir, "write").getPath());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public JsonObject lookup() throws IOException {
+        return output.get(BenchmarkData.woeid(ThreadLocalRandom.current().nextInt(places)));
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Point lookups in the {@link SpatialIndex} on all cores. The geometries are nested like flickr shapes: a grid of
+ * countries, each with a grid of localities.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(Threads.MAX)
+public class SpatialIndexBenchmark {
+    @Param({ "100" })
+    int vertices;
+
+    private SpatialIndex index;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(46);
+        File file = File.createTempFile("spatialindex", ".gz");
+        try {
+            try(SpatialIndex.Writer writer = new SpatialIndex.Writer(file.getPath())) {
+                int woeid = 1;
+                for(int x=-170;x<170;x+=10) {
+                    for(int y=-80;y<80;y+=10) {
+                        writer.add(woeid++, 1, BenchmarkData.polygon(BenchmarkData.ring(random, x + 5, y + 5, 5, vertices, false)));
+                        for(int lx=0;lx<10;lx++) {
+                            for(int ly=0;ly<10;ly++) {
+                                writer.add(woeid++, 2, BenchmarkData.polygon(BenchmarkData.ring(random, x + lx + 0.5, y + ly + 0.5, 0.5, vertices, false)));
+                            }
+                        }
+                    }
+                }
+            }
+            index = SpatialIndex.load(file.getPath());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public long[] containing() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return index.containing(random.nextDouble() * 160 - 80, random.nextDouble() * 340 - 170);
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Splitter;
+
+/**
+ * Parsing the places tsv with {@link TsvReader} versus splitting lines with a guava Splitter and dequoting the values,
+ * which is what the converter used to do. Run with -prof gc to see the allocation per line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TsvBenchmark {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Splitter TAB_SPLITTER = Splitter.on('\t');
+
+    @Param({ "100000" })
+    int places;
+
+    private byte[] tsv;
+
+    @Setup
+    public void setup() {
+        tsv = BenchmarkData.places(places);
+    }
+
+    @Benchmark
+    public long tsvReader() throws IOException {
+        StringPool pool = new StringPool();
+        long checksum = 0;
+        try(TsvReader reader = new TsvReader(new ByteArrayInputStream(tsv), TsvReader.DEFAULT_BLOCK_SIZE)) {
+            for(TsvReader.Block block: reader) {
+                TsvReader.Record record = block.records();
+                while(record.next()) {
+                    checksum += record.longValue(0) + record.id(1, pool) + record.length(2) + record.id(3, pool)
+                            + record.id(4, pool) + record.longValue(5, -1);
+                }
+            }
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public long splitterAndDeqoute() throws IOException {
+        StringPool pool = new StringPool();
+        long checksum = 0;
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(tsv), UTF8))) {
+            reader.readLine();
+            String line;
+            String[] values = new String[6];
+            while((line = reader.readLine()) != null) {
+                int i = 0;
+                for(String value: TAB_SPLITTER.split(line)) {
+                    if(i == values.length) {
+                        break;
+                    }
+                    value = GeoPlanetConverter.deqoute(value);
+                    values[i++] = StringUtils.isNotEmpty(value) ? value : null;
+                }
+                checksum += Long.parseLong(values[0]) + pool.id(values[1]) + values[2].length() + pool.id(values[3])
+                        + pool.id(values[4]) + (values[5] == null ? -1 : Long.parseLong(values[5]));
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * The places phase on a single thread: parsing plus adding the places to the store and indexing them.
+     */
+    @Benchmark
+    public PlaceStore readPlaces() throws IOException {
+        return BenchmarkData.placeStore(tsv);
+    }
+}
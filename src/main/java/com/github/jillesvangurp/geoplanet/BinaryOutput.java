@@ -0,0 +1,511 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.ANCESTOR_IDS;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.CATEGORIES;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.COUNTRY;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.GEOMETRY;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.GEOMETRY_ID;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.ID;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.NAME;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.NEIGHBOR_IDS;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.PARENT_ID;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.TITLE;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonElement;
+import com.github.jsonj.JsonObject;
+
+/**
+ * Compact binary version of the cleaned up places that can be read without a json parser.
+ *
+ * The file starts with a magic number, the version and the number of decimals the coordinates were quantized to. Then
+ * come the records, the dictionary and a footer with the offset of the dictionary and the number of records. Numbers
+ * are varints; place types, countries and languages are codes in the dictionary; strings are a length followed by utf8
+ * bytes. A record is:
+ *
+ * <pre>
+ * woeid, parent woeid + 1, place type + 1, country + 1, title length + 1, title,
+ * number of names, (language, name length, name)*,
+ * number of ancestors, ancestor woeids, number of neighbors, neighbor woeids, geometry woeid + 1,
+ * number of polygons, (number of rings, (number of points, (x, y)*)*)*
+ * </pre>
+ *
+ * where 0 means missing for the values that are stored + 1. Coordinates are multiplied by 10^decimals, rounded and
+ * stored as zig zag encoded deltas from the previous point of the record.
+ *
+ * The file is not compressed so that {@link #open(String)} can map it into memory; a {@link Cursor} then decodes one
+ * record at a time into reusable arrays.
+ */
+public class BinaryOutput implements Closeable {
+    static final int DEFAULT_DECIMALS = 6;
+    private static final int MAGIC = 0x47504c42;
+    private static final int VERSION = 1;
+    private static final int SEGMENT_BITS = 30;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile file;
+    // the file is mapped in segments because a single mapping can't be bigger than 2GB
+    private final MappedByteBuffer[] segments;
+    private final double scale;
+    private final long recordsEnd;
+    private final long records;
+    private final String[] dictionary;
+
+    private BinaryOutput(String fileName) throws IOException {
+        file = new RandomAccessFile(fileName, "r");
+        long length = file.length();
+        segments = new MappedByteBuffer[(int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS)];
+        for(int i=0;i<segments.length;i++) {
+            long start = (long) i << SEGMENT_BITS;
+            segments[i] = file.getChannel().map(MapMode.READ_ONLY, start, Math.min(1L << SEGMENT_BITS, length - start));
+        }
+        if(length < 28 || readInt(0) != MAGIC) {
+            throw new IOException("not a binary geoplanet file: " + fileName);
+        }
+        if(readInt(4) != VERSION) {
+            throw new IOException("unsupported version " + readInt(4) + " of " + fileName);
+        }
+        scale = Math.pow(10, readInt(8));
+        recordsEnd = readLong(length - 16);
+        records = readLong(length - 8);
+        Cursor cursor = new Cursor(recordsEnd);
+        dictionary = new String[(int) cursor.varLong()];
+        for(int i=0;i<dictionary.length;i++) {
+            int valueLength = (int) cursor.varLong();
+            dictionary[i] = cursor.string(cursor.position, valueLength);
+            cursor.position += valueLength;
+        }
+    }
+
+    public static BinaryOutput open(String file) throws IOException {
+        return new BinaryOutput(file);
+    }
+
+    public long records() {
+        return records;
+    }
+
+    /**
+     * @return a new cursor positioned before the first record; cursors are not thread safe but several of them can be
+     *         used at the same time
+     */
+    public Cursor cursor() {
+        return new Cursor(12);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private byte get(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+    }
+
+    private int readInt(long position) {
+        int value = 0;
+        for(int i=0;i<4;i++) {
+            value = (value << 8) | (get(position + i) & 0xff);
+        }
+        return value;
+    }
+
+    private long readLong(long position) {
+        return ((long) readInt(position) << 32) | (readInt(position + 4) & 0xffffffffL);
+    }
+
+    /**
+     * Decodes the records one at a time. Strings are only decoded when they are asked for.
+     */
+    public class Cursor {
+        private long position;
+        private long woeid;
+        private long parentWoeid;
+        private int placeType;
+        private int country;
+        private long titlePosition;
+        private int titleLength;
+        private int names;
+        private int[] nameLanguages = new int[16];
+        private long[] namePositions = new long[16];
+        private int[] nameLengths = new int[16];
+        private int ancestors;
+        private long[] ancestorWoeids = new long[16];
+        private int neighbors;
+        private long[] neighborWoeids = new long[16];
+        private long geometryWoeid;
+        private int polygons;
+        // first ring of each polygon and first point of each ring; one extra entry marks the end
+        private int[] polygonRings = new int[4];
+        private int[] ringPoints = new int[4];
+        private double[] coordinates = new double[256];
+
+        private Cursor(long position) {
+            this.position = position;
+        }
+
+        /**
+         * @return false if there are no more records
+         */
+        public boolean next() {
+            if(position >= recordsEnd) {
+                return false;
+            }
+            woeid = varLong();
+            parentWoeid = varLong() - 1;
+            placeType = (int) varLong() - 1;
+            country = (int) varLong() - 1;
+            titleLength = (int) varLong() - 1;
+            titlePosition = position;
+            position += Math.max(titleLength, 0);
+
+            names = (int) varLong();
+            if(names > nameLengths.length) {
+                nameLanguages = new int[names];
+                namePositions = new long[names];
+                nameLengths = new int[names];
+            }
+            for(int i=0;i<names;i++) {
+                nameLanguages[i] = (int) varLong();
+                nameLengths[i] = (int) varLong();
+                namePositions[i] = position;
+                position += nameLengths[i];
+            }
+
+            ancestors = (int) varLong();
+            ancestorWoeids = readWoeids(ancestors, ancestorWoeids);
+            neighbors = (int) varLong();
+            neighborWoeids = readWoeids(neighbors, neighborWoeids);
+            geometryWoeid = varLong() - 1;
+
+            polygons = (int) varLong();
+            polygonRings = ensure(polygonRings, polygons + 1);
+            int rings = 0;
+            int points = 0;
+            long x = 0;
+            long y = 0;
+            for(int p=0;p<polygons;p++) {
+                polygonRings[p] = rings;
+                int ringCount = (int) varLong();
+                ringPoints = ensure(ringPoints, rings + ringCount + 1);
+                for(int r=0;r<ringCount;r++) {
+                    ringPoints[rings++] = points;
+                    int pointCount = (int) varLong();
+                    if((points + pointCount) * 2 > coordinates.length) {
+                        coordinates = Arrays.copyOf(coordinates, Math.max(coordinates.length * 2, (points + pointCount) * 2));
+                    }
+                    for(int i=0;i<pointCount;i++) {
+                        x += zigZagDecode(varLong());
+                        y += zigZagDecode(varLong());
+                        coordinates[points * 2] = x / scale;
+                        coordinates[points * 2 + 1] = y / scale;
+                        points++;
+                    }
+                }
+            }
+            polygonRings[polygons] = rings;
+            ringPoints = ensure(ringPoints, rings + 1);
+            ringPoints[rings] = points;
+            return true;
+        }
+
+        private long[] readWoeids(int count, long[] woeids) {
+            long[] result = count > woeids.length ? new long[count] : woeids;
+            for(int i=0;i<count;i++) {
+                result[i] = varLong();
+            }
+            return result;
+        }
+
+        private int[] ensure(int[] array, int size) {
+            return size > array.length ? Arrays.copyOf(array, Math.max(size, array.length * 2)) : array;
+        }
+
+        long varLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = get(position++);
+                value |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while(b < 0);
+            return value;
+        }
+
+        private String string(long start, int length) {
+            byte[] bytes = new byte[length];
+            for(int i=0;i<length;i++) {
+                bytes[i] = get(start + i);
+            }
+            return new String(bytes, UTF8);
+        }
+
+        public long woeid() {
+            return woeid;
+        }
+
+        /**
+         * @return woeid of the parent or -1
+         */
+        public long parentWoeid() {
+            return parentWoeid;
+        }
+
+        public String placeType() {
+            return placeType < 0 ? null : dictionary[placeType];
+        }
+
+        public String country() {
+            return country < 0 ? null : dictionary[country];
+        }
+
+        public String title() {
+            return titleLength < 0 ? null : string(titlePosition, titleLength);
+        }
+
+        public int names() {
+            return names;
+        }
+
+        public String nameLanguage(int i) {
+            return dictionary[nameLanguages[i]];
+        }
+
+        public String name(int i) {
+            return string(namePositions[i], nameLengths[i]);
+        }
+
+        /**
+         * @return woeids of the parent, grand parent, etc.
+         */
+        public long[] ancestors() {
+            return Arrays.copyOf(ancestorWoeids, ancestors);
+        }
+
+        public long[] neighbors() {
+            return Arrays.copyOf(neighborWoeids, neighbors);
+        }
+
+        /**
+         * @return woeid of the ancestor whose geometry covers this place if it has none of its own; -1 otherwise
+         */
+        public long geometryWoeid() {
+            return geometryWoeid;
+        }
+
+        public int polygons() {
+            return polygons;
+        }
+
+        public int rings(int polygon) {
+            return polygonRings[polygon + 1] - polygonRings[polygon];
+        }
+
+        /**
+         * @return the points of the ring as x0,y0,x1,y1,...
+         */
+        public double[] ring(int polygon, int ring) {
+            int r = polygonRings[polygon] + ring;
+            return Arrays.copyOfRange(coordinates, ringPoints[r] * 2, ringPoints[r + 1] * 2);
+        }
+    }
+
+    static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes the cleaned up places; see {@link GeoPlanetConverter.PostProcess#clean(JsonObject)}. Not thread safe.
+     */
+    public static class Writer implements Closeable {
+        private final OutputStream out;
+        private final double scale;
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> dictionary = new ArrayList<>();
+        private long position = 0;
+        private long records = 0;
+
+        public Writer(String file) throws IOException {
+            this(file, DEFAULT_DECIMALS);
+        }
+
+        /**
+         * @param decimals coordinates are rounded to this number of decimals
+         */
+        public Writer(String file, int decimals) throws IOException {
+            out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+            scale = Math.pow(10, decimals);
+            writeInt(MAGIC);
+            writeInt(VERSION);
+            writeInt(decimals);
+        }
+
+        public void add(JsonObject place) throws IOException {
+            varLong(Long.parseLong(place.getString(ID)));
+            varLong(woeidOrMissing(place.getString(PARENT_ID)) + 1);
+            varLong(code(placeType(place)) + 1);
+            varLong(code(place.getString(COUNTRY)) + 1);
+            String title = place.getString(TITLE);
+            if(title == null) {
+                varLong(0);
+            } else {
+                byte[] bytes = title.getBytes(UTF8);
+                varLong(bytes.length + 1);
+                write(bytes);
+            }
+
+            JsonObject names = place.getObject(NAME);
+            int count = 0;
+            if(names != null) {
+                for(Entry<String, JsonElement> entry: names.entrySet()) {
+                    count += entry.getValue().asArray().size();
+                }
+            }
+            varLong(count);
+            if(names != null) {
+                for(Entry<String, JsonElement> entry: names.entrySet()) {
+                    int language = code(entry.getKey());
+                    for(String name: entry.getValue().asArray().strings()) {
+                        byte[] bytes = name.getBytes(UTF8);
+                        varLong(language);
+                        varLong(bytes.length);
+                        write(bytes);
+                    }
+                }
+            }
+
+            writeWoeids(place.getArray(ANCESTOR_IDS));
+            writeWoeids(place.getArray(NEIGHBOR_IDS));
+            varLong(woeidOrMissing(place.getString(GEOMETRY_ID)) + 1);
+            writeGeometry(place.getObject(GEOMETRY));
+            records++;
+        }
+
+        private static String placeType(JsonObject place) {
+            JsonArray types = place.getArray(CATEGORIES, "geoplanet");
+            return types == null || types.size() == 0 ? null : types.get(0).asString();
+        }
+
+        private static long woeidOrMissing(String woeid) {
+            return woeid == null ? -1 : Long.parseLong(woeid);
+        }
+
+        private void writeWoeids(JsonArray woeids) throws IOException {
+            if(woeids == null) {
+                varLong(0);
+            } else {
+                varLong(woeids.size());
+                for(String woeid: woeids.strings()) {
+                    varLong(Long.parseLong(woeid));
+                }
+            }
+        }
+
+        private void writeGeometry(JsonObject geometry) throws IOException {
+            if(geometry == null) {
+                varLong(0);
+                return;
+            }
+            JsonArray coordinates = geometry.getArray("coordinates");
+            List<JsonArray> polygons = new ArrayList<>();
+            if("MultiPolygon".equalsIgnoreCase(geometry.getString("type"))) {
+                for(JsonArray polygon: coordinates.arrays()) {
+                    polygons.add(polygon);
+                }
+            } else {
+                polygons.add(coordinates);
+            }
+            varLong(polygons.size());
+            long[] previous = new long[2];
+            for(JsonArray polygon: polygons) {
+                varLong(polygon.size());
+                for(JsonArray ring: polygon.arrays()) {
+                    varLong(ring.size());
+                    for(JsonArray point: ring.arrays()) {
+                        for(int i=0;i<2;i++) {
+                            long quantized = Math.round(point.get(i).asDouble() * scale);
+                            varLong(zigZagEncode(quantized - previous[i]));
+                            previous[i] = quantized;
+                        }
+                    }
+                }
+            }
+        }
+
+        private int code(String value) {
+            if(value == null) {
+                return -1;
+            }
+            Integer code = codes.get(value);
+            if(code == null) {
+                code = dictionary.size();
+                codes.put(value, code);
+                dictionary.add(value);
+            }
+            return code;
+        }
+
+        private void varLong(long value) throws IOException {
+            while((value & ~0x7fL) != 0) {
+                out.write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+                position++;
+            }
+            out.write((int) value);
+            position++;
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            out.write(bytes);
+            position += bytes.length;
+        }
+
+        private void writeInt(int value) throws IOException {
+            for(int shift=24;shift>=0;shift-=8) {
+                out.write(value >>> shift);
+            }
+            position += 4;
+        }
+
+        /**
+         * Writes the dictionary and the footer.
+         */
+        @Override
+        public void close() throws IOException {
+            long dictionaryStart = position;
+            varLong(dictionary.size());
+            for(String value: dictionary) {
+                byte[] bytes = value.getBytes(UTF8);
+                varLong(bytes.length);
+                write(bytes);
+            }
+            writeInt((int) (dictionaryStart >>> 32));
+            writeInt((int) dictionaryStart);
+            writeInt((int) (records >>> 32));
+            writeInt((int) records);
+            out.close();
+        }
+    }
+}
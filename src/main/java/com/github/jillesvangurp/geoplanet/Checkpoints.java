@@ -0,0 +1,125 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Saves the results of conversion phases in a directory so that a rerun can skip phases whose inputs did not change.
+ * A checkpoint is stored under the name of its phase and a key; the key should cover the checksums of all the files
+ * that went into the result, including those of earlier phases it builds on. Saving a checkpoint removes the
+ * checkpoints of the same phase with other keys.
+ */
+class Checkpoints {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File dir;
+
+    public Checkpoints(File dir) {
+        this.dir = dir;
+        if(!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("cannot create checkpoint directory " + dir);
+        }
+    }
+
+    interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    interface Reader {
+        void read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * @return crc32 and length of the file contents
+     */
+    static String checksum(String file) throws IOException {
+        CRC32 crc = new CRC32();
+        long length = 0;
+        byte[] buffer = new byte[1 << 20];
+        try(InputStream in = new FileInputStream(file)) {
+            int read;
+            while((read = in.read(buffer)) >= 0) {
+                crc.update(buffer, 0, read);
+                length += read;
+            }
+        }
+        return Long.toHexString(crc.getValue()) + "-" + Long.toHexString(length);
+    }
+
+    /**
+     * @return a key that combines the parts; usually checksums of the input files and the key of the previous phase
+     */
+    static String key(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for(String part: parts) {
+                digest.update(part.getBytes(UTF8));
+                digest.update((byte) 0);
+            }
+            StringBuilder key = new StringBuilder();
+            for(byte b: digest.digest()) {
+                key.append(Character.forDigit((b >>> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.substring(0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    File file(String phase, String key) {
+        return new File(dir, phase + "-" + key + ".bin.gz");
+    }
+
+    /**
+     * @return true if there was a checkpoint for the phase and key and it was read
+     */
+    public boolean load(String phase, String key, Reader reader) throws IOException {
+        File file = file(phase, key);
+        if(!file.exists()) {
+            return false;
+        }
+        System.out.println("loading checkpoint " + file);
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new ReadAheadInputStream(new GZIPInputStream(new FileInputStream(file), 65536)), 65536))) {
+            reader.read(in);
+        }
+        return true;
+    }
+
+    /**
+     * Writes to a temporary file first, so an interrupted run never leaves a partial checkpoint behind.
+     */
+    public void save(String phase, String key, Writer writer) throws IOException {
+        File file = file(phase, key);
+        File tmp = new File(dir, file.getName() + ".tmp");
+        System.out.println("saving checkpoint " + file);
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new ParallelGzipOutputStream(new FileOutputStream(tmp)), 65536))) {
+            writer.write(out);
+        }
+        File[] old = dir.listFiles();
+        if(old != null) {
+            for(File f: old) {
+                if(f.getName().startsWith(phase + "-") && f.getName().endsWith(".bin.gz") && !f.equals(file)) {
+                    if(!f.delete()) {
+                        System.out.println("could not remove old checkpoint " + f);
+                    }
+                }
+            }
+        }
+        if(file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            throw new IOException("could not move " + tmp + " to " + file);
+        }
+    }
+}
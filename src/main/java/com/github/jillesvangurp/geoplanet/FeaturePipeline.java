@@ -0,0 +1,158 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounded pipeline that turns input into output lines on a pool of worker threads that is shared between any number
+ * of outputs. Each output has its own writer thread, so outputs never wait for each other.
+ *
+ * The thread feeding an output submits a task per line. At most maxInFlight tasks per output are queued or running;
+ * submitting blocks when that limit is reached. In ordered mode, lines are written in the order the tasks were
+ * submitted; otherwise they are written as soon as they are done, which avoids waiting for a slow task at the head of
+ * the queue.
+ */
+class FeaturePipeline implements Closeable {
+    private final ExecutorService workers;
+    private final int maxInFlight;
+    private final boolean ordered;
+
+    public FeaturePipeline(int threads, int maxInFlight, boolean ordered) {
+        workers = Executors.newFixedThreadPool(threads);
+        this.maxInFlight = maxInFlight;
+        this.ordered = ordered;
+    }
+
+    /**
+     * @param writer written to by a dedicated thread until {@link Output#finish()} is called
+     */
+    public Output open(Writer writer) {
+        return new Output(writer);
+    }
+
+    /**
+     * Stops the workers. Tasks of outputs that were not finished are cancelled, so their writer threads do not wait
+     * for lines that will never be written.
+     */
+    @Override
+    public void close() {
+        for(Runnable task: workers.shutdownNow()) {
+            ((FutureTask<?>) task).cancel(false);
+        }
+    }
+
+    class Output {
+        private final Writer writer;
+        private final Semaphore permits = new Semaphore(maxInFlight);
+        private final BlockingQueue<FutureTask<String>> written = new LinkedBlockingQueue<>();
+        private final FutureTask<String> endMarker = new FutureTask<>(new Callable<String>() {
+            @Override
+            public String call() {
+                return null;
+            }
+        });
+        private final Thread writerThread;
+        private volatile IOException writeFailure;
+
+        private Output(Writer writer) {
+            this.writer = writer;
+            writerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    write();
+                }
+            }, "pipeline-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+
+        /**
+         * Runs the task on one of the workers and writes the line it returns, followed by a newline. Tasks that return
+         * null produce no output.
+         *
+         * @throws RejectedExecutionException if the pipeline was closed
+         */
+        public void submit(Callable<String> task) throws InterruptedException {
+            permits.acquire();
+            FutureTask<String> future;
+            if(ordered) {
+                future = new FutureTask<>(task);
+                written.put(future);
+            } else {
+                future = new FutureTask<String>(task) {
+                    @Override
+                    protected void done() {
+                        written.add(this);
+                    }
+                };
+            }
+            try {
+                workers.execute(future);
+            } catch (RejectedExecutionException e) {
+                // the writer thread releases the permit of the cancelled task
+                future.cancel(false);
+                throw e;
+            }
+        }
+
+        /**
+         * Waits until everything submitted so far has been written and stops the writer thread. If the wait is
+         * interrupted, the writer thread is stopped without writing the remaining lines.
+         *
+         * @throws IOException if writing any of the lines failed
+         */
+        public void finish() throws IOException, InterruptedException {
+            boolean done = false;
+            try {
+                permits.acquire(maxInFlight);
+                permits.release(maxInFlight);
+                done = true;
+            } finally {
+                written.add(endMarker);
+                if(!done) {
+                    writerThread.interrupt();
+                }
+                writerThread.join();
+            }
+            if(writeFailure != null) {
+                throw writeFailure;
+            }
+        }
+
+        private void write() {
+            try {
+                FutureTask<String> future;
+                while((future = written.take()) != endMarker) {
+                    try {
+                        String line = future.get();
+                        if(line != null && writeFailure == null) {
+                            writer.write(line);
+                            writer.write('\n');
+                        }
+                    } catch (ExecutionException e) {
+                        e.getCause().printStackTrace();
+                    } catch (CancellationException e) {
+                        // dropped when the pipeline was closed
+                    } catch (IOException e) {
+                        writeFailure = e;
+                    } finally {
+                        permits.release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
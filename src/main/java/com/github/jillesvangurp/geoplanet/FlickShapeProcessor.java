@@ -5,124 +5,294 @@ import static com.github.jsonj.tools.JsonBuilder.object;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.nio.charset.Charset;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.github.jsonj.JsonArray;
 import com.github.jsonj.JsonObject;
 import com.github.jsonj.tools.GeoJsonSupport;
 import com.github.jsonj.tools.JsonParser;
-import com.jillesvangurp.geo.GeoGeometry;
 
 public class FlickShapeProcessor {
-    private static final Charset UTF8 = Charset.forName("UTF-8");
-
     private final JsonParser parser;
 
-    private final BufferedWriter bw;
+    private final boolean streaming;
+
+    private final FeaturePipeline pipeline;
+
+    private final PolygonRepair repair;
 
-    public FlickShapeProcessor(JsonParser parser, BufferedWriter bw) {
+    private final Simplifier simplifier;
+
+    /**
+     * @param streaming if true, features are parsed one at a time rather than parsing the whole feature collection first
+     * @param pipeline repairs and serializes the features concurrently
+     * @param repair used for self intersecting polygons
+     * @param simplifier if not null, the outer rings are simplified before they are checked for self intersections
+     */
+    public FlickShapeProcessor(JsonParser parser, boolean streaming, FeaturePipeline pipeline, PolygonRepair repair, Simplifier simplifier) {
         this.parser = parser;
-        this.bw = bw;
+        this.streaming = streaming;
+        this.pipeline = pipeline;
+        this.repair = repair;
+        this.simplifier = simplifier;
     }
 
-    private void process(String file) throws IOException {
-
-        BufferedReader br = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)),UTF8));
-        JsonObject featureCollection = parser.parse(br).asObject();
-        JsonArray features = featureCollection.getArray("features");
-        System.out.println("nroffeatures:" + features.size());
-        for(JsonObject feature: features.objects()) {
-            try {
-                String type = feature.getString("geometry","type");
-                JsonArray coordinates = feature.getArray("geometry","coordinates");
-                if("MultiPolygon".equalsIgnoreCase(type)) {
-                    if(coordinates.size()==1) {
-                        type="Polygon";
-                        // only keep the outer
-                        JsonArray newCoordinates = new JsonArray();
-                        newCoordinates.add(coordinates.get(0).asArray().get(0).asArray());
-                        coordinates=fixIfSelfIntersecting(newCoordinates);
-                    } else {
-                        for(int i=0; i<coordinates.size();i++) {
-                            JsonArray newCoordinates = new JsonArray();
-                            newCoordinates.add(coordinates.get(i).asArray().get(0).asArray());
-                            coordinates.set(i, fixIfSelfIntersecting(newCoordinates));
+    /**
+     * Processes all the files at the same time. Each file gets its own reader and writer thread and all of them share
+     * the worker threads of the pipeline. The output of each file goes to a separate gzip file first; these are
+     * concatenated into the output file in the order of the input files when all files are done. Concatenated gzip
+     * members are a valid gzip file.
+     *
+     * The output is written to a temporary file that replaces the output file only when all files succeeded. If one
+     * file fails, the others are cancelled and the part files are removed.
+     */
+    public void processAll(List<String> files, String outputFile) throws IOException {
+        if(files.isEmpty()) {
+            throw new IllegalArgumentException("no files to process");
+        }
+        long start = System.currentTimeMillis();
+        GeoPlanetConverter.resetPeakHeapUsage();
+        ExecutorService fileThreads = Executors.newFixedThreadPool(files.size());
+        List<File> partFiles = new ArrayList<>();
+        List<Future<File>> parts = new ArrayList<>();
+        File tmp = new File(outputFile + ".tmp");
+        boolean succeeded = false;
+        try {
+            for(int i=0;i<files.size();i++) {
+                final String file = files.get(i);
+                final File part = new File(outputFile + ".part" + i);
+                partFiles.add(part);
+                parts.add(fileThreads.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        try(BufferedWriter bw = GeoPlanetConverter.gzipFileWriter(part.getPath())) {
+                            process(file, bw);
                         }
+                        return part;
                     }
-                } else if("Polygon".equalsIgnoreCase(type)) {
-                    JsonArray newCoordinates = new JsonArray();
-                    newCoordinates.add(coordinates.get(0).asArray());
-                    coordinates=fixIfSelfIntersecting(newCoordinates);
-                } else {
-                    System.err.println("unexpected type " + type);
+                }));
+            }
+            try(OutputStream out = new FileOutputStream(tmp)) {
+                for(Future<File> future: parts) {
+                    File part = future.get();
+                    Files.copy(part.toPath(), out);
+                    Files.delete(part.toPath());
                 }
+            }
+            Files.move(tmp.toPath(), Paths.get(outputFile), StandardCopyOption.REPLACE_EXISTING);
+            succeeded = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            if(!succeeded) {
+                cancel(fileThreads, parts);
+            }
+            fileThreads.shutdown();
+            for(File part: partFiles) {
+                Files.deleteIfExists(part.toPath());
+            }
+            Files.deleteIfExists(tmp.toPath());
+        }
+        System.out.println("processed " + files.size() + " files in " + (System.currentTimeMillis() - start)
+                + "ms; peak heap usage " + GeoPlanetConverter.peakHeapUsage() / (1024 * 1024) + "MB");
+    }
 
-                JsonObject geometry = object()
-                        .put("type", type)
-                        .put("coordinates", coordinates)
-                        .get();
-                String[] values = { feature.getString("properties","place_type") };
-                JsonObject categories = object()
-                .put("flickr-shapes", array(values))
-                .get();
-                JsonObject json = object()
-                    .put("title", feature.getString("properties","label"))
-                    .put("ids", array(feature.getString("properties","woe_id"),feature.getString("properties","place_id")))
-                    .put("categories", categories)
-                    .put("geometry", geometry)
-                    .get();
-
-                bw.write(json.toString() + '\n');
-            } catch (Exception e) {
-                e.printStackTrace();
+    /**
+     * Cancels the file tasks that are still running and waits for them to stop, so they no longer write their parts.
+     */
+    private static void cancel(ExecutorService fileThreads, List<Future<File>> parts) {
+        for(Future<File> future: parts) {
+            future.cancel(true);
+        }
+        fileThreads.shutdownNow();
+        try {
+            if(!fileThreads.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("file threads did not stop after cancelling them");
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    private JsonArray fixIfSelfIntersecting(JsonArray coordinates) {
-        JsonArray outerCoordinates = coordinates.get(0).asArray();
-        boolean intersects=false;
-        Set<JsonArray> seen = new HashSet<>();
-        for(int i=0;i<outerCoordinates.size()-1;i++) {
-            JsonArray coord = outerCoordinates.get(i).asArray();
-            if(seen.contains(coord)) {
-                intersects=true;
-                break;
+    private void process(String file, BufferedWriter bw) throws IOException, InterruptedException {
+        System.out.println(file);
+        long start = System.currentTimeMillis();
+        int count = 0;
+        final PolygonRepair.Stats stats = new PolygonRepair.Stats();
+        final Simplifier.Stats simplified = new Simplifier.Stats();
+        FeaturePipeline.Output output = pipeline.open(bw);
+        try(BufferedReader br = GeoPlanetConverter.gzipFileReader(file)) {
+            if(streaming) {
+                // only find the feature boundaries here; parsing happens on the workers
+                GeoJsonFeatureReader reader = new GeoJsonFeatureReader(br, parser);
+                String text;
+                while((text = reader.nextFeature()) != null) {
+                    final String featureText = text;
+                    output.submit(new Callable<String>() {
+                        @Override
+                        public String call() {
+                            return processFeature(parser.parse(featureText).asObject(), stats, simplified);
+                        }
+                    });
+                    count++;
+                }
             } else {
-                seen.add(coord);
+                JsonObject featureCollection = parser.parse(br).asObject();
+                JsonArray features = featureCollection.getArray("features");
+                System.out.println("nroffeatures:" + features.size());
+                for(final JsonObject feature: features.objects()) {
+                    output.submit(new Callable<String>() {
+                        @Override
+                        public String call() {
+                            return processFeature(feature, stats, simplified);
+                        }
+                    });
+                    count++;
+                }
             }
+        } finally {
+            output.finish();
         }
-        if(intersects) {
-            double[][] points = GeoJsonSupport.fromJsonJPolygon(coordinates)[0];
-            double[][] replacement = GeoGeometry.polygonForPoints(points);
+        long duration = System.currentTimeMillis() - start;
+        System.out.println(file + ": processed " + count + " features in " + duration + "ms; "
+                + (count * 1000L / Math.max(duration, 1)) + " features/s; " + stats
+                + (simplifier == null ? "" : "; simplified " + simplified));
+    }
 
-            JsonArray fixed = GeoJsonSupport.toJsonJLineString(replacement);
-            if(!fixed.get(0).equals(fixed.get(fixed.size()-1))) {
-                fixed.add(fixed.get(0));
+    /**
+     * @return the json line for the feature or null if it could not be processed
+     */
+    String processFeature(JsonObject feature, PolygonRepair.Stats stats, Simplifier.Stats simplified) {
+        try {
+            String type = feature.getString("geometry","type");
+            String placeType = feature.getString("properties","place_type");
+            JsonArray coordinates = feature.getArray("geometry","coordinates");
+            // only keep the outers; repairing a polygon may split it into several polygons
+            List<JsonArray> polygons = new ArrayList<>();
+            if("MultiPolygon".equalsIgnoreCase(type)) {
+                for(int i=0; i<coordinates.size();i++) {
+                    JsonArray newCoordinates = new JsonArray();
+                    newCoordinates.add(simplify(coordinates.get(i).asArray().get(0).asArray(), placeType, simplified));
+                    polygons.addAll(fixIfSelfIntersecting(newCoordinates, stats));
+                }
+            } else if("Polygon".equalsIgnoreCase(type)) {
+                JsonArray newCoordinates = new JsonArray();
+                newCoordinates.add(simplify(coordinates.get(0).asArray(), placeType, simplified));
+                polygons.addAll(fixIfSelfIntersecting(newCoordinates, stats));
+            } else {
+                System.err.println("unexpected type " + type);
             }
+            if(polygons.size() == 1) {
+                type="Polygon";
+                coordinates=polygons.get(0);
+            } else if(polygons.size() > 1) {
+                type="MultiPolygon";
+                coordinates=new JsonArray();
+                coordinates.addAll(polygons);
+            }
+
+            JsonObject geometry = object()
+                    .put("type", type)
+                    .put("coordinates", coordinates)
+                    .get();
+            String[] values = { placeType };
+            JsonObject categories = object()
+            .put("flickr-shapes", array(values))
+            .get();
+            JsonObject json = object()
+                .put("title", feature.getString("properties","label"))
+                .put("ids", array(feature.getString("properties","woe_id"),feature.getString("properties","place_id")))
+                .put("categories", categories)
+                .put("geometry", geometry)
+                .get();
+
+            return json.toString();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private JsonArray simplify(JsonArray ring, String placeType, Simplifier.Stats simplified) {
+        if(simplifier == null) {
+            return ring;
+        }
+        return GeoJsonSupport.toJsonJLineString(simplifier.simplify(GeoJsonSupport.fromJsonJLineString(ring), placeType, simplified));
+    }
 
-            JsonArray newCoordinates = new JsonArray();
-            newCoordinates.add(fixed);
-            return newCoordinates;
+    /**
+     * @return the polygon coordinates, or the coordinates of the polygons it was repaired into
+     */
+    private List<JsonArray> fixIfSelfIntersecting(JsonArray coordinates, PolygonRepair.Stats stats) {
+        JsonArray outerCoordinates = coordinates.get(0).asArray();
+        long start = System.nanoTime();
+        boolean selfIntersects = SelfIntersectionDetector.get().selfIntersects(outerCoordinates);
+        stats.checked(start);
+        if(selfIntersects) {
+            double[][] points = GeoJsonSupport.fromJsonJPolygon(coordinates)[0];
+            List<JsonArray> repaired = new ArrayList<>();
+            for(double[][] ring: repair.repair(points, stats)) {
+                JsonArray newCoordinates = new JsonArray();
+                newCoordinates.add(GeoJsonSupport.toJsonJLineString(ring));
+                repaired.add(newCoordinates);
+            }
+            return repaired;
         } else {
-            return coordinates;
+            return Collections.singletonList(coordinates);
         }
     }
 
+    /**
+     * Use -Dflickr.threads to change the number of worker threads (defaults to the number of cores) and
+     * -Dflickr.ordered=false to allow features to be written in a different order than they are read, which is a bit
+     * faster. -Dflickr.streaming=false parses each file as a whole like we used to; useful for comparing.
+     *
+     * Self intersecting polygons are replaced by their convex hull unless you use -Dflickr.repair=split, which splits
+     * them into simple polygons instead. -Dflickr.repair.maxVertices (default 100000) and -Dflickr.repair.maxMillis
+     * (default 1000) limit the effort spent on splitting a single ring before falling back to the convex hull.
+     *
+     * -Dflickr.simplify=continent=0.05,country=0.01 simplifies the rings of those place types with the given tolerance
+     * in degrees and -Dflickr.precision=5 rounds all coordinates to 5 decimals. Both are off by default.
+     *
+     * -Dflickr.input=dir reads the shapes files from dir instead, e.g. the ones written by {@link SyntheticData}.
+     */
     public static void main(String[] args) throws IOException {
-        try(BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream("flickr.json.gz")), UTF8))) {
-            FlickShapeProcessor processor = new FlickShapeProcessor(new JsonParser(),bw);
-
+        boolean streaming = !"false".equals(System.getProperty("flickr.streaming"));
+        boolean ordered = !"false".equals(System.getProperty("flickr.ordered"));
+        int threads = Integer.getInteger("flickr.threads", Runtime.getRuntime().availableProcessors());
+        try(FeaturePipeline pipeline = new FeaturePipeline(threads, threads * 100, ordered)) {
+            PolygonRepair repair = new PolygonRepair(
+                    PolygonRepair.Strategy.valueOf(System.getProperty("flickr.repair", "hull").toUpperCase()),
+                    Integer.getInteger("flickr.repair.maxVertices", 100000),
+                    Long.getLong("flickr.repair.maxMillis", 1000));
+            String tolerances = System.getProperty("flickr.simplify");
+            int precision = Integer.getInteger("flickr.precision", -1);
+            Simplifier simplifier = null;
+            if(tolerances != null || precision >= 0) {
+                simplifier = new Simplifier(Simplifier.parseTolerances(tolerances), precision);
+            }
+            FlickShapeProcessor processor = new FlickShapeProcessor(new JsonParser(), streaming, pipeline, repair, simplifier);
+            String input = System.getProperty("flickr.input", "/Users/jilles/data/flickr");
+            List<String> files = new ArrayList<>();
             for(String file:Arrays.asList(
                     "flickr_shapes_continents.geojson.gz",
                     "flickr_shapes_counties.geojson.gz",
@@ -130,9 +300,9 @@ public class FlickShapeProcessor {
                     "flickr_shapes_localities.geojson.gz",
                     "flickr_shapes_neighbourhoods.geojson.gz",
                     "flickr_shapes_regions.geojson.gz")) {
-                System.out.println(file);
-                processor.process("/Users/jilles/data/flickr/"+file);
+                files.add(new File(input, file).getPath());
             }
+            processor.processAll(files, "flickr.json.gz");
             System.out.println("done");
         }
     }
@@ -0,0 +1,145 @@
+package com.github.jillesvangurp.geoplanet;
+
+/**
+ * Picks the woeid and the geometry out of a line written by {@link FlickShapeProcessor} without parsing it. Only the
+ * top level keys of the object are looked at; values that are skipped are only scanned for their end, so the
+ * geometry, which is most of the line, is never turned into json objects.
+ *
+ * Lines may start with a geohash and a ';', which is skipped.
+ */
+final class FlickrShapeLine {
+    private FlickrShapeLine() {
+    }
+
+    /**
+     * @return the first of the ids, which is the woeid
+     * @throws IllegalArgumentException if the line has no ids
+     */
+    static long woeid(String line) {
+        int i = valueStart(line, GeoPlanetConverter.IDS);
+        if(i < 0 || line.charAt(i) != '[') {
+            throw new IllegalArgumentException("no ids in flickr shape");
+        }
+        i = skipWhitespace(line, i + 1);
+        if(i >= line.length() || line.charAt(i) != '"') {
+            throw new IllegalArgumentException("no ids in flickr shape");
+        }
+        int end = line.indexOf('"', i + 1);
+        if(end < 0) {
+            throw new IllegalArgumentException("unterminated id in flickr shape");
+        }
+        return Long.parseLong(line.substring(i + 1, end));
+    }
+
+    /**
+     * @return the geometry exactly as it is in the line, or null if there is none
+     */
+    static String geometry(String line) {
+        int start = geometryStart(line);
+        return start < 0 ? null : line.substring(start, valueEnd(line, start));
+    }
+
+    /**
+     * @return true if {@link #geometry(String)} would return a geometry, without copying it
+     */
+    static boolean hasGeometry(String line) {
+        int start = geometryStart(line);
+        if(start < 0) {
+            return false;
+        }
+        valueEnd(line, start);
+        return true;
+    }
+
+    private static int geometryStart(String line) {
+        int start = valueStart(line, GeoPlanetConverter.GEOMETRY);
+        return start < 0 || line.charAt(start) != '{' ? -1 : start;
+    }
+
+    /**
+     * @return index of the value of the top level key, or -1 if the object does not have the key
+     */
+    static int valueStart(String line, String key) {
+        int i = line.indexOf('{');
+        if(i < 0) {
+            throw new IllegalArgumentException("no json object in flickr shape");
+        }
+        i = skipWhitespace(line, i + 1);
+        while(i < line.length() && line.charAt(i) == '"') {
+            int keyEnd = valueEnd(line, i);
+            boolean match = keyEnd - i - 2 == key.length() && line.regionMatches(i + 1, key, 0, key.length());
+            i = skipWhitespace(line, keyEnd);
+            if(i >= line.length() || line.charAt(i) != ':') {
+                throw new IllegalArgumentException("expected ':' at " + i);
+            }
+            i = skipWhitespace(line, i + 1);
+            if(match) {
+                return i;
+            }
+            i = skipWhitespace(line, valueEnd(line, i));
+            if(i < line.length() && line.charAt(i) == ',') {
+                i = skipWhitespace(line, i + 1);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index just after the string, object, array or literal that starts at start
+     */
+    static int valueEnd(String line, int start) {
+        int length = line.length();
+        char first = line.charAt(start);
+        if(first == '"') {
+            int i = start + 1;
+            while(i < length) {
+                char c = line.charAt(i);
+                if(c == '\\') {
+                    i += 2;
+                } else if(c == '"') {
+                    return i + 1;
+                } else {
+                    i++;
+                }
+            }
+            throw new IllegalArgumentException("unterminated string at " + start);
+        }
+        if(first == '{' || first == '[') {
+            int depth = 0;
+            int i = start;
+            while(i < length) {
+                char c = line.charAt(i);
+                if(c == '"') {
+                    i = valueEnd(line, i);
+                    continue;
+                }
+                if(c == '{' || c == '[') {
+                    depth++;
+                } else if(c == '}' || c == ']') {
+                    depth--;
+                    if(depth == 0) {
+                        return i + 1;
+                    }
+                }
+                i++;
+            }
+            throw new IllegalArgumentException("unterminated value at " + start);
+        }
+        int i = start;
+        while(i < length) {
+            char c = line.charAt(i);
+            if(c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipWhitespace(String line, int i) {
+        while(i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
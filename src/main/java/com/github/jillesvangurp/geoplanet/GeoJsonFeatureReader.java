@@ -0,0 +1,168 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+
+/**
+ * Pulls the features out of a geojson FeatureCollection one at a time, so only a single feature is ever in memory
+ * rather than the whole collection.
+ *
+ * The reader scans the characters for the top level "features" array and hands the text of each of its elements to
+ * the json parser. Everything else in the collection is skipped. Single use; the caller is responsible for closing the
+ * reader. Characters are read one at a time, so pass in a buffered reader.
+ */
+public class GeoJsonFeatureReader implements Iterable<JsonObject> {
+    private static final int EOF = -1;
+
+    private final Reader reader;
+    private final JsonParser parser;
+
+    private final StringBuilder buffer = new StringBuilder();
+    private boolean inFeatures = false;
+    private boolean done = false;
+
+    public GeoJsonFeatureReader(Reader reader, JsonParser parser) {
+        this.reader = reader;
+        this.parser = parser;
+    }
+
+    @Override
+    public Iterator<JsonObject> iterator() {
+        return new Iterator<JsonObject>() {
+            private JsonObject next;
+
+            @Override
+            public boolean hasNext() {
+                if(next == null && !done) {
+                    try {
+                        String feature = nextFeature();
+                        if(feature != null) {
+                            next = parser.parse(feature).asObject();
+                        }
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public JsonObject next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                JsonObject result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * @return json text of the next feature or null if there are no more features
+     */
+    String nextFeature() throws IOException {
+        if(!inFeatures && !findFeatures()) {
+            done = true;
+            return null;
+        }
+        // skip to the start of the next element or the end of the array
+        int c;
+        while((c = reader.read()) != EOF) {
+            if(c == '{') {
+                break;
+            } else if(c == ']') {
+                done = true;
+                return null;
+            } else if(c != ',' && !Character.isWhitespace(c)) {
+                throw new IllegalStateException("features should only contain objects; unexpected " + (char) c);
+            }
+        }
+        if(c == EOF) {
+            throw new IllegalStateException("unexpected end of input in features array");
+        }
+        buffer.setLength(0);
+        buffer.append('{');
+        int depth = 1;
+        boolean inString = false;
+        while(depth > 0) {
+            c = reader.read();
+            if(c == EOF) {
+                throw new IllegalStateException("unexpected end of input in feature");
+            }
+            buffer.append((char) c);
+            if(inString) {
+                if(c == '\\') {
+                    int escaped = reader.read();
+                    if(escaped == EOF) {
+                        throw new IllegalStateException("unexpected end of input in feature");
+                    }
+                    buffer.append((char) escaped);
+                } else if(c == '"') {
+                    inString = false;
+                }
+            } else if(c == '"') {
+                inString = true;
+            } else if(c == '{' || c == '[') {
+                depth++;
+            } else if(c == '}' || c == ']') {
+                depth--;
+            }
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Skips ahead until just after the opening bracket of the top level features array.
+     *
+     * @return false if there is no such array
+     */
+    private boolean findFeatures() throws IOException {
+        int depth = 0;
+        String lastString = null;
+        int c;
+        while((c = reader.read()) != EOF) {
+            if(c == '"') {
+                String string = readString();
+                if(depth == 1) {
+                    lastString = string;
+                }
+            } else if(c == '[' && depth == 1 && "features".equals(lastString)) {
+                inFeatures = true;
+                return true;
+            } else if(c == '{' || c == '[') {
+                depth++;
+            } else if(c == '}' || c == ']') {
+                depth--;
+            }
+        }
+        return false;
+    }
+
+    private String readString() throws IOException {
+        buffer.setLength(0);
+        int c;
+        while((c = reader.read()) != EOF) {
+            if(c == '\\') {
+                c = reader.read();
+                if(c == EOF) {
+                    break;
+                }
+            } else if(c == '"') {
+                return buffer.toString();
+            }
+            buffer.append((char) c);
+        }
+        throw new IllegalStateException("unexpected end of input in string");
+    }
+}
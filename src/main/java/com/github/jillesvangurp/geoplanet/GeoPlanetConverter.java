@@ -2,31 +2,35 @@ package com.github.jillesvangurp.geoplanet;
 
 import static com.github.jsonj.tools.JsonBuilder.array;
 import static com.github.jsonj.tools.JsonBuilder.object;
-import static com.github.jsonj.tools.JsonBuilder.primitive;
 import static com.jillesvangurp.iterables.Iterables.processConcurrently;
 import static com.jillesvangurp.iterables.Iterables.toIterable;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.lang.StringUtils;
 
 import com.github.jsonj.JsonArray;
 import com.github.jsonj.JsonObject;
-import com.github.jsonj.JsonPrimitive;
 import com.github.jsonj.tools.JsonParser;
 import com.github.jsonj.tools.JsonSerializer;
 import com.google.common.base.Splitter;
@@ -38,145 +42,582 @@ import com.jillesvangurp.iterables.Processor;
  * Does an in memory join of the various geoplanet files to create enriched json representations of geoplanet places.
  *
  * Warning, this requires a bit of memory. I typically run it with 6GB of heap (java -Xmx6000M). I expect you would run out of memory with anything less than 5GB.
+ * If you don't have that, use {@link #convertPartitioned(String, int, File)}, which partitions the input on disk first.
  */
 public class GeoPlanetConverter {
 
     // misc strings used in the json
-    private static final String CATEGORIES = "categories";
-    private static final String COUNTRY = "country";
-    private static final String GEOMETRY = "geometry";
-    private static final String ID = "id";
-    private static final String IDS = "ids";
-    private static final String LANGUAGE = "language";
-    private static final String NAME = "name";
-    private static final String NEIGHBOR_IDS = "neighborIds";
-    private static final String NEIGHBOR_WOEIDS = "neighbor_woeids";
-    private static final String PARENT_ID = "parentId";
-    private static final String PLACE_TYPE = "PlaceType";
-    private static final String SOURCE = "source";
-    private static final String TITLE = "title";
-    private static final String WOE_ID = "WOE_ID";
-    private static final String YAHOO_LANGUAGE = "Language";
-    private static final String YAHOO_NAME = "Name";
-    private static final String YAHOO_PARENT_ID = "Parent_ID";
+    static final String ANCESTOR_IDS = "ancestors";
+    static final String ANCESTOR_WOEIDS = "ancestor_woeids";
+    static final String CATEGORIES = "categories";
+    static final String COUNTRY = "country";
+    static final String GEOMETRY = "geometry";
+    static final String GEOMETRY_ID = "geometryId";
+    static final String GEOMETRY_WOEID = "geometry_woeid";
+    static final String ID = "id";
+    static final String IDS = "ids";
+    static final String LANGUAGE = "language";
+    static final String NAME = "name";
+    static final String NEIGHBOR_IDS = "neighborIds";
+    static final String NEIGHBOR_WOEIDS = "neighbor_woeids";
+    static final String PARENT_ID = "parentId";
+    static final String PLACE_TYPE = "PlaceType";
+    static final String SOURCE = "source";
+    static final String TITLE = "title";
+    static final String WOE_ID = "WOE_ID";
+    static final String YAHOO_ISO = "ISO";
+    static final String YAHOO_LANGUAGE = "Language";
+    static final String YAHOO_NAME = "Name";
+    static final String YAHOO_PARENT_ID = "Parent_ID";
 
     private static final JsonParser PARSER = new JsonParser();
+    static final long HEAP_SAMPLE_MILLIS = 10;
+    private static final AtomicLong PEAK_HEAP = new AtomicLong();
+    private static Thread heapSampler;
+    private static final Splitter TAB_SPLITTER = Splitter.on('\t');
 
     // misc files used in this file
-    private static final String OUTPUT_FILE = "geoplanet.json.gz";
+    static final String OUTPUT_FILE = "geoplanet.json.gz";
+    // change this when the checkpoint format changes
+    private static final String CHECKPOINT_VERSION = "1";
     private static final Charset UTF8 = Charset.forName("UTF-8");
     private static final String adjacencies="/Users/jilles/data/geoplanet/geoplanet_adjacencies_7.10.0.tsv.gz";
     private static final String aliases="/Users/jilles/data/geoplanet/geoplanet_aliases_7.10.0.tsv.gz";
     private static final String places="/Users/jilles/data/geoplanet/geoplanet_places_7.10.0.tsv.gz";
     private static final String flickrShapes="/Users/jilles/data/output/flickr-shapes/flickr-shapes-20130511105122.json.gz";
 
-    private void convert() {
+    private final String placesFile;
+    private final String aliasesFile;
+    private final String adjacenciesFile;
+    private final String flickrShapesFile;
+
+    private String spatialIndexFile;
+    private String intermediateFile;
+    private Checkpoints checkpoints;
+    private int shards = 0;
+    private String binaryFile;
+    private String nameIndexFile;
+    private String reportFile;
+    private final RunMetrics metrics = new RunMetrics();
+
+    public GeoPlanetConverter(String placesFile, String aliasesFile, String adjacenciesFile, String flickrShapesFile) {
+        this.placesFile = placesFile;
+        this.aliasesFile = aliasesFile;
+        this.adjacenciesFile = adjacenciesFile;
+        this.flickrShapesFile = flickrShapesFile;
+    }
+
+    /**
+     * @param spatialIndexFile if not null, a {@link SpatialIndex} of the flickr geometries is written to this file
+     */
+    public void setSpatialIndexFile(String spatialIndexFile) {
+        this.spatialIndexFile = spatialIndexFile;
+    }
+
+    /**
+     * @param intermediateFile if not null, the joined places are also written to this file as they were before
+     *            {@link PostProcess} cleaned them up; useful for debugging the join
+     */
+    public void setIntermediateFile(String intermediateFile) {
+        this.intermediateFile = intermediateFile;
+    }
+
+    /**
+     * @param dir if not null, the in memory join saves the results of the places, aliases and adjacencies phases in
+     *            this directory and reuses them in later runs for as long as their inputs don't change
+     */
+    public void setCheckpointDir(File dir) {
+        checkpoints = dir == null ? null : new Checkpoints(dir);
+    }
+
+    /**
+     * @param shards if more than 0, the output is written as this number of shards with an index for looking up places
+     *            by woeid instead of as a single file; see {@link ShardedOutput}
+     */
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * @param binaryFile if not null, the cleaned up places are also written to this file in the format of
+     *            {@link BinaryOutput}
+     */
+    public void setBinaryFile(String binaryFile) {
+        this.binaryFile = binaryFile;
+    }
+
+    /**
+     * @param nameIndexFile if not null, a {@link NameIndex} of the names and alternative names of all places is written
+     *            to this file
+     */
+    public void setNameIndexFile(String nameIndexFile) {
+        this.nameIndexFile = nameIndexFile;
+    }
+
+    /**
+     * @param reportFile if not null, the {@link RunMetrics} of the run are written to this file as json at the end
+     */
+    public void setReportFile(String reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    /**
+     * @return the metrics of the phases that ran so far; these are also registered with JMX while converting
+     */
+    public RunMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * In memory join of all the input files. Fast but needs a heap that can hold all the places at once.
+     * @param outputFile gzipped file with a line of cleaned up json per place
+     */
+    public void convert(String outputFile) {
+        metrics.register();
         try {
-            final Map<String, JsonObject> geoplanetPlaces = new ConcurrentHashMap<>();
-            readPlaces(geoplanetPlaces);
-            addAliases(geoplanetPlaces);
-            addAdjacencies(geoplanetPlaces);
-            addGeometry(geoplanetPlaces);
-            serialize(geoplanetPlaces);
-            System.out.println("done");
+            PlaceStore geoplanetPlaces = new PlaceStore();
+            if(checkpoints == null) {
+                readPlaces(geoplanetPlaces, placesFile);
+                addAliases(geoplanetPlaces, aliasesFile);
+                addAdjacencies(geoplanetPlaces, adjacenciesFile, geoplanetPlaces);
+                mergeNamesAndNeighbors(geoplanetPlaces);
+            } else {
+                joinWithCheckpoints(geoplanetPlaces);
+            }
+            addGeometry(geoplanetPlaces, flickrShapesFile);
+            Hierarchy hierarchy = hierarchy(geoplanetPlaces);
+            if(spatialIndexFile != null) {
+                try(SpatialIndex.Writer writer = new SpatialIndex.Writer(spatialIndexFile)) {
+                    writeSpatialIndex(geoplanetPlaces, hierarchy, writer);
+                }
+            }
+            if(nameIndexFile != null) {
+                writeNameIndex(geoplanetPlaces);
+            }
+            try(BufferedWriter bw = outputWriter(outputFile); BufferedWriter intermediate = intermediateWriter();
+                    ShardedOutput.Writer sharded = shardedWriter(outputFile); BinaryOutput.Writer binary = binaryWriter()) {
+                serialize(geoplanetPlaces, hierarchy, bw, sharded, binary, intermediate);
+            }
+            printOutputSizes(outputFile);
+            done();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            metrics.unregister();
+        }
+    }
 
+    /**
+     * Same join as {@link #convert(String)} but with a heap requirement that is bounded by the partition size rather
+     * than the total number of places. All inputs are hash partitioned by woeid to temporary files first, after which
+     * each partition is joined in memory and appended to the output. The output has the same places as that of
+     * {@link #convert(String)}, but in the order of the partitions rather than in the order of the places file.
+     *
+     * @param outputFile gzipped file with a line of cleaned up json per place
+     * @param partitions number of partitions; the heap needed is roughly that of the in memory join divided by this number
+     * @param tmpDir directory for the partition files; these are removed afterwards
+     */
+    public void convertPartitioned(String outputFile, int partitions, File tmpDir) {
+        metrics.register();
+        try {
+            PartitionedJoin join = new PartitionedJoin(partitions, tmpDir);
+            try {
+                // the hierarchy is global because ancestors are usually in other partitions; it is memory mapped so it
+                // does not take heap for every place in the input
+                Hierarchy hierarchy = new Hierarchy(1 << 20, join.directory());
+                PhaseMetrics phase = metrics.phase("partition places");
+                WoeIdSet woeIds = join.partitionPlaces(placesFile, hierarchy);
+                hierarchy.computeDepths();
+                phase.finish();
+                phase = metrics.phase("partition aliases");
+                join.partitionAliases(aliasesFile);
+                phase.finish();
+                phase = metrics.phase("partition adjacencies");
+                join.partitionAdjacencies(adjacenciesFile, woeIds);
+                phase.finish();
+                phase = metrics.phase("partition geometries");
+                join.partitionGeometries(flickrShapesFile, hierarchy);
+                phase.finish();
+                try(BufferedWriter bw = outputWriter(outputFile); BufferedWriter intermediate = intermediateWriter();
+                        ShardedOutput.Writer sharded = shardedWriter(outputFile); BinaryOutput.Writer binary = binaryWriter();
+                        SpatialIndex.Writer spatialIndex = spatialIndexWriter(); NameIndex.Writer nameIndex = nameIndexWriter()) {
+                    for(int i=0;i<partitions;i++) {
+                        System.out.println("joining partition " + i);
+                        PlaceStore geoplanetPlaces = new PlaceStore();
+                        readPlaces(geoplanetPlaces, join.placesPartition(i));
+                        addAliases(geoplanetPlaces, join.aliasesPartition(i));
+                        addAdjacencies(geoplanetPlaces, join.adjacenciesPartition(i), woeIds);
+                        mergeNamesAndNeighbors(geoplanetPlaces);
+                        addGeometry(geoplanetPlaces, join.geometriesPartition(i));
+                        if(spatialIndex != null) {
+                            writeSpatialIndex(geoplanetPlaces, hierarchy, spatialIndex);
+                        }
+                        if(nameIndex != null) {
+                            phase = metrics.phase("names");
+                            addNames(geoplanetPlaces, nameIndex, phase);
+                            // keeps the heap bounded by the partition; the sorted runs are merged on close
+                            nameIndex.spill();
+                            phase.finish();
+                        }
+                        serialize(geoplanetPlaces, hierarchy, bw, sharded, binary, intermediate);
+                    }
+                }
+                printOutputSizes(outputFile);
+            } finally {
+                join.delete();
+            }
+            done();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            metrics.unregister();
+        }
+    }
+
+    private void done() throws IOException {
+        System.out.println("done; peak heap usage " + metrics.getPeakHeapBytes()/(1024*1024) + "MB");
+        System.out.println("run summary " + metrics.toJson());
+        if(reportFile != null) {
+            metrics.writeReport(reportFile);
+            System.out.println("wrote run report to " + reportFile);
+        }
+    }
+
+    /**
+     * Loads the places, names and neighbors from checkpoints where the inputs did not change and runs the other phases.
+     * Geometries are always joined again; that is quick compared to the other phases.
+     *
+     * The rows of the store depend on the order in which the places were read, so the keys of the names and neighbors
+     * checkpoints include a generation that is stored in the places checkpoint and changes whenever places are read
+     * from the input again.
+     */
+    private void joinWithCheckpoints(final PlaceStore geoplanetPlaces) throws IOException {
+        final String[] generation = new String[1];
+        String placesKey = Checkpoints.key(CHECKPOINT_VERSION, Checkpoints.checksum(placesFile));
+        PhaseMetrics phase = metrics.phase("places checkpoint");
+        boolean loaded = checkpoints.load("places", placesKey, new Checkpoints.Reader() {
+            @Override
+            public void read(DataInputStream in) throws IOException {
+                generation[0] = in.readUTF();
+                geoplanetPlaces.readPlaces(in);
+            }
+        });
+        phase.finish();
+        if(loaded) {
+            printMemoryUsage(geoplanetPlaces);
+        } else {
+            readPlaces(geoplanetPlaces, placesFile);
+            generation[0] = placesKey + "-" + System.currentTimeMillis();
+            checkpoints.save("places", placesKey, new Checkpoints.Writer() {
+                @Override
+                public void write(DataOutputStream out) throws IOException {
+                    out.writeUTF(generation[0]);
+                    geoplanetPlaces.writePlaces(out);
+                }
+            });
+        }
+
+        String aliasesKey = Checkpoints.key(generation[0], Checkpoints.checksum(aliasesFile));
+        phase = metrics.phase("aliases checkpoint");
+        loaded = checkpoints.load("aliases", aliasesKey, new Checkpoints.Reader() {
+            @Override
+            public void read(DataInputStream in) throws IOException {
+                geoplanetPlaces.readNames(in);
+            }
+        });
+        phase.finish();
+        if(!loaded) {
+            addAliases(geoplanetPlaces, aliasesFile);
+            mergeNamesAndNeighbors(geoplanetPlaces);
+            checkpoints.save("aliases", aliasesKey, new Checkpoints.Writer() {
+                @Override
+                public void write(DataOutputStream out) throws IOException {
+                    geoplanetPlaces.writeNames(out);
+                }
+            });
+        }
+
+        String adjacenciesKey = Checkpoints.key(generation[0], Checkpoints.checksum(adjacenciesFile));
+        phase = metrics.phase("adjacencies checkpoint");
+        loaded = checkpoints.load("adjacencies", adjacenciesKey, new Checkpoints.Reader() {
+            @Override
+            public void read(DataInputStream in) throws IOException {
+                geoplanetPlaces.readNeighbors(in);
+            }
+        });
+        phase.finish();
+        if(!loaded) {
+            addAdjacencies(geoplanetPlaces, adjacenciesFile, geoplanetPlaces);
+            mergeNamesAndNeighbors(geoplanetPlaces);
+            checkpoints.save("adjacencies", adjacenciesKey, new Checkpoints.Writer() {
+                @Override
+                public void write(DataOutputStream out) throws IOException {
+                    geoplanetPlaces.writeNeighbors(out);
+                }
+            });
+        }
+    }
+
+    private BufferedWriter outputWriter(String outputFile) throws IOException {
+        return shards > 0 ? null : gzipFileWriter(outputFile);
+    }
+
+    /**
+     * The shards are named after the output file, e.g. geoplanet_cleaned-1-0.json.gz and geoplanet_cleaned-1-0.idx for
+     * the first shard of geoplanet_cleaned-1.json.gz.
+     */
+    private ShardedOutput.Writer shardedWriter(String outputFile) throws IOException {
+        return shards > 0 ? new ShardedOutput.Writer(shardPrefix(outputFile), shards) : null;
+    }
+
+    static String shardPrefix(String outputFile) {
+        return outputFile.endsWith(".json.gz") ? outputFile.substring(0, outputFile.length() - ".json.gz".length()) : outputFile;
+    }
+
+    private BinaryOutput.Writer binaryWriter() throws IOException {
+        return binaryFile == null ? null : new BinaryOutput.Writer(binaryFile);
+    }
+
+    private void printOutputSizes(String outputFile) {
+        if(binaryFile != null) {
+            String json = shards > 0 ? "" : "json output " + new File(outputFile).length() / (1024 * 1024) + "MB; ";
+            System.out.println(json + "binary output " + new File(binaryFile).length() / (1024 * 1024) + "MB");
+        }
+    }
+
+    private BufferedWriter intermediateWriter() throws IOException {
+        return intermediateFile == null ? null : gzipFileWriter(intermediateFile);
+    }
+
+    private SpatialIndex.Writer spatialIndexWriter() throws IOException {
+        return spatialIndexFile == null ? null : new SpatialIndex.Writer(spatialIndexFile);
+    }
+
+    private NameIndex.Writer nameIndexWriter() {
+        return nameIndexFile == null ? null : new NameIndex.Writer(nameIndexFile);
+    }
+
+    private void mergeNamesAndNeighbors(PlaceStore geoplanetPlaces) {
+        System.out.println("merging names and neighbors");
+        PhaseMetrics phase = metrics.phase("merge");
+        long start = System.nanoTime();
+        geoplanetPlaces.merge(PhaseSettings.forTsvPhase("merge").threads());
+        phase.mergeTime(System.nanoTime() - start);
+        phase.addLines(geoplanetPlaces.rows());
+        phase.finish();
+        System.out.println("merged names and neighbors in " + phase.getMillis() + "ms");
+    }
+
+    private Hierarchy hierarchy(PlaceStore geoplanetPlaces) {
+        System.out.println("resolving hierarchy");
+        PhaseMetrics phase = metrics.phase("hierarchy");
+        Hierarchy hierarchy = new Hierarchy(geoplanetPlaces.rows());
+        for(int row=0;row<geoplanetPlaces.rows();row++) {
+            hierarchy.add(geoplanetPlaces.woeid(row), geoplanetPlaces.parentId(row));
         }
+        for(int row=0;row<geoplanetPlaces.rows();row++) {
+            if(geoplanetPlaces.hasGeometry(row)) {
+                hierarchy.setHasGeometry(geoplanetPlaces.woeid(row));
+            }
+        }
+        hierarchy.computeDepths();
+        if(hierarchy.cycles() > 0) {
+            System.out.println("cut " + hierarchy.cycles() + " parent cycles");
+        }
+        phase.addLines(geoplanetPlaces.rows());
+        phase.finish();
+        return hierarchy;
     }
 
-    private void serialize(final Map<String, JsonObject> geoplanetPlaces) throws IOException, FileNotFoundException {
+    private void writeSpatialIndex(PlaceStore geoplanetPlaces, Hierarchy hierarchy, SpatialIndex.Writer writer) throws IOException {
+        System.out.println("writing spatial index");
+        PhaseMetrics phase = metrics.phase("spatial index");
+        for(int row=0;row<geoplanetPlaces.rows();row++) {
+            JsonObject geometry = geoplanetPlaces.geometry(row);
+            if(geometry != null) {
+                long woeid = geoplanetPlaces.woeid(row);
+                writer.add(woeid, hierarchy.depth(woeid), geometry);
+                phase.addLines(1);
+            }
+        }
+        phase.finish();
+    }
+
+    /**
+     * Adds the names and sorts and writes the index in one phase; most of the time goes into the sorting.
+     */
+    private void writeNameIndex(PlaceStore geoplanetPlaces) throws IOException {
+        System.out.println("writing name index");
+        PhaseMetrics phase = metrics.phase("name index");
+        try(NameIndex.Writer writer = new NameIndex.Writer(nameIndexFile)) {
+            addNames(geoplanetPlaces, writer, phase);
+        }
+        phase.finish();
+    }
+
+    private static void addNames(PlaceStore geoplanetPlaces, final NameIndex.Writer writer, PhaseMetrics phase) {
+        for(int row=0;row<geoplanetPlaces.rows();row++) {
+            final long woeid = geoplanetPlaces.woeid(row);
+            final String placeType = geoplanetPlaces.placeType(row);
+            geoplanetPlaces.names(row, new PlaceStore.NameVisitor() {
+                @Override
+                public void visit(String language, String name) {
+                    writer.add(woeid, placeType, language, name);
+                }
+            });
+            phase.addLines(1);
+        }
+    }
+
+    /**
+     * Writes the places with their ancestors, nearest first. Places without a geometry of their own get the woeid of
+     * the nearest ancestor that has one, if any. Places are cleaned up with {@link PostProcess#clean(JsonObject)} on
+     * the way out, so the output does not have to be read back and rewritten. Geometries are spliced into the json as
+     * they were read from the flickr shapes; only the binary output needs them parsed.
+     *
+     * @param bw output for the cleaned up places, unless they go to sharded
+     * @param sharded if not null, the cleaned up places are written to these shards instead of bw
+     * @param binary if not null, the cleaned up places are also written here
+     * @param intermediate if not null, the places are also written here before they are cleaned up
+     */
+    private void serialize(PlaceStore geoplanetPlaces, Hierarchy hierarchy, BufferedWriter bw, ShardedOutput.Writer sharded,
+            BinaryOutput.Writer binary, BufferedWriter intermediate) throws IOException {
         System.out.println("serializing places to file");
-        try(BufferedWriter bw = gzipFileWriter(OUTPUT_FILE)) {
-            for(Entry<String, JsonObject> e: geoplanetPlaces.entrySet()) {
-                JsonSerializer.write(bw, e.getValue(), false);
-                bw.newLine();
+        PhaseMetrics phase = metrics.phase("serialize");
+        for(int row=0;row<geoplanetPlaces.rows();row++) {
+            JsonObject place = geoplanetPlaces.toJson(row);
+            if(place != null) {
+                long woeid = geoplanetPlaces.woeid(row);
+                long[] ancestors = hierarchy.ancestors(woeid);
+                if(ancestors.length > 0) {
+                    JsonArray ancestorWoeids = new JsonArray();
+                    for(long ancestor: ancestors) {
+                        ancestorWoeids.add(Long.toString(ancestor));
+                    }
+                    place.put(ANCESTOR_WOEIDS, ancestorWoeids);
+                }
+                String geometry = geoplanetPlaces.geometryJson(row);
+                if(geometry == null) {
+                    long geometryWoeid = hierarchy.nearestAncestorWithGeometry(woeid);
+                    if(geometryWoeid >= 0) {
+                        place.put(GEOMETRY_WOEID, Long.toString(geometryWoeid));
+                    }
+                }
+                if(intermediate != null) {
+                    write(intermediate, place, geometry);
+                    intermediate.newLine();
+                }
+                JsonObject cleaned = PostProcess.clean(place);
+                if(binary != null) {
+                    JsonObject binaryPlace = cleaned;
+                    if(geometry != null) {
+                        // a copy; cleaned itself must not get the parsed geometry
+                        binaryPlace = new JsonObject();
+                        binaryPlace.putAll(cleaned);
+                        binaryPlace.put(GEOMETRY, PARSER.parse(geometry));
+                    }
+                    binary.add(binaryPlace);
+                }
+                if(sharded != null) {
+                    // the shard writer thread serializes cleaned later, so it is not touched after this
+                    sharded.add(woeid, cleaned, geometry);
+                } else {
+                    write(bw, cleaned, geometry);
+                    bw.newLine();
+                }
+                phase.addLines(1);
             }
         }
+        phase.finish();
     }
 
-    private void addGeometry(final Map<String, JsonObject> geoplanetPlaces) throws IOException {
+    private void addGeometry(final PlaceStore geoplanetPlaces, String file) throws IOException {
         System.out.println("adding geometries");
-        final AtomicInteger brokenrefs = new AtomicInteger();
-        try(LineIterable it=LineIterable.openGzipFile(flickrShapes)) {
-            Processor<String, Boolean> processor = new Processor<String, Boolean>() {
+        final PhaseMetrics phase = metrics.phase("geometries");
+        try(LineIterable it=gzipFileLines(file, phase)) {
+            Processor<String, Integer> processor = new Processor<String, Integer>() {
 
                 @Override
-                public Boolean process(String input) {
+                public Integer process(String input) {
                     try {
-                        int sep = input.indexOf(';');
-                        if(sep <= 13) { // geohash
-                            input=input.substring(sep+1);
-                        }
-
-                        JsonObject object = PARSER.parse(input).asObject();
-                        JsonArray ids = object.getArray(IDS);
-                        String woeid = ids.get(0).asString();
-                        JsonObject place = geoplanetPlaces.get(woeid);
-                        if(place != null) {
-                            JsonObject geometry = object.getObject(GEOMETRY);
-                            place.put(GEOMETRY, geometry);
+                        long start = System.nanoTime();
+                        long woeid = FlickrShapeLine.woeid(input);
+                        long parsed = System.nanoTime();
+                        phase.parseTime(parsed - start);
+                        int row = geoplanetPlaces.row(woeid);
+                        if(row >= 0) {
+                            String geometry = FlickrShapeLine.geometry(input);
+                            if(geometry != null) {
+                                geoplanetPlaces.setGeometry(row, geometry);
+                            }
+                            phase.mergeTime(System.nanoTime() - parsed);
                         } else {
-                            brokenrefs.incrementAndGet();
-                            System.out.println(object);
+                            phase.brokenReference();
+                            System.out.println(input);
                         }
-                        return true;
                     } catch (Exception e) {
-                        e.printStackTrace();
-                        return false;
+                        phase.error(e);
                     }
+                    return 1;
                 }
             };
-            process(it,processor,"geometries");
-            System.out.println("there are " + brokenrefs.get() + " flickr woeids without a match to geoplanet");
+            process(it, processor, phase, PhaseSettings.forLinePhase("geometries"));
+            System.out.println("there are " + phase.getBrokenReferences() + " flickr woeids without a match to geoplanet");
+            printMemoryUsage(geoplanetPlaces);
         }
     }
 
-    private void addAdjacencies(final Map<String, JsonObject> geoplanetPlaces) throws IOException {
+    /**
+     * Writes the place with the serialized geometry as its last field, without parsing the geometry.
+     *
+     * @param geometry may be null
+     */
+    static void write(Writer out, JsonObject place, String geometry) throws IOException {
+        if(geometry == null) {
+            JsonSerializer.write(out, place, false);
+        } else {
+            String json = JsonSerializer.serialize(place, false);
+            // drop the closing brace and append the geometry
+            out.write(json, 0, json.length() - 1);
+            out.write(json.length() > 2 ? ",\"" : "\"");
+            out.write(GEOMETRY);
+            out.write("\":");
+            out.write(geometry);
+            out.write('}');
+        }
+    }
+
+    /**
+     * @param knownWoeIds neighbors are only added if they are known; when joining a partition, the neighbor may well be
+     *            a place in another partition
+     */
+    private void addAdjacencies(final PlaceStore geoplanetPlaces, String file, final WoeIds knownWoeIds) throws IOException {
         System.out.println("adding adjacencies");
-        try(LineIterable it=LineIterable.openGzipFile(adjacencies)) {
-            Iterator<String> iterator = it.iterator();
-            final ArrayList<String> fields = readFields(iterator);
-            Processor<String, Boolean> processor = new Processor<String, Boolean>() {
+        PhaseMetrics phase = metrics.phase("adjacencies");
+        try(TsvReader reader=gzipTsvReader(file, phase)) {
+            ArrayList<String> fields = reader.header();
+            final int placeColumn = column(fields, "Place_WOE_ID");
+            final int neighbourColumn = column(fields, "Neighbour_WOE_ID");
+            RecordProcessor processor = new RecordProcessor() {
 
                 @Override
-                public Boolean process(String input) {
-                    JsonObject object = object().get();
-                    int i=0;
-                    for(String value: Splitter.on('\t').split(input)) {
-                        if(StringUtils.isNotEmpty(value)) {
-                            value=deqoute(value);
-                            object.put(fields.get(i), value);
-                        }
-                        i++;
-                    }
-                    String woeid1 = object.getString("Place_WOE_ID");
-                    String woeid2 = object.getString("Neighbour_WOE_ID");
-
+                public void process(TsvReader.Record record) {
+                    long woeid1 = record.longValue(placeColumn);
+                    long woeid2 = record.longValue(neighbourColumn);
 
-                    JsonObject place1 = geoplanetPlaces.get(woeid1);
-                    JsonObject place2 = geoplanetPlaces.get(woeid2);
-                    if(place1 != null && place2 != null) {
-                        synchronized(place1) {
-                            JsonArray array1 = place1.getOrCreateArray(NEIGHBOR_WOEIDS);
-                            if(!array1.contains(woeid2)) {
-                                array1.add(woeid2);
-                            }
-                        }
-                        synchronized(place2) {
-                            JsonArray array2 = place2.getOrCreateArray(NEIGHBOR_WOEIDS);
-                            if(!array2.contains(woeid1)) {
-                                array2.add(woeid1);
-                            }
-                        }
+                    int row1 = geoplanetPlaces.row(woeid1);
+                    int row2 = geoplanetPlaces.row(woeid2);
+                    if(row1 >= 0 && knownWoeIds.contains(woeid2)) {
+                        geoplanetPlaces.addNeighbor(row1, woeid2);
+                    }
+                    if(row2 >= 0 && knownWoeIds.contains(woeid1)) {
+                        geoplanetPlaces.addNeighbor(row2, woeid1);
                     }
-
-                    return true;
                 }
 
             };
 
-            process(toIterable(iterator), processor, "adjacencies");
+            process(reader, processor, phase, PhaseSettings.forTsvPhase("adjacencies"));
         }
     }
 
@@ -188,88 +629,82 @@ public class GeoPlanetConverter {
         }
     }
 
-    private void addAliases(final Map<String, JsonObject> geoplanetPlaces) throws IOException {
+    private void addAliases(final PlaceStore geoplanetPlaces, String file) throws IOException {
         System.out.println("adding aliases");
-        try(LineIterable it=LineIterable.openGzipFile(aliases)) {
-            Iterator<String> iterator = it.iterator();
-            final ArrayList<String> fields = readFields(iterator);
-            Processor<String, Boolean> processor = new Processor<String, Boolean>() {
+        PhaseMetrics phase = metrics.phase("aliases");
+        try(TsvReader reader=gzipTsvReader(file, phase)) {
+            ArrayList<String> fields = reader.header();
+            final int woeidColumn = column(fields, WOE_ID);
+            final int languageColumn = column(fields, YAHOO_LANGUAGE);
+            final int nameColumn = column(fields, YAHOO_NAME);
+            final int nameTypeColumn = column(fields, "Name_Type");
+            final StringPool languages = geoplanetPlaces.languages();
+            RecordProcessor processor = new RecordProcessor() {
 
                 @Override
-                public Boolean process(String input) {
-                    JsonObject object = object().get();
-                    int i=0;
-                    for(String value: Splitter.on('\t').split(input)) {
-                        value=deqoute(value);
-                        if(StringUtils.isNotEmpty(value)) {
-                            object.put(fields.get(i), value);
-                        }
-                        i++;
-                    }
-                    String woeid = object.getString(WOE_ID);
-                    String lang = object.getString(YAHOO_LANGUAGE);
-                    String name = object.getString(YAHOO_NAME);
-                    String nameType = object.getString("Name_Type");
-                    JsonObject place = geoplanetPlaces.get(woeid);
-                    if(place != null) {
-                        synchronized(place) {
-                            JsonArray languageValues = place.getOrCreateArray(NAME,lang);
-                            JsonPrimitive namePrimitive = primitive(name);
-                            if(!languageValues.contains(namePrimitive)) {
-                                // make sure preferred names are at start of the list of alternatives
-                                switch (nameType.toUpperCase()) {
-                                case "P":
-                                    languageValues.add(0, namePrimitive);
-                                    break;
-                                case "Q":
-                                    languageValues.add(0, namePrimitive);
-                                    break;
-                                default:
-                                    languageValues.add(namePrimitive);
-                                    break;
-                                }
-                            }
-                        }
+                public void process(TsvReader.Record record) {
+                    int row = geoplanetPlaces.row(record.longValue(woeidColumn));
+                    if(row >= 0) {
+                        // make sure preferred names are at start of the list of alternatives
+                        boolean preferred = record.equalsIgnoreCase(nameTypeColumn, "P") || record.equalsIgnoreCase(nameTypeColumn, "Q");
+                        geoplanetPlaces.addName(row, record.id(languageColumn, languages), record.data(),
+                                record.offset(nameColumn), record.length(nameColumn), preferred);
                     }
-                    return true;
                 }
             };
-            process(toIterable(iterator), processor, "aliases");
+            process(reader, processor, phase, PhaseSettings.forTsvPhase("aliases"));
         }
     }
 
-    private void readPlaces(final Map<String, JsonObject> geoplanetPlaces) throws IOException {
-        try(LineIterable it=LineIterable.openGzipFile(places)) {
-            Iterator<String> iterator = it.iterator();
-            final ArrayList<String> fields = readFields(iterator);
+    private void readPlaces(final PlaceStore geoplanetPlaces, String file) throws IOException {
+        PhaseMetrics phase = metrics.phase("places");
+        try(TsvReader reader=gzipTsvReader(file, phase)) {
+            ArrayList<String> fields = reader.header();
+            final int woeidColumn = column(fields, WOE_ID);
+            final int isoColumn = column(fields, YAHOO_ISO);
+            final int nameColumn = column(fields, YAHOO_NAME);
+            final int languageColumn = column(fields, YAHOO_LANGUAGE);
+            final int placeTypeColumn = column(fields, PLACE_TYPE);
+            final int parentColumn = column(fields, YAHOO_PARENT_ID);
+            final StringPool isoCodes = geoplanetPlaces.isoCodes();
+            final StringPool languages = geoplanetPlaces.languages();
+            final StringPool placeTypes = geoplanetPlaces.placeTypes();
             System.out.println("reading places");
             // iterate over the rest of the lines
 
-            Processor<String, Boolean> processor = new Processor<String, Boolean>() {
+            RecordProcessor processor = new RecordProcessor() {
 
                 @Override
-                public Boolean process(String input) {
-                    JsonObject object = object().get();
-                    int i=0;
-                    for(String value: Splitter.on('\t').split(input)) {
-                        value=deqoute(value);
-                        if(StringUtils.isNotEmpty(value)) {
-                            object.put(fields.get(i), value);
-                        }
-                        i++;
-                    }
-                    geoplanetPlaces.put(object.getString(fields.get(0)), object);
-                    return true;
+                public void process(TsvReader.Record record) {
+                    geoplanetPlaces.addPlace(record.longValue(woeidColumn), record.id(isoColumn, isoCodes), record.bytes(nameColumn),
+                            record.id(languageColumn, languages), record.id(placeTypeColumn, placeTypes), record.longValue(parentColumn, -1));
                 }
             };
-            process(toIterable(iterator), processor, "places");
+            process(reader, processor, phase, PhaseSettings.forTsvPhase("places"));
+            geoplanetPlaces.index();
+            printMemoryUsage(geoplanetPlaces);
         }
     }
 
-    private ArrayList<String> readFields(Iterator<String> iterator) {
+    static int column(ArrayList<String> fields, String name) {
+        int index = fields.indexOf(name);
+        if(index < 0) {
+            throw new IllegalArgumentException("no " + name + " column in " + fields);
+        }
+        return index;
+    }
+
+    private static void printMemoryUsage(PlaceStore geoplanetPlaces) {
+        Runtime runtime = Runtime.getRuntime();
+        System.out.println("places: " + geoplanetPlaces.rows() + " estimated store size "
+                + geoplanetPlaces.estimateBytes()/(1024*1024) + "MB; heap used "
+                + (runtime.totalMemory()-runtime.freeMemory())/(1024*1024) + "MB");
+    }
+
+    static ArrayList<String> readFields(Iterator<String> iterator) {
         String first = iterator.next();
         final ArrayList<String> fields=new ArrayList<>();
-        for(String fieldName: Splitter.on('\t').split(first)) {
+        for(String fieldName: TAB_SPLITTER.split(first)) {
             fieldName=deqoute(fieldName);
             fields.add(fieldName);
         }
@@ -278,99 +713,114 @@ public class GeoPlanetConverter {
 
 
     /**
-     * Takes the output of convert and applies some cleanup; also gets the json in the preferred format for Localstream.
-     * Separate class so that the garbage collector can get rid of the huge map.
+     * Applies some cleanup to the joined places; also gets the json in the preferred format for Localstream. The
+     * converter does this while writing its output. {@link #cleanup(String, String)} does the same for a file with
+     * places that were written without cleanup, like the intermediate file.
      */
     static class PostProcess {
 
         private final Lock lock=new ReentrantLock();
 
-        public void cleanup() {
-            try(LineIterable it=LineIterable.openGzipFile(OUTPUT_FILE)) {
-                try(BufferedWriter bw=gzipFileWriter("geoplanet_cleaned-"+System.currentTimeMillis()+".json.gz")) {
-                    Processor<String, Boolean> processor = new Processor<String, Boolean>() {
+        public void cleanup(String inputFile, String outputFile) {
+            try(LineIterable it=gzipFileLines(inputFile)) {
+                try(final BufferedWriter bw=gzipFileWriter(outputFile)) {
+                    Processor<String, Integer> processor = new Processor<String, Integer>() {
 
                         @Override
-                        public Boolean process(String input) {
+                        public Integer process(String input) {
                             try {
                                 JsonObject place = PARSER.parse(input).asObject();
-
-                                JsonObject result = object().get();
-
-                                result.put(ID, place.get(WOE_ID));
-                                result.put(SOURCE, "geoplanet");
-                                JsonObject names = fixNames(place);
-                                if (names != null) {
-                                    result.put(NAME, names);
-                                }
-                                String title = place.getString(TITLE);
-                                if (title != null) {
-                                    result.put(TITLE, title);
-                                }
-                                JsonObject cats = fixCategories(place);
-                                if (cats != null) {
-                                    result.put(CATEGORIES, cats);
-                                }
-                                String parent = place.getString(YAHOO_PARENT_ID);
-                                if (parent != null) {
-                                    result.put(PARENT_ID, parent);
-                                }
-                                String country = place.getString("ISO");
-                                if (country != null) {
-                                    result.put(COUNTRY, country);
-                                }
-                                JsonArray neighbors = place.getArray(NEIGHBOR_WOEIDS);
-                                if (neighbors != null) {
-                                    result.put(NEIGHBOR_IDS, neighbors);
-                                }
-                                JsonObject geometry = place.getObject(GEOMETRY);
-                                if (geometry != null) {
-                                    result.put(GEOMETRY, geometry);
-                                }
-                                write(bw, result);
-                                return true;
+                                write(bw, clean(place));
+                                return 1;
                             } catch (IOException e) {
                                 throw new IllegalStateException(e);
                             }
                         }
+                    };
+                    process(it, processor, new PhaseMetrics("cleanup"), PhaseSettings.forLinePhase("cleanup"));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
 
-                        private JsonObject fixCategories(JsonObject place) {
-                            String geoPlanetCategory = place.getString(PLACE_TYPE);
+        /**
+         * @param place a joined place; its name object is modified and reused in the result
+         * @return the cleaned up place
+         */
+        static JsonObject clean(JsonObject place) {
+            JsonObject result = object().get();
 
-                            return object().put("geoplanet", array(geoPlanetCategory)).get();
-                        }
+            result.put(ID, place.get(WOE_ID));
+            result.put(SOURCE, "geoplanet");
+            JsonObject names = fixNames(place);
+            if (names != null) {
+                result.put(NAME, names);
+            }
+            String title = place.getString(TITLE);
+            if (title != null) {
+                result.put(TITLE, title);
+            }
+            JsonObject cats = fixCategories(place);
+            if (cats != null) {
+                result.put(CATEGORIES, cats);
+            }
+            String parent = place.getString(YAHOO_PARENT_ID);
+            if (parent != null) {
+                result.put(PARENT_ID, parent);
+            }
+            String country = place.getString(YAHOO_ISO);
+            if (country != null) {
+                result.put(COUNTRY, country);
+            }
+            JsonArray ancestors = place.getArray(ANCESTOR_WOEIDS);
+            if (ancestors != null) {
+                result.put(ANCESTOR_IDS, ancestors);
+            }
+            JsonArray neighbors = place.getArray(NEIGHBOR_WOEIDS);
+            if (neighbors != null) {
+                result.put(NEIGHBOR_IDS, neighbors);
+            }
+            JsonObject geometry = place.getObject(GEOMETRY);
+            if (geometry != null) {
+                result.put(GEOMETRY, geometry);
+            }
+            String geometryWoeid = place.getString(GEOMETRY_WOEID);
+            if (geometryWoeid != null) {
+                result.put(GEOMETRY_ID, geometryWoeid);
+            }
+            return result;
+        }
 
-                        private JsonObject fixNames(JsonObject place) {
-                            JsonObject names = place.getOrCreateObject(NAME);
-                            String yahooName = place.getString(YAHOO_NAME);
-                            String language = place.getString(YAHOO_LANGUAGE);
-                            if(StringUtils.isNotEmpty(language)) {
-                                JsonArray languageValues = names.getOrCreateArray(language);
-                                if(!languageValues.contains(yahooName)) {
-                                    languageValues.add(yahooName);
-                                }
-                                // make sure we give special status for the preferred Yahoo Name
-                                place.put(TITLE, yahooName);
-                                place.put(LANGUAGE, language);
-                            } else {
-                                if(StringUtils.isNotEmpty(yahooName)) {
-                                    // fall back to english
-                                    JsonArray languageValues = names.getOrCreateArray("ENG");
-                                    if(!languageValues.contains(yahooName)) {
-                                        languageValues.add(yahooName);
-                                    }
-                                    place.put(TITLE, yahooName);
-                                }
-                            }
-                            return names;
-                        }
+        private static JsonObject fixCategories(JsonObject place) {
+            String geoPlanetCategory = place.getString(PLACE_TYPE);
 
-                    };
-                    process(it, processor, "for cleanup");
+            return object().put("geoplanet", array(geoPlanetCategory)).get();
+        }
+
+        private static JsonObject fixNames(JsonObject place) {
+            JsonObject names = place.getOrCreateObject(NAME);
+            String yahooName = place.getString(YAHOO_NAME);
+            String language = place.getString(YAHOO_LANGUAGE);
+            if(StringUtils.isNotEmpty(language)) {
+                JsonArray languageValues = names.getOrCreateArray(language);
+                if(!languageValues.contains(yahooName)) {
+                    languageValues.add(yahooName);
+                }
+                // make sure we give special status for the preferred Yahoo Name
+                place.put(TITLE, yahooName);
+                place.put(LANGUAGE, language);
+            } else {
+                if(StringUtils.isNotEmpty(yahooName)) {
+                    // fall back to english
+                    JsonArray languageValues = names.getOrCreateArray("ENG");
+                    if(!languageValues.contains(yahooName)) {
+                        languageValues.add(yahooName);
+                    }
+                    place.put(TITLE, yahooName);
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
             }
+            return names;
         }
 
         private void write(BufferedWriter bw, JsonObject object) throws IOException {
@@ -384,25 +834,238 @@ public class GeoPlanetConverter {
         }
     }
 
-    private static BufferedWriter gzipFileWriter(String file) throws IOException, FileNotFoundException {
-        return new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), UTF8),1000000);
+    /**
+     * @return the highest heap usage sampled since {@link #resetPeakHeapUsage()}. The heap is sampled as a whole every
+     *         {@link #HEAP_SAMPLE_MILLIS}ms; summing the peaks of the separate heap pools would overstate it, because
+     *         those peaks happen at different times. A peak shorter than the interval may be missed.
+     */
+    static long peakHeapUsage() {
+        sampleHeap();
+        return PEAK_HEAP.get();
+    }
+
+    static void resetPeakHeapUsage() {
+        startHeapSampler();
+        PEAK_HEAP.set(0);
+        sampleHeap();
+    }
+
+    private static void sampleHeap() {
+        long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long peak;
+        while((peak = PEAK_HEAP.get()) < used && !PEAK_HEAP.compareAndSet(peak, used)) {
+            // retry
+        }
     }
 
-    private static void process(Iterable<String> it, Processor<String,Boolean> processor, String what) throws IOException {
-        final AtomicInteger lines=new AtomicInteger();
-        try(ConcurrentProcessingIterable<String, Boolean> concurrentProcessor = processConcurrently(it, processor , 10000, 9, 10000)) {
-            for(@SuppressWarnings("unused") Boolean b:concurrentProcessor) {
-                lines.incrementAndGet();
-                if(lines.get()%100000 == 0) {
-                    System.out.println("processed " + lines + " " + what);
+    private static synchronized void startHeapSampler() {
+        if(heapSampler == null) {
+            heapSampler = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while(true) {
+                            sampleHeap();
+                            Thread.sleep(HEAP_SAMPLE_MILLIS);
+                        }
+                    } catch (InterruptedException e) {
+                        // stop sampling
+                    }
                 }
+            }, "heap-sampler");
+            heapSampler.setDaemon(true);
+            heapSampler.start();
+        }
+    }
+
+    /**
+     * Blocks of output are gzipped in parallel; see {@link ParallelGzipOutputStream}.
+     */
+    static BufferedWriter gzipFileWriter(String file) throws IOException, FileNotFoundException {
+        return new BufferedWriter(new OutputStreamWriter(new ParallelGzipOutputStream(new FileOutputStream(file)), UTF8),1000000);
+    }
+
+    /**
+     * The file is decompressed ahead of the reader on a separate thread; see {@link ReadAheadInputStream}.
+     */
+    static BufferedReader gzipFileReader(String file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new ReadAheadInputStream(new GZIPInputStream(new FileInputStream(file), 65536)), UTF8), 65536);
+    }
+
+    static LineIterable gzipFileLines(String file) throws IOException {
+        return new LineIterable(gzipFileReader(file));
+    }
+
+    /**
+     * Decompresses like {@link #gzipFileReader(String)} and counts the bytes read and decompressed in the phase.
+     */
+    static InputStream gzipFileInput(String file, PhaseMetrics phase) throws IOException {
+        return new ReadAheadInputStream(phase.countDecompressed(new GZIPInputStream(phase.countRead(new FileInputStream(file)), 65536)));
+    }
+
+    static LineIterable gzipFileLines(String file, PhaseMetrics phase) throws IOException {
+        return new LineIterable(new BufferedReader(new InputStreamReader(gzipFileInput(file, phase), UTF8), 65536));
+    }
+
+    static TsvReader gzipTsvReader(String file, PhaseMetrics phase) throws IOException {
+        return new TsvReader(gzipFileInput(file, phase), TsvReader.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Handles a line of a tab separated file.
+     */
+    interface RecordProcessor {
+        void process(TsvReader.Record record);
+    }
+
+    /**
+     * Processes the blocks of lines concurrently and each line in a block with the record processor. Reading the blocks
+     * counts as parse time and processing their records as merge time.
+     */
+    private static void process(TsvReader reader, final RecordProcessor recordProcessor, final PhaseMetrics phase, PhaseSettings settings) throws IOException {
+        Processor<TsvReader.Block, Integer> processor = new Processor<TsvReader.Block, Integer>() {
+
+            @Override
+            public Integer process(TsvReader.Block block) {
+                long start = System.nanoTime();
+                TsvReader.Record record = block.records();
+                int lines = 0;
+                while(record.next()) {
+                    recordProcessor.process(record);
+                    lines++;
+                }
+                phase.mergeTime(System.nanoTime() - start);
+                return lines;
+            }
+        };
+        process(reader, processor, phase, settings);
+    }
+
+    /**
+     * Processes the items concurrently with the settings of the phase or, when auto tuning, with the variation of
+     * those settings that did best on the first part of the input.
+     *
+     * @param processor returns the number of lines in the item
+     * @param phase collects the metrics of the phase, which is finished afterwards; its summary is printed
+     */
+    private static <I> void process(Iterable<I> it, Processor<I, Integer> processor, PhaseMetrics phase, PhaseSettings settings) throws IOException {
+        Iterator<I> iterator = phase.countQueued(it).iterator();
+        PhaseSettings chosen = settings;
+        if(settings.autoTune()) {
+            chosen = autoTune(iterator, processor, settings, phase);
+        }
+        run(toIterable(iterator), processor, chosen, phase);
+        phase.settings(chosen, settings.autoTune());
+        phase.finish();
+        System.out.println("phase summary " + phase.toJson());
+    }
+
+    /**
+     * Tries each candidate setting on the next part of the input and returns the one with the highest throughput.
+     */
+    private static <I> PhaseSettings autoTune(Iterator<I> iterator, Processor<I, Integer> processor, PhaseSettings settings, PhaseMetrics phase) throws IOException {
+        PhaseSettings best = settings;
+        double bestRate = -1;
+        for(PhaseSettings candidate: settings.candidates()) {
+            long start = System.nanoTime();
+            long lines = run(limit(iterator, settings.trialItems()), processor, candidate, phase);
+            if(lines == 0) {
+                // nothing left to try on
+                break;
+            }
+            double rate = lines * 1000000000.0 / (System.nanoTime() - start);
+            System.out.println("auto tune " + candidate + ": " + (long) rate + " lines/s");
+            if(rate > bestRate) {
+                bestRate = rate;
+                best = candidate;
+            }
+        }
+        System.out.println("auto tune picked " + best);
+        return best;
+    }
+
+    private static <I> Iterable<I> limit(final Iterator<I> iterator, final int items) {
+        return toIterable(new Iterator<I>() {
+            int count = 0;
+
+            @Override
+            public boolean hasNext() {
+                return count < items && iterator.hasNext();
+            }
+
+            @Override
+            public I next() {
+                count++;
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    /**
+     * @return number of lines processed
+     */
+    private static <I> long run(Iterable<I> it, Processor<I, Integer> processor, PhaseSettings settings, PhaseMetrics phase) throws IOException {
+        long lines = 0;
+        try(ConcurrentProcessingIterable<I, Integer> concurrentProcessor = processConcurrently(it, processor, settings.blockSize(),
+                settings.threads(), settings.queueCapacity())) {
+            for(Integer itemLines: concurrentProcessor) {
+                lines += itemLines;
+                phase.itemDone();
+                phase.addLines(itemLines);
             }
         }
-        System.out.println("done adding " + what);
+        return lines;
     }
 
+    /**
+     * Run with -Dgeoplanet.partitions=32 (or some other number) to use the partitioned join, which needs a lot less heap
+     * than the default in memory join. Use -Dgeoplanet.spatialIndex=file to also write a {@link SpatialIndex} and
+     * -Dgeoplanet.intermediate=true to also write the places before cleanup to geoplanet.json.gz. With
+     * -Dgeoplanet.checkpoints=dir, the in memory join only redoes the phases whose input changed since the last run.
+     * -Dgeoplanet.shards=16 writes the output as 16 shards that can be read with {@link ShardedOutput}.
+     * -Dgeoplanet.binary=true also writes the output in the format of {@link BinaryOutput} and
+     * -Dgeoplanet.nameIndex=file writes a {@link NameIndex}. The {@link RunMetrics} are
+     * written to geoplanet_cleaned-timestamp-report.json at the end, or to -Dgeoplanet.report=file.
+     *
+     * -Dgeoplanet.input=dir reads the geoplanet files from dir instead, e.g. the ones written by {@link SyntheticData},
+     * and -Dgeoplanet.flickrShapes=file the output of {@link FlickShapeProcessor}.
+     */
     public static void main(String[] args) {
-        new GeoPlanetConverter().convert();
-        new PostProcess().cleanup();
+        String input = System.getProperty("geoplanet.input");
+        String shapes = System.getProperty("geoplanet.flickrShapes", flickrShapes);
+        GeoPlanetConverter converter;
+        if(input == null) {
+            converter = new GeoPlanetConverter(places, aliases, adjacencies, shapes);
+        } else {
+            converter = new GeoPlanetConverter(new File(input, SyntheticData.PLACES_FILE).getPath(), new File(input, SyntheticData.ALIASES_FILE).getPath(),
+                    new File(input, SyntheticData.ADJACENCIES_FILE).getPath(), shapes);
+        }
+        converter.setSpatialIndexFile(System.getProperty("geoplanet.spatialIndex"));
+        String checkpointDir = System.getProperty("geoplanet.checkpoints");
+        if(checkpointDir != null) {
+            converter.setCheckpointDir(new File(checkpointDir));
+        }
+        if(Boolean.getBoolean("geoplanet.intermediate")) {
+            converter.setIntermediateFile(OUTPUT_FILE);
+        }
+        converter.setShards(Integer.getInteger("geoplanet.shards", 0));
+        long timestamp = System.currentTimeMillis();
+        String outputFile = "geoplanet_cleaned-"+timestamp+".json.gz";
+        if(Boolean.getBoolean("geoplanet.binary")) {
+            converter.setBinaryFile("geoplanet_cleaned-"+timestamp+".bin");
+        }
+        converter.setNameIndexFile(System.getProperty("geoplanet.nameIndex"));
+        converter.setReportFile(System.getProperty("geoplanet.report", "geoplanet_cleaned-"+timestamp+"-report.json"));
+        Integer partitions = Integer.getInteger("geoplanet.partitions");
+        if(partitions != null) {
+            converter.convertPartitioned(outputFile, partitions, new File(System.getProperty("java.io.tmpdir")));
+        } else {
+            converter.convert(outputFile);
+        }
     }
 }
@@ -0,0 +1,65 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append only storage for serialized geometries. The bytes are copied into large chunks, so a geometry costs its
+ * length plus a four byte length prefix instead of a tree of json objects, arrays and boxed numbers. Geometries that
+ * are larger than a chunk get a chunk of their own.
+ *
+ * A geometry is referred to by the long returned from {@link #add(byte[], int, int)}, which is never 0, so 0 can be
+ * used for no geometry. Adding is synchronized; read only after all adds are done.
+ */
+class GeometryArena {
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private final List<byte[]> chunks = new ArrayList<>();
+    private byte[] chunk;
+    private int position;
+    private long bytes;
+
+    /**
+     * @return reference to the copied bytes
+     */
+    public synchronized long add(byte[] data, int offset, int length) {
+        if(chunk == null || position + 4 + length > chunk.length) {
+            chunk = new byte[Math.max(CHUNK_SIZE, 4 + length)];
+            chunks.add(chunk);
+            position = 0;
+        }
+        long ref = ((long) chunks.size() << 32) | position;
+        chunk[position++] = (byte) (length >>> 24);
+        chunk[position++] = (byte) (length >>> 16);
+        chunk[position++] = (byte) (length >>> 8);
+        chunk[position++] = (byte) length;
+        System.arraycopy(data, offset, chunk, position, length);
+        position += length;
+        bytes += 4 + length;
+        return ref;
+    }
+
+    /**
+     * @return the chunk that holds the referenced geometry; it starts at {@link #offset(long)}
+     */
+    public byte[] chunk(long ref) {
+        return chunks.get((int) (ref >>> 32) - 1);
+    }
+
+    public int offset(long ref) {
+        return (int) ref + 4;
+    }
+
+    public int length(long ref) {
+        byte[] data = chunk(ref);
+        int o = (int) ref;
+        return ((data[o] & 0xff) << 24) | ((data[o + 1] & 0xff) << 16) | ((data[o + 2] & 0xff) << 8) | (data[o + 3] & 0xff);
+    }
+
+    /**
+     * @return bytes used by the geometries, not counting the unused end of the chunks
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+}
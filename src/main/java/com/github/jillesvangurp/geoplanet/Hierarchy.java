@@ -0,0 +1,258 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+/**
+ * Compact woeid to parent woeid map with the depth of each place in the geoplanet hierarchy. Depths are computed in a
+ * single pass over all places once everything has been added; each place is visited once because depths are
+ * memoized. Parent chains that loop back on themselves are cut where the loop is detected, so walking up from a place
+ * takes exactly depth steps. This is what {@link #ancestors(long)} relies on.
+ *
+ * The hash table is kept in buffers. By default these are on the heap; with {@link #Hierarchy(int, File)} they are
+ * memory mapped files instead, so the partitioned join does not need heap for every place in the input. The files
+ * are deleted right after they are mapped and go away with the mappings.
+ *
+ * Adding is not thread safe. Once {@link #computeDepths()} has been called, lookups can be done concurrently.
+ */
+class Hierarchy {
+    private static final long NO_PARENT = -1;
+    private static final long[] NO_ANCESTORS = new long[0];
+    private static final int UNKNOWN = -1;
+    private static final int VISITING = -2;
+    private static final byte USED = 1;
+    private static final byte HAS_GEOMETRY = 2;
+
+    private final File dir;
+    private int capacity;
+    private LongBuffer keys;
+    private LongBuffer parents;
+    private IntBuffer depths;
+    private ByteBuffer flags;
+    private int size = 0;
+    private int cycles = 0;
+
+    public Hierarchy(int expectedSize) {
+        this(expectedSize, null);
+    }
+
+    /**
+     * @param dir if not null, the hash table is kept in memory mapped files in this directory rather than on the heap
+     */
+    public Hierarchy(int expectedSize, File dir) {
+        this.dir = dir;
+        allocate(Integer.highestOneBit(Math.max(expectedSize + expectedSize / 2, 1)) << 1);
+    }
+
+    private void allocate(int newCapacity) {
+        capacity = newCapacity;
+        if(dir == null) {
+            keys = LongBuffer.allocate(capacity);
+            parents = LongBuffer.allocate(capacity);
+            depths = IntBuffer.allocate(capacity);
+            flags = ByteBuffer.allocate(capacity);
+        } else {
+            try {
+                File file = File.createTempFile("hierarchy", ".bin", dir);
+                try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    FileChannel channel = raf.getChannel();
+                    long position = 0;
+                    keys = map(channel, position, capacity * 8L).asLongBuffer();
+                    position += capacity * 8L;
+                    parents = map(channel, position, capacity * 8L).asLongBuffer();
+                    position += capacity * 8L;
+                    depths = map(channel, position, capacity * 4L).asIntBuffer();
+                    position += capacity * 4L;
+                    flags = map(channel, position, capacity);
+                } finally {
+                    if(!file.delete()) {
+                        file.deleteOnExit();
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        for(int i=0;i<capacity;i++) {
+            depths.put(i, UNKNOWN);
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        return channel.map(MapMode.READ_WRITE, position, size).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @param parent parent woeid or -1 for places without a parent
+     */
+    public void add(long woeid, long parent) {
+        if((size + 1) * 3L > capacity * 2L) {
+            grow();
+        }
+        int slot = slot(woeid);
+        if(!used(slot)) {
+            flags.put(slot, USED);
+            keys.put(slot, woeid);
+            size++;
+        }
+        parents.put(slot, parent < 0 ? NO_PARENT : parent);
+    }
+
+    private void grow() {
+        int oldCapacity = capacity;
+        LongBuffer oldKeys = keys;
+        LongBuffer oldParents = parents;
+        ByteBuffer oldFlags = flags;
+        allocate(capacity * 2);
+        for(int i=0;i<oldCapacity;i++) {
+            if((oldFlags.get(i) & USED) != 0) {
+                int slot = slot(oldKeys.get(i));
+                flags.put(slot, oldFlags.get(i));
+                keys.put(slot, oldKeys.get(i));
+                parents.put(slot, oldParents.get(i));
+            }
+        }
+    }
+
+    private boolean used(int slot) {
+        return (flags.get(slot) & USED) != 0;
+    }
+
+    private int slot(long woeid) {
+        int mask = capacity - 1;
+        long h = woeid * 0x9E3779B97F4A7C15L;
+        int slot = (int) ((h ^ (h >>> 32)) & mask);
+        while(used(slot) && keys.get(slot) != woeid) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Computes the depth of every place. A place without a known parent has depth 0.
+     */
+    public void computeDepths() {
+        int[] path = new int[64];
+        for(int start=0;start<capacity;start++) {
+            if(!used(start) || depths.get(start) != UNKNOWN) {
+                continue;
+            }
+            int length = 0;
+            int slot = start;
+            int base = -1;
+            while(true) {
+                if(depths.get(slot) >= 0) {
+                    base = depths.get(slot);
+                    break;
+                }
+                if(depths.get(slot) == VISITING) {
+                    // cycle; the last place on the path, whose parent is the place we got back to, becomes a root
+                    cycles++;
+                    break;
+                }
+                depths.put(slot, VISITING);
+                if(length == path.length) {
+                    path = Arrays.copyOf(path, length * 2);
+                }
+                path[length++] = slot;
+                long parent = parents.get(slot);
+                if(parent == NO_PARENT || parent == keys.get(slot)) {
+                    break;
+                }
+                int parentSlot = slot(parent);
+                if(!used(parentSlot)) {
+                    break;
+                }
+                slot = parentSlot;
+            }
+            for(int i=length - 1;i>=0;i--) {
+                depths.put(path[i], ++base);
+            }
+        }
+    }
+
+    /**
+     * @return depth of the place or -1 if it is not known
+     */
+    public int depth(long woeid) {
+        int slot = slot(woeid);
+        return used(slot) ? depths.get(slot) : UNKNOWN;
+    }
+
+    /**
+     * @return parent of the place or -1 if it has none or is not known
+     */
+    public long parent(long woeid) {
+        int slot = slot(woeid);
+        return used(slot) ? parents.get(slot) : NO_PARENT;
+    }
+
+    /**
+     * Marks the place as having a geometry of its own. Ignored for unknown places.
+     */
+    public void setHasGeometry(long woeid) {
+        int slot = slot(woeid);
+        if(used(slot)) {
+            flags.put(slot, (byte) (flags.get(slot) | HAS_GEOMETRY));
+        }
+    }
+
+    /**
+     * @return the parent, grand parent, etc. of the place, up to the root of the hierarchy. Requires
+     *         {@link #computeDepths()}.
+     */
+    public long[] ancestors(long woeid) {
+        int slot = slot(woeid);
+        if(!used(slot) || depths.get(slot) <= 0) {
+            return NO_ANCESTORS;
+        }
+        long[] ancestors = new long[depths.get(slot)];
+        for(int i=0;i<ancestors.length;i++) {
+            ancestors[i] = parents.get(slot);
+            slot = slot(ancestors[i]);
+        }
+        return ancestors;
+    }
+
+    /**
+     * @return the closest ancestor that has a geometry or -1 if there is no such ancestor. Requires
+     *         {@link #computeDepths()}.
+     */
+    public long nearestAncestorWithGeometry(long woeid) {
+        int slot = slot(woeid);
+        if(!used(slot)) {
+            return NO_PARENT;
+        }
+        for(int i=depths.get(slot);i>0;i--) {
+            long parent = parents.get(slot);
+            slot = slot(parent);
+            if((flags.get(slot) & HAS_GEOMETRY) != 0) {
+                return parent;
+            }
+        }
+        return NO_PARENT;
+    }
+
+    public boolean contains(long woeid) {
+        return used(slot(woeid));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of parent cycles found by {@link #computeDepths()}
+     */
+    public int cycles() {
+        return cycles;
+    }
+}
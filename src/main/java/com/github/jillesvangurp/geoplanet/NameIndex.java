@@ -0,0 +1,676 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Exact and autocomplete lookups of places by name over the names and alternative names of all places.
+ *
+ * Names are normalized with {@link #normalize(String)}, so lookups ignore case, accents and punctuation. The
+ * normalized names are kept as a sorted array of utf8 keys with the woeids and languages of the places that have that
+ * name as postings. There is an array per rank of place type, countries first and zip codes and points of interest
+ * last, so the best ranked matches for a prefix are found by a binary search in each array in rank order, without
+ * looking at every name that starts with the prefix.
+ *
+ * The converter writes the index with {@link Writer}; {@link #load(String)} reads it back. The index is immutable once
+ * loaded, so lookups can be done from any number of threads. The writer keeps the names in memory until it is closed
+ * unless {@link Writer#spill()} is called, which the partitioned join does after each partition.
+ */
+public class NameIndex {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x4e414d45;
+    private static final int VERSION = 1;
+    // place types by rank; other place types rank just before zip codes and points of interest
+    private static final String[][] RANKS = {
+        { "Continent", "Country" },
+        { "State" },
+        { "Town" },
+        { "County", "LocalAdmin" },
+        { "Suburb", "Airport", "Island" },
+        {},
+        { "Zip", "POI" } };
+    private static final int OTHER_RANK = 5;
+
+    private final String[] languages;
+    private final Tier[] tiers;
+
+    private NameIndex(String[] languages, Tier[] tiers) {
+        this.languages = languages;
+        this.tiers = tiers;
+    }
+
+    /**
+     * @return rank of the place type; lower ranks come first in lookup results
+     */
+    static int rank(String placeType) {
+        for(int rank=0;rank<RANKS.length;rank++) {
+            for(String type: RANKS[rank]) {
+                if(type.equalsIgnoreCase(placeType)) {
+                    return rank;
+                }
+            }
+        }
+        return OTHER_RANK;
+    }
+
+    /**
+     * @return the name in lower case without accents, with each run of anything other than letters and digits
+     *         replaced by a single space and without leading or trailing spaces
+     */
+    public static String normalize(String name) {
+        String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+        StringBuilder normalized = new StringBuilder(decomposed.length());
+        boolean separator = false;
+        int i = 0;
+        while(i < decomposed.length()) {
+            int codePoint = decomposed.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if(Character.getType(codePoint) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if(Character.isLetterOrDigit(codePoint)) {
+                if(separator && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                separator = false;
+                normalized.appendCodePoint(Character.toLowerCase(codePoint));
+            } else {
+                separator = true;
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * @return woeids of the places with this name, best ranked first
+     */
+    public long[] exact(String name, int limit) {
+        return exact(name, null, limit);
+    }
+
+    /**
+     * @param language if not null, only names in this language match, e.g. ENG
+     * @return woeids of the places with this name, best ranked first
+     */
+    public long[] exact(String name, String language, int limit) {
+        return lookup(name, language, false, limit);
+    }
+
+    /**
+     * @return woeids of the places with a name that starts with the prefix, best ranked first
+     */
+    public long[] complete(String prefix, int limit) {
+        return complete(prefix, null, limit);
+    }
+
+    /**
+     * @param language if not null, only names in this language match, e.g. ENG
+     * @return woeids of the places with a name that starts with the prefix, best ranked first
+     */
+    public long[] complete(String prefix, String language, int limit) {
+        return lookup(prefix, language, true, limit);
+    }
+
+    /**
+     * @return number of postings
+     */
+    public int size() {
+        int size = 0;
+        for(Tier tier: tiers) {
+            size += tier.woeids.length;
+        }
+        return size;
+    }
+
+    private long[] lookup(String query, String language, boolean prefix, int limit) {
+        byte[] key = normalize(query).getBytes(UTF8);
+        short languageId = -1;
+        if(language != null) {
+            languageId = languageId(language);
+            if(languageId < 0) {
+                return new long[0];
+            }
+        }
+        if(key.length == 0 || limit <= 0) {
+            return new long[0];
+        }
+        long[] result = new long[limit];
+        int found = 0;
+        for(int t=0;t<tiers.length && found < limit;t++) {
+            Tier tier = tiers[t];
+            for(int k=tier.lowerBound(key);k<tier.keys() && found < limit;k++) {
+                if(prefix ? !tier.startsWith(k, key) : tier.compare(k, key) != 0) {
+                    break;
+                }
+                for(int p=tier.postingOffsets[k];p<tier.postingOffsets[k + 1] && found < limit;p++) {
+                    if((languageId < 0 || tier.languages[p] == languageId) && !contains(result, found, tier.woeids[p])) {
+                        result[found++] = tier.woeids[p];
+                    }
+                }
+            }
+        }
+        return found == limit ? result : Arrays.copyOf(result, found);
+    }
+
+    private short languageId(String language) {
+        for(short i=0;i<languages.length;i++) {
+            if(languages[i].equalsIgnoreCase(language)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean contains(long[] values, int size, long value) {
+        for(int i=0;i<size;i++) {
+            if(values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads an index written with {@link Writer}.
+     */
+    public static NameIndex load(String file) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new ReadAheadInputStream(new GZIPInputStream(new FileInputStream(file), 65536)), 65536))) {
+            if(in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a name index");
+            }
+            int version = in.readInt();
+            if(version != VERSION) {
+                throw new IOException("unsupported name index version " + version);
+            }
+            String[] languages = new String[in.readInt()];
+            for(int i=0;i<languages.length;i++) {
+                languages[i] = in.readUTF();
+            }
+            Tier[] tiers = new Tier[in.readInt()];
+            for(int t=0;t<tiers.length;t++) {
+                byte[] keyData = new byte[in.readInt()];
+                in.readFully(keyData);
+                int[] keyOffsets = readInts(in, in.readInt());
+                int[] postingOffsets = readInts(in, keyOffsets.length);
+                long[] woeids = new long[in.readInt()];
+                short[] postingLanguages = new short[woeids.length];
+                for(int i=0;i<woeids.length;i++) {
+                    woeids[i] = in.readLong();
+                    postingLanguages[i] = in.readShort();
+                }
+                tiers[t] = new Tier(keyData, keyOffsets, postingOffsets, woeids, postingLanguages);
+            }
+            return new NameIndex(languages, tiers);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int size) throws IOException {
+        int[] values = new int[size];
+        for(int i=0;i<size;i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * Sorted normalized names of one rank with their postings. Key k is keyData[keyOffsets[k]..keyOffsets[k+1]) and
+     * its postings are postingOffsets[k]..postingOffsets[k+1].
+     */
+    private static class Tier {
+        final byte[] keyData;
+        final int[] keyOffsets;
+        final int[] postingOffsets;
+        final long[] woeids;
+        final short[] languages;
+
+        Tier(byte[] keyData, int[] keyOffsets, int[] postingOffsets, long[] woeids, short[] languages) {
+            this.keyData = keyData;
+            this.keyOffsets = keyOffsets;
+            this.postingOffsets = postingOffsets;
+            this.woeids = woeids;
+            this.languages = languages;
+        }
+
+        int keys() {
+            return keyOffsets.length - 1;
+        }
+
+        /**
+         * @return index of the first key that is not smaller than the key
+         */
+        int lowerBound(byte[] key) {
+            int low = 0;
+            int high = keys();
+            while(low < high) {
+                int middle = (low + high) >>> 1;
+                if(compare(middle, key) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        int compare(int k, byte[] key) {
+            int offset = keyOffsets[k];
+            int length = keyOffsets[k + 1] - offset;
+            for(int i=0;i<Math.min(length, key.length);i++) {
+                int c = (keyData[offset + i] & 0xff) - (key[i] & 0xff);
+                if(c != 0) {
+                    return c;
+                }
+            }
+            return length - key.length;
+        }
+
+        boolean startsWith(int k, byte[] prefix) {
+            int offset = keyOffsets[k];
+            if(keyOffsets[k + 1] - offset < prefix.length) {
+                return false;
+            }
+            for(int i=0;i<prefix.length;i++) {
+                if(keyData[offset + i] != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Collects names in memory and writes the gzipped index when closed. Safe for concurrent use.
+     *
+     * To bound the memory used, call {@link #spill()} every so often; the names added so far are then written to a
+     * sorted run per rank next to the index file, and the runs are merged when the writer is closed.
+     */
+    public static class Writer implements Closeable {
+        private final String file;
+        private final StringPool languages = new StringPool();
+        private final TierBuilder[] tiers = new TierBuilder[RANKS.length];
+        private final List<List<File>> runs = new ArrayList<>();
+        private boolean spilled = false;
+
+        public Writer(String file) {
+            this.file = file;
+            for(int i=0;i<tiers.length;i++) {
+                tiers[i] = new TierBuilder();
+                runs.add(new ArrayList<File>());
+            }
+        }
+
+        /**
+         * @param language may be null
+         */
+        public synchronized void add(long woeid, String placeType, String language, String name) {
+            byte[] key = normalize(name).getBytes(UTF8);
+            if(key.length > 0) {
+                tiers[rank(placeType)].add(key, woeid, languages.id(language));
+            }
+        }
+
+        /**
+         * Writes the names added so far to sorted runs on disk and frees the memory they used.
+         */
+        public synchronized void spill() throws IOException {
+            spilled = true;
+            for(int rank=0;rank<tiers.length;rank++) {
+                if(tiers[rank].size > 0) {
+                    File run = File.createTempFile("names-" + rank + "-", ".run", directory());
+                    runs.get(rank).add(run);
+                    try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 65536))) {
+                        tiers[rank].writeRun(out);
+                    }
+                    tiers[rank] = new TierBuilder();
+                }
+            }
+        }
+
+        private File directory() {
+            return new File(file).getAbsoluteFile().getParentFile();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                if(spilled) {
+                    spill();
+                }
+                try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new ParallelGzipOutputStream(new FileOutputStream(file)), 65536))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(languages.size());
+                    for(short i=0;i<languages.size();i++) {
+                        out.writeUTF(languages.value(i));
+                    }
+                    out.writeInt(tiers.length);
+                    for(int rank=0;rank<tiers.length;rank++) {
+                        if(spilled) {
+                            mergeRuns(runs.get(rank), out);
+                        } else {
+                            tiers[rank].write(out);
+                        }
+                    }
+                }
+            } finally {
+                for(List<File> tierRuns: runs) {
+                    for(File run: tierRuns) {
+                        Files.deleteIfExists(run.toPath());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Merges the sorted runs of a rank into a tier in the same format as {@link TierBuilder#write(DataOutputStream)}.
+         * The tier starts with its sizes, so the sections are written to temporary files while merging and copied to the
+         * output afterwards.
+         */
+        private void mergeRuns(List<File> tierRuns, DataOutputStream out) throws IOException {
+            File[] sections = new File[4];
+            List<RunReader> readers = new ArrayList<>();
+            try {
+                for(int i=0;i<sections.length;i++) {
+                    sections[i] = File.createTempFile("names-section-", ".tmp", directory());
+                }
+                PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, tierRuns.size()), new Comparator<RunReader>() {
+                    @Override
+                    public int compare(RunReader r1, RunReader r2) {
+                        return r1.compareTo(r2.key, r2.woeid, r2.language);
+                    }
+                });
+                for(File run: tierRuns) {
+                    RunReader reader = new RunReader(run);
+                    readers.add(reader);
+                    if(reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+                int keyBytes = 0;
+                int keys = 0;
+                int postings = 0;
+                try(DataOutputStream keyData = section(sections[0]); DataOutputStream keyOffsets = section(sections[1]);
+                        DataOutputStream postingOffsets = section(sections[2]); DataOutputStream postingData = section(sections[3])) {
+                    byte[] previousKey = null;
+                    long previousWoeid = 0;
+                    short previousLanguage = 0;
+                    while(!queue.isEmpty()) {
+                        RunReader reader = queue.poll();
+                        boolean newKey = previousKey == null || !Arrays.equals(previousKey, reader.key);
+                        if(newKey) {
+                            keyData.write(reader.key);
+                            keyOffsets.writeInt(keyBytes);
+                            postingOffsets.writeInt(postings);
+                            keyBytes += reader.key.length;
+                            keys++;
+                        }
+                        if(newKey || reader.woeid != previousWoeid || reader.language != previousLanguage) {
+                            postingData.writeLong(reader.woeid);
+                            postingData.writeShort(reader.language);
+                            postings++;
+                        }
+                        previousKey = reader.key;
+                        previousWoeid = reader.woeid;
+                        previousLanguage = reader.language;
+                        if(reader.next()) {
+                            queue.add(reader);
+                        }
+                    }
+                    keyOffsets.writeInt(keyBytes);
+                    postingOffsets.writeInt(postings);
+                }
+                out.writeInt(keyBytes);
+                Files.copy(sections[0].toPath(), out);
+                out.writeInt(keys + 1);
+                Files.copy(sections[1].toPath(), out);
+                Files.copy(sections[2].toPath(), out);
+                out.writeInt(postings);
+                Files.copy(sections[3].toPath(), out);
+            } finally {
+                for(RunReader reader: readers) {
+                    reader.close();
+                }
+                for(File section: sections) {
+                    if(section != null) {
+                        Files.deleteIfExists(section.toPath());
+                    }
+                }
+            }
+        }
+
+        private static DataOutputStream section(File file) throws IOException {
+            return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        }
+    }
+
+    /**
+     * Reads a run written by {@link TierBuilder#writeRun(DataOutputStream)} one entry at a time.
+     */
+    private static class RunReader implements Closeable {
+        private final DataInputStream in;
+        private int remaining;
+        byte[] key;
+        long woeid;
+        short language;
+
+        RunReader(File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 65536));
+            remaining = in.readInt();
+        }
+
+        /**
+         * @return false if there are no more entries
+         */
+        boolean next() throws IOException {
+            if(remaining == 0) {
+                return false;
+            }
+            remaining--;
+            key = new byte[in.readInt()];
+            in.readFully(key);
+            woeid = in.readLong();
+            language = in.readShort();
+            return true;
+        }
+
+        int compareTo(byte[] otherKey, long otherWoeid, short otherLanguage) {
+            for(int i=0;i<Math.min(key.length, otherKey.length);i++) {
+                int c = (key[i] & 0xff) - (otherKey[i] & 0xff);
+                if(c != 0) {
+                    return c;
+                }
+            }
+            int c = key.length - otherKey.length;
+            if(c == 0) {
+                c = Long.compare(woeid, otherWoeid);
+            }
+            if(c == 0) {
+                c = Short.compare(language, otherLanguage);
+            }
+            return c;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Names of one rank in the order they were added; sorted and deduplicated when written.
+     */
+    private static class TierBuilder {
+        private byte[] keyData = new byte[1 << 16];
+        private int keyBytes = 0;
+        private int[] keyOffsets = new int[1024];
+        private long[] woeids = new long[1024];
+        private short[] languages = new short[1024];
+        private int size = 0;
+
+        void add(byte[] key, long woeid, short language) {
+            if(keyBytes + key.length > keyData.length) {
+                keyData = Arrays.copyOf(keyData, Math.max(keyBytes + key.length, keyData.length * 2));
+            }
+            if(size == woeids.length) {
+                keyOffsets = Arrays.copyOf(keyOffsets, size * 2);
+                woeids = Arrays.copyOf(woeids, size * 2);
+                languages = Arrays.copyOf(languages, size * 2);
+            }
+            System.arraycopy(key, 0, keyData, keyBytes, key.length);
+            keyOffsets[size] = keyBytes;
+            woeids[size] = woeid;
+            languages[size] = language;
+            keyBytes += key.length;
+            size++;
+        }
+
+        private int length(int entry) {
+            return (entry + 1 < size ? keyOffsets[entry + 1] : keyBytes) - keyOffsets[entry];
+        }
+
+        private int compareKeys(int e1, int e2) {
+            int o1 = keyOffsets[e1];
+            int o2 = keyOffsets[e2];
+            int l1 = length(e1);
+            int l2 = length(e2);
+            for(int i=0;i<Math.min(l1, l2);i++) {
+                int c = (keyData[o1 + i] & 0xff) - (keyData[o2 + i] & 0xff);
+                if(c != 0) {
+                    return c;
+                }
+            }
+            return l1 - l2;
+        }
+
+        private int compare(int e1, int e2) {
+            int c = compareKeys(e1, e2);
+            if(c == 0) {
+                c = Long.compare(woeids[e1], woeids[e2]);
+            }
+            if(c == 0) {
+                c = Short.compare(languages[e1], languages[e2]);
+            }
+            return c;
+        }
+
+        /**
+         * @return the entries sorted by key, woeid and language with a bottom up merge sort, which avoids boxing
+         */
+        private int[] sorted() {
+            int[] order = new int[size];
+            for(int i=0;i<size;i++) {
+                order[i] = i;
+            }
+            int[] buffer = new int[size];
+            for(int width=1;width<size;width*=2) {
+                for(int low=0;low<size;low+=2 * width) {
+                    int middle = Math.min(low + width, size);
+                    int high = Math.min(low + 2 * width, size);
+                    int i = low;
+                    int j = middle;
+                    int k = low;
+                    while(i < middle && j < high) {
+                        buffer[k++] = compare(order[i], order[j]) <= 0 ? order[i++] : order[j++];
+                    }
+                    while(i < middle) {
+                        buffer[k++] = order[i++];
+                    }
+                    while(j < high) {
+                        buffer[k++] = order[j++];
+                    }
+                }
+                int[] swap = order;
+                order = buffer;
+                buffer = swap;
+            }
+            return order;
+        }
+
+        /**
+         * Writes the number of distinct entries followed by the entries, sorted by key, woeid and language.
+         */
+        void writeRun(DataOutputStream out) throws IOException {
+            int[] order = sorted();
+            int distinct = 0;
+            for(int i=0;i<size;i++) {
+                if(i == 0 || compare(order[i - 1], order[i]) != 0) {
+                    distinct++;
+                }
+            }
+            out.writeInt(distinct);
+            for(int i=0;i<size;i++) {
+                if(i == 0 || compare(order[i - 1], order[i]) != 0) {
+                    out.writeInt(length(order[i]));
+                    out.write(keyData, keyOffsets[order[i]], length(order[i]));
+                    out.writeLong(woeids[order[i]]);
+                    out.writeShort(languages[order[i]]);
+                }
+            }
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            int[] order = sorted();
+            // count the distinct keys and postings first so the arrays can be written in one go
+            int keys = 0;
+            int postings = 0;
+            int uniqueKeyBytes = 0;
+            for(int i=0;i<size;i++) {
+                if(i == 0 || compareKeys(order[i - 1], order[i]) != 0) {
+                    keys++;
+                    uniqueKeyBytes += length(order[i]);
+                }
+                if(i == 0 || compare(order[i - 1], order[i]) != 0) {
+                    postings++;
+                }
+            }
+            out.writeInt(uniqueKeyBytes);
+            for(int i=0;i<size;i++) {
+                if(i == 0 || compareKeys(order[i - 1], order[i]) != 0) {
+                    out.write(keyData, keyOffsets[order[i]], length(order[i]));
+                }
+            }
+            out.writeInt(keys + 1);
+            int offset = 0;
+            for(int i=0;i<size;i++) {
+                if(i == 0 || compareKeys(order[i - 1], order[i]) != 0) {
+                    out.writeInt(offset);
+                    offset += length(order[i]);
+                }
+            }
+            out.writeInt(offset);
+            int posting = 0;
+            for(int i=0;i<size;i++) {
+                if(i == 0 || compareKeys(order[i - 1], order[i]) != 0) {
+                    out.writeInt(posting);
+                }
+                if(i == 0 || compare(order[i - 1], order[i]) != 0) {
+                    posting++;
+                }
+            }
+            out.writeInt(posting);
+            out.writeInt(postings);
+            for(int i=0;i<size;i++) {
+                if(i == 0 || compare(order[i - 1], order[i]) != 0) {
+                    out.writeLong(woeids[order[i]]);
+                    out.writeShort(languages[order[i]]);
+                }
+            }
+        }
+    }
+}
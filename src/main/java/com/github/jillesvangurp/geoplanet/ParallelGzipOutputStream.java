@@ -0,0 +1,149 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip output stream that compresses blocks of input on a pool of threads, like pigz does. Every block becomes a
+ * separate gzip member; a file with several members is still a valid gzip file that gunzip and GZIPInputStream read
+ * as one stream. Compressed blocks are written in order. Compressing blocks separately costs a little compression
+ * because blocks don't share a dictionary.
+ *
+ * Like any output stream, this is not thread safe. The compressor threads are shared between all instances.
+ */
+class ParallelGzipOutputStream extends OutputStream {
+    static final int DEFAULT_BLOCK_SIZE = 512 * 1024;
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService COMPRESSORS = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "gzip-compressor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final OutputStream out;
+    private final int blockSize;
+    private final int maxPending;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] block;
+    private int count = 0;
+    private long members = 0;
+    private boolean closed = false;
+
+    public ParallelGzipOutputStream(OutputStream out) {
+        this(out, DEFAULT_BLOCK_SIZE, THREADS);
+    }
+
+    /**
+     * @param blockSize uncompressed bytes per gzip member
+     * @param maxPending blocks that may be compressing or waiting to be written; bounds the memory used to
+     *            blockSize * (maxPending + 1) plus the compressed blocks
+     */
+    public ParallelGzipOutputStream(OutputStream out, int blockSize, int maxPending) {
+        this.out = out;
+        this.blockSize = blockSize;
+        this.maxPending = maxPending;
+        block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        block[count++] = (byte) b;
+        if(count == blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while(len > 0) {
+            int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if(count == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] data = block;
+        final int length = count;
+        block = new byte[blockSize];
+        count = 0;
+        members++;
+        pending.add(COMPRESSORS.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                return compress(data, length);
+            }
+        }));
+        while(pending.size() > maxPending) {
+            writeCompressed();
+        }
+    }
+
+    static byte[] compress(byte[] data, int length) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(length / 4 + 64);
+        try(GZIPOutputStream gz = new GZIPOutputStream(bos, 65536)) {
+            gz.write(data, 0, length);
+        }
+        return bos.toByteArray();
+    }
+
+    private void writeCompressed() throws IOException {
+        try {
+            out.write(pending.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Writes the blocks that have been compressed so far. Like {@link GZIPOutputStream#flush()}, this does not force
+     * out data that is still buffered.
+     */
+    @Override
+    public void flush() throws IOException {
+        while(!pending.isEmpty() && pending.peek().isDone()) {
+            writeCompressed();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // an empty stream still gets a member so that it can be read as gzip
+            if(count > 0 || members == 0) {
+                submitBlock();
+            }
+            while(!pending.isEmpty()) {
+                writeCompressed();
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
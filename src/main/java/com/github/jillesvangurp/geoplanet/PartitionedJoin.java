@@ -0,0 +1,256 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.deqoute;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.gzipFileLines;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.readFields;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+
+import com.jillesvangurp.iterables.LineIterable;
+
+/**
+ * Hash partitions the geoplanet and flickr input files by woeid so that each partition can be joined in memory on its
+ * own. The partition files keep the header line of the tsv files, so they can be processed exactly like the original
+ * input files.
+ */
+class PartitionedJoin {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final int partitions;
+    private final File dir;
+
+    public PartitionedJoin(int partitions, File tmpDir) throws IOException {
+        if(partitions < 1) {
+            throw new IllegalArgumentException("need at least one partition");
+        }
+        this.partitions = partitions;
+        dir = new File(tmpDir, "geoplanet-partitions-" + System.currentTimeMillis());
+        if(!dir.mkdirs()) {
+            throw new IOException("could not create " + dir);
+        }
+    }
+
+    /**
+     * @param hierarchy if not null, the parents of all places are added to this
+     * @return the woeids of all places, needed to decide whether adjacencies point to an existing place
+     */
+    public WoeIdSet partitionPlaces(String file, Hierarchy hierarchy) throws IOException {
+        System.out.println("partitioning places");
+        WoeIdSet woeIds = new WoeIdSet();
+        try(LineIterable it=gzipFileLines(file)) {
+            Iterator<String> iterator = it.iterator();
+            String header = iterator.next();
+            int parentColumn = column(header, GeoPlanetConverter.YAHOO_PARENT_ID);
+            BufferedWriter[] writers = openWriters("places", header);
+            try {
+                while(iterator.hasNext()) {
+                    String line = iterator.next();
+                    long woeid = woeid(line, 0);
+                    woeIds.add(woeid);
+                    if(hierarchy != null) {
+                        hierarchy.add(woeid, optionalWoeid(line, parentColumn));
+                    }
+                    write(writers[partition(woeid)], line);
+                }
+            } finally {
+                close(writers);
+            }
+        }
+        System.out.println("partitioned " + woeIds.size() + " places");
+        return woeIds;
+    }
+
+    public void partitionAliases(String file) throws IOException {
+        System.out.println("partitioning aliases");
+        try(LineIterable it=gzipFileLines(file)) {
+            Iterator<String> iterator = it.iterator();
+            String header = iterator.next();
+            int woeidColumn = column(header, "WOE_ID");
+            BufferedWriter[] writers = openWriters("aliases", header);
+            try {
+                while(iterator.hasNext()) {
+                    String line = iterator.next();
+                    write(writers[partition(woeid(line, woeidColumn))], line);
+                }
+            } finally {
+                close(writers);
+            }
+        }
+    }
+
+    /**
+     * Adjacencies end up in the partitions of both places. Adjacencies that refer to places that don't exist are dropped.
+     */
+    public void partitionAdjacencies(String file, WoeIdSet woeIds) throws IOException {
+        System.out.println("partitioning adjacencies");
+        try(LineIterable it=gzipFileLines(file)) {
+            Iterator<String> iterator = it.iterator();
+            String header = iterator.next();
+            int placeColumn = column(header, "Place_WOE_ID");
+            int neighbourColumn = column(header, "Neighbour_WOE_ID");
+            BufferedWriter[] writers = openWriters("adjacencies", header);
+            try {
+                while(iterator.hasNext()) {
+                    String line = iterator.next();
+                    long woeid1 = woeid(line, placeColumn);
+                    long woeid2 = woeid(line, neighbourColumn);
+                    if(woeIds.contains(woeid1) && woeIds.contains(woeid2)) {
+                        int p1 = partition(woeid1);
+                        int p2 = partition(woeid2);
+                        write(writers[p1], line);
+                        if(p2 != p1) {
+                            write(writers[p2], line);
+                        }
+                    }
+                }
+            } finally {
+                close(writers);
+            }
+        }
+    }
+
+    /**
+     * Shapes that cannot be parsed go to the first partition so they get reported during the join like they would be
+     * with the in memory join.
+     *
+     * @param hierarchy places with a shape that has a geometry are marked as having one
+     */
+    public void partitionGeometries(String file, Hierarchy hierarchy) throws IOException {
+        System.out.println("partitioning geometries");
+        try(LineIterable it=gzipFileLines(file)) {
+            BufferedWriter[] writers = openWriters("geometries", null);
+            try {
+                for(String line: it) {
+                    int partition;
+                    try {
+                        long woeid = FlickrShapeLine.woeid(line);
+                        partition = partition(woeid);
+                        // same rule as the join, which only attaches shapes that have a geometry
+                        if(FlickrShapeLine.hasGeometry(line)) {
+                            hierarchy.setHasGeometry(woeid);
+                        }
+                    } catch (RuntimeException e) {
+                        partition = 0;
+                    }
+                    write(writers[partition], line);
+                }
+            } finally {
+                close(writers);
+            }
+        }
+    }
+
+    public String placesPartition(int partition) {
+        return file("places", partition).getPath();
+    }
+
+    public String aliasesPartition(int partition) {
+        return file("aliases", partition).getPath();
+    }
+
+    public String adjacenciesPartition(int partition) {
+        return file("adjacencies", partition).getPath();
+    }
+
+    public String geometriesPartition(int partition) {
+        return file("geometries", partition).getPath();
+    }
+
+    /**
+     * @return the directory with the partition files, which is removed by {@link #delete()}
+     */
+    public File directory() {
+        return dir;
+    }
+
+    public void delete() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private int partition(long woeid) {
+        return (int) (Math.abs(woeid) % partitions);
+    }
+
+    private File file(String what, int partition) {
+        return new File(dir, what + "-" + partition + ".gz");
+    }
+
+    private BufferedWriter[] openWriters(String what, String header) throws IOException {
+        BufferedWriter[] writers = new BufferedWriter[partitions];
+        for(int i=0;i<partitions;i++) {
+            writers[i] = partitionWriter(file(what, i));
+            if(header != null) {
+                write(writers[i], header);
+            }
+        }
+        return writers;
+    }
+
+    /**
+     * Partition files are written with a plain gzip stream and small buffers rather than with
+     * {@link GeoPlanetConverter#gzipFileWriter(String)}, whose buffers and pending blocks would take megabytes per open
+     * file; with many partitions that would cost more heap than the partitioning saves.
+     */
+    private static BufferedWriter partitionWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file), BUFFER_SIZE), UTF8), BUFFER_SIZE);
+    }
+
+    private static void write(BufferedWriter bw, String line) throws IOException {
+        bw.write(line);
+        bw.newLine();
+    }
+
+    private static void close(BufferedWriter[] writers) throws IOException {
+        for(BufferedWriter bw: writers) {
+            if(bw != null) {
+                bw.close();
+            }
+        }
+    }
+
+    private static int column(String header, String name) {
+        return GeoPlanetConverter.column(readFields(Collections.singletonList(header).iterator()), name);
+    }
+
+    /**
+     * @return the woeid in the given column of a tab separated line
+     */
+    static long woeid(String line, int column) {
+        long woeid = optionalWoeid(line, column);
+        if(woeid < 0) {
+            throw new IllegalArgumentException("no woeid in column " + column + " of " + line);
+        }
+        return woeid;
+    }
+
+    /**
+     * @return the woeid in the given column of a tab separated line or -1 if the column is empty
+     */
+    static long optionalWoeid(String line, int column) {
+        int start = 0;
+        for(int i=0;i<column;i++) {
+            start = line.indexOf('\t', start) + 1;
+            if(start == 0) {
+                throw new IllegalArgumentException("no column " + column + " in " + line);
+            }
+        }
+        int end = line.indexOf('\t', start);
+        String value = deqoute(end < 0 ? line.substring(start) : line.substring(start, end));
+        if(StringUtils.isEmpty(value)) {
+            return -1;
+        }
+        return Long.parseLong(value);
+    }
+}
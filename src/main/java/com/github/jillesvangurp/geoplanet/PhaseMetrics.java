@@ -0,0 +1,299 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static com.github.jsonj.tools.JsonBuilder.object;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.jsonj.JsonObject;
+
+/**
+ * Counters for a phase of the conversion: lines processed, bytes read from disk and after decompression, time spent
+ * parsing and merging, items waiting in or being worked on by the concurrent processor, garbage collection, peak heap,
+ * errors and broken references.
+ *
+ * The counters can be updated from any thread. A phase starts when it is created and ends with {@link #finish()}.
+ * While it runs, it prints the number of lines every 100000 lines.
+ */
+public class PhaseMetrics implements PhaseMetricsMBean {
+    private static final long REPORT_INTERVAL = 100000;
+
+    private final String phase;
+    private final long start = System.currentTimeMillis();
+    private final long gcMillisAtStart = gcMillis();
+    private final long gcCountAtStart = gcCount();
+    private final AtomicLong lines = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesDecompressed = new AtomicLong();
+    private final AtomicLong parseNanos = new AtomicLong();
+    private final AtomicLong mergeNanos = new AtomicLong();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong brokenReferences = new AtomicLong();
+    private volatile PhaseSettings settings;
+    private volatile boolean autoTuned = false;
+    private volatile long end = -1;
+    private volatile long gcMillis;
+    private volatile long gcCount;
+    private volatile long peakHeap;
+
+    PhaseMetrics(String phase) {
+        this.phase = phase;
+        GeoPlanetConverter.resetPeakHeapUsage();
+    }
+
+    /**
+     * Records the settings the phase ran with.
+     */
+    void settings(PhaseSettings settings, boolean autoTuned) {
+        this.settings = settings;
+        this.autoTuned = autoTuned;
+    }
+
+    void addLines(long processed) {
+        long total = lines.addAndGet(processed);
+        if(total / REPORT_INTERVAL != (total - processed) / REPORT_INTERVAL) {
+            System.out.println("processed " + total / REPORT_INTERVAL * REPORT_INTERVAL + " " + phase);
+        }
+    }
+
+    void parseTime(long nanos) {
+        parseNanos.addAndGet(nanos);
+    }
+
+    void mergeTime(long nanos) {
+        mergeNanos.addAndGet(nanos);
+    }
+
+    void error(Exception e) {
+        errors.incrementAndGet();
+        e.printStackTrace();
+    }
+
+    void brokenReference() {
+        brokenReferences.incrementAndGet();
+    }
+
+    /**
+     * @return iterable that counts the items the concurrent processor takes and the time it takes to read them; call
+     *         {@link #itemDone()} for each result
+     */
+    <I> Iterable<I> countQueued(final Iterable<I> items) {
+        return new Iterable<I>() {
+            @Override
+            public Iterator<I> iterator() {
+                final Iterator<I> iterator = items.iterator();
+                return new Iterator<I>() {
+                    @Override
+                    public boolean hasNext() {
+                        long start = System.nanoTime();
+                        boolean hasNext = iterator.hasNext();
+                        parseTime(System.nanoTime() - start);
+                        return hasNext;
+                    }
+
+                    @Override
+                    public I next() {
+                        long start = System.nanoTime();
+                        I next = iterator.next();
+                        parseTime(System.nanoTime() - start);
+                        queued.incrementAndGet();
+                        return next;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    void itemDone() {
+        done.incrementAndGet();
+    }
+
+    /**
+     * @return stream that counts the bytes read from the file
+     */
+    InputStream countRead(InputStream in) {
+        return new CountingInputStream(in, bytesRead);
+    }
+
+    /**
+     * @return stream that counts the bytes after decompression
+     */
+    InputStream countDecompressed(InputStream in) {
+        return new CountingInputStream(in, bytesDecompressed);
+    }
+
+    void finish() {
+        if(end < 0) {
+            gcMillis = gcMillis() - gcMillisAtStart;
+            gcCount = gcCount() - gcCountAtStart;
+            peakHeap = GeoPlanetConverter.peakHeapUsage();
+            end = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public String getPhase() {
+        return phase;
+    }
+
+    @Override
+    public boolean isDone() {
+        return end >= 0;
+    }
+
+    @Override
+    public long getMillis() {
+        return (end < 0 ? System.currentTimeMillis() : end) - start;
+    }
+
+    @Override
+    public long getLines() {
+        return lines.get();
+    }
+
+    @Override
+    public long getLinesPerSecond() {
+        long millis = getMillis();
+        return millis == 0 ? 0 : lines.get() * 1000 / millis;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    @Override
+    public long getBytesDecompressed() {
+        return bytesDecompressed.get();
+    }
+
+    @Override
+    public long getParseMillis() {
+        return parseNanos.get() / 1000000;
+    }
+
+    @Override
+    public long getMergeMillis() {
+        return mergeNanos.get() / 1000000;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queued.get() - done.get();
+    }
+
+    @Override
+    public long getGcMillis() {
+        return end < 0 ? gcMillis() - gcMillisAtStart : gcMillis;
+    }
+
+    @Override
+    public long getGcCount() {
+        return end < 0 ? gcCount() - gcCountAtStart : gcCount;
+    }
+
+    @Override
+    public long getPeakHeapBytes() {
+        return end < 0 ? GeoPlanetConverter.peakHeapUsage() : peakHeap;
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public long getBrokenReferences() {
+        return brokenReferences.get();
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = object()
+                .put("phase", phase)
+                .put("done", isDone())
+                .put("millis", getMillis())
+                .put("lines", getLines())
+                .put("linesPerSecond", getLinesPerSecond())
+                .put("bytesRead", getBytesRead())
+                .put("bytesDecompressed", getBytesDecompressed())
+                .put("parseMillis", getParseMillis())
+                .put("mergeMillis", getMergeMillis())
+                .put("gcMillis", getGcMillis())
+                .put("gcCount", getGcCount())
+                .put("peakHeapBytes", getPeakHeapBytes())
+                .put("errors", getErrors())
+                .put("brokenReferences", getBrokenReferences())
+                .get();
+        PhaseSettings used = settings;
+        if(used != null) {
+            json.put("blockSize", used.blockSize());
+            json.put("threads", used.threads());
+            json.put("queueCapacity", used.queueCapacity());
+            json.put("autoTuned", autoTuned);
+        }
+        return json;
+    }
+
+    static long gcMillis() {
+        long millis = 0;
+        for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    static long gcCount() {
+        long count = 0;
+        for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong count;
+
+        CountingInputStream(InputStream in, AtomicLong count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b >= 0) {
+                count.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if(read > 0) {
+                count.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
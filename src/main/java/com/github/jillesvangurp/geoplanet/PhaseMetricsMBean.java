@@ -0,0 +1,42 @@
+package com.github.jillesvangurp.geoplanet;
+
+/**
+ * What {@link PhaseMetrics} exposes over JMX while a phase is running.
+ */
+public interface PhaseMetricsMBean {
+    String getPhase();
+
+    boolean isDone();
+
+    long getMillis();
+
+    long getLines();
+
+    long getLinesPerSecond();
+
+    long getBytesRead();
+
+    long getBytesDecompressed();
+
+    /**
+     * @return time spent reading and parsing the input, summed over threads
+     */
+    long getParseMillis();
+
+    /**
+     * @return time spent adding the parsed input to the store, summed over threads
+     */
+    long getMergeMillis();
+
+    int getQueueDepth();
+
+    long getGcMillis();
+
+    long getGcCount();
+
+    long getPeakHeapBytes();
+
+    long getErrors();
+
+    long getBrokenReferences();
+}
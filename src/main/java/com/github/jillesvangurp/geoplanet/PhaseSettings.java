@@ -0,0 +1,102 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How a phase of the conversion feeds its input to the concurrent processor: the number of items per block, the number
+ * of worker threads and the capacity of the queue. Defaults are derived from the number of available cores. Each value
+ * can be overridden per phase with a system property, e.g. -Dgeoplanet.aliases.threads=4, and
+ * -Dgeoplanet.autoTune=true (or -Dgeoplanet.aliases.autoTune=true) lets the phase pick its own settings by trying a
+ * few variations on the first part of the input.
+ */
+class PhaseSettings {
+    static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    private final String phase;
+    private final int blockSize;
+    private final int threads;
+    private final int queueCapacity;
+    private final boolean autoTune;
+
+    PhaseSettings(String phase, int blockSize, int threads, int queueCapacity, boolean autoTune) {
+        this.phase = phase;
+        this.blockSize = blockSize;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.autoTune = autoTune;
+    }
+
+    /**
+     * Settings for phases that process blocks of tab separated lines; each item is already a big block of lines, so
+     * the processor gets one at a time.
+     */
+    static PhaseSettings forTsvPhase(String phase) {
+        return fromSystemProperties(phase, 1, CORES, CORES * 2);
+    }
+
+    /**
+     * Settings for phases that process single lines.
+     */
+    static PhaseSettings forLinePhase(String phase) {
+        return fromSystemProperties(phase, 10000, CORES, 10000);
+    }
+
+    private static PhaseSettings fromSystemProperties(String phase, int blockSize, int threads, int queueCapacity) {
+        String prefix = "geoplanet." + phase + ".";
+        return new PhaseSettings(phase,
+                Integer.getInteger(prefix + "blockSize", blockSize),
+                Integer.getInteger(prefix + "threads", threads),
+                Integer.getInteger(prefix + "queueCapacity", queueCapacity),
+                Boolean.getBoolean("geoplanet.autoTune") || Boolean.getBoolean(prefix + "autoTune"));
+    }
+
+    /**
+     * @return these settings and variations with more and fewer threads and bigger and smaller blocks
+     */
+    List<PhaseSettings> candidates() {
+        List<PhaseSettings> candidates = new ArrayList<>();
+        candidates.add(this);
+        candidates.add(new PhaseSettings(phase, blockSize, threads * 2, queueCapacity, false));
+        if(threads > 1) {
+            candidates.add(new PhaseSettings(phase, blockSize, Math.max(1, threads / 2), queueCapacity, false));
+        }
+        candidates.add(new PhaseSettings(phase, blockSize * 4, threads, queueCapacity, false));
+        if(blockSize > 1) {
+            candidates.add(new PhaseSettings(phase, Math.max(1, blockSize / 4), threads, queueCapacity, false));
+        }
+        return candidates;
+    }
+
+    /**
+     * @return number of items to try each candidate on; enough to keep all workers busy for a while
+     */
+    int trialItems() {
+        return blockSize * threads * 8;
+    }
+
+    public String phase() {
+        return phase;
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    public int threads() {
+        return threads;
+    }
+
+    public int queueCapacity() {
+        return queueCapacity;
+    }
+
+    public boolean autoTune() {
+        return autoTune;
+    }
+
+    @Override
+    public String toString() {
+        return phase + " blockSize=" + blockSize + " threads=" + threads + " queueCapacity=" + queueCapacity;
+    }
+}
@@ -0,0 +1,784 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.NAME;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.NEIGHBOR_WOEIDS;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.PLACE_TYPE;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.WOE_ID;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.YAHOO_ISO;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.YAHOO_LANGUAGE;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.YAHOO_NAME;
+import static com.github.jillesvangurp.geoplanet.GeoPlanetConverter.YAHOO_PARENT_ID;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+import com.github.jsonj.tools.JsonSerializer;
+
+/**
+ * Column oriented store for the geoplanet places. Each place is a row; the columns are pages of primitive arrays or
+ * byte arrays. This is a lot more compact than a map of JsonObjects: no boxed keys, no map entries, and PlaceType, ISO
+ * and Language are pooled and stored as shorts. Json is only created for a row when it gets serialized.
+ *
+ * Usage is in three stages: first add all the places (concurrently if you like) and call {@link #index()}; after that
+ * names, neighbors and geometries may be added concurrently. Names and neighbors are appended to a log per thread
+ * without any locking; call {@link #merge(int)} to add them to the places, which also removes duplicates.
+ *
+ * Geometries are kept as serialized json in a {@link GeometryArena} and are not part of {@link #toJson(int)}; they are
+ * written as is with {@link #geometryJson(int)} and only parsed when {@link #geometry(int)} is called.
+ */
+class PlaceStore implements WoeIds {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final JsonParser PARSER = new JsonParser();
+
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    // enough pages for Integer.MAX_VALUE rows
+    private static final int MAX_PAGES = 1 << (31 - PAGE_BITS);
+    private static final int NAME_LOG = 0;
+    private static final int NEIGHBOR_LOG = 1;
+
+    private final StringPool isoCodes = new StringPool();
+    private final StringPool languages = new StringPool();
+    private final StringPool placeTypes = new StringPool();
+
+    private final AtomicInteger rows = new AtomicInteger();
+    private volatile int allocatedPages = 0;
+    private final long[][] woeids = new long[MAX_PAGES][];
+    private final long[][] parentIds = new long[MAX_PAGES][];
+    private final short[][] isos = new short[MAX_PAGES][];
+    private final short[][] placeLanguages = new short[MAX_PAGES][];
+    private final short[][] types = new short[MAX_PAGES][];
+    private final byte[][][] names = new byte[MAX_PAGES][][];
+    private final byte[][][] aliases = new byte[MAX_PAGES][][];
+    private final long[][][] neighbors = new long[MAX_PAGES][][];
+    // references into the geometry arena, 0 for none
+    private final long[][] geometries = new long[MAX_PAGES][];
+    private final GeometryArena geometryArena = new GeometryArena();
+
+    // name and neighbor logs of all threads that added any since the last merge
+    private final List<RowLog[]> logs = new ArrayList<>();
+    private volatile ThreadLocal<RowLog[]> threadLogs = newThreadLogs();
+
+    // open addressing woeid -> row index, built by index()
+    private long[] indexKeys;
+    private int[] indexRows;
+    private BitSet replaced;
+
+    private ThreadLocal<RowLog[]> newThreadLogs() {
+        return new ThreadLocal<RowLog[]>() {
+            @Override
+            protected RowLog[] initialValue() {
+                RowLog[] threadLog = { new RowLog(), new RowLog() };
+                synchronized(logs) {
+                    logs.add(threadLog);
+                }
+                return threadLog;
+            }
+        };
+    }
+
+    /**
+     * Adds a row for a place. May be called concurrently but not after {@link #index()}.
+     *
+     * @param parentId -1 if there is no parent
+     */
+    public void addPlace(long woeid, String iso, String name, String language, String placeType, long parentId) {
+        addPlace(woeid, isoCodes.id(iso), name == null ? null : name.getBytes(UTF8), languages.id(language),
+                placeTypes.id(placeType), parentId);
+    }
+
+    /**
+     * Same as {@link #addPlace(long, String, String, String, String, long)} with values that were already pooled with
+     * {@link #isoCodes()}, {@link #languages()} and {@link #placeTypes()} and a utf8 name.
+     */
+    public void addPlace(long woeid, short iso, byte[] name, short language, short placeType, long parentId) {
+        int row = rows.getAndIncrement();
+        int page = row >>> PAGE_BITS;
+        if(page >= allocatedPages) {
+            allocatePages(page);
+        }
+        int i = row & PAGE_MASK;
+        woeids[page][i] = woeid;
+        parentIds[page][i] = parentId;
+        isos[page][i] = iso;
+        placeLanguages[page][i] = language;
+        types[page][i] = placeType;
+        names[page][i] = name;
+    }
+
+    StringPool isoCodes() {
+        return isoCodes;
+    }
+
+    StringPool languages() {
+        return languages;
+    }
+
+    StringPool placeTypes() {
+        return placeTypes;
+    }
+
+    private synchronized void allocatePages(int page) {
+        // the volatile write publishes the new pages to threads that check allocatedPages
+        while(allocatedPages <= page) {
+            int p = allocatedPages;
+            woeids[p] = new long[PAGE_SIZE];
+            parentIds[p] = new long[PAGE_SIZE];
+            isos[p] = new short[PAGE_SIZE];
+            placeLanguages[p] = new short[PAGE_SIZE];
+            types[p] = new short[PAGE_SIZE];
+            names[p] = new byte[PAGE_SIZE][];
+            aliases[p] = new byte[PAGE_SIZE][];
+            neighbors[p] = new long[PAGE_SIZE][];
+            geometries[p] = new long[PAGE_SIZE];
+            allocatedPages = p + 1;
+        }
+    }
+
+    /**
+     * Builds the woeid index. Call this once, after all places have been added. If a woeid was added more than once,
+     * the last row wins.
+     */
+    public void index() {
+        int size = rows.get();
+        // load factor of at most 2/3
+        int capacity = Integer.highestOneBit(Math.max(size + size / 2, 1)) << 1;
+        indexKeys = new long[capacity];
+        indexRows = new int[capacity];
+        Arrays.fill(indexRows, -1);
+        replaced = new BitSet();
+        for(int row=0;row<size;row++) {
+            long woeid = woeid(row);
+            int slot = slot(woeid);
+            if(indexRows[slot] >= 0) {
+                replaced.set(indexRows[slot]);
+            }
+            indexKeys[slot] = woeid;
+            indexRows[slot] = row;
+        }
+    }
+
+    private int slot(long woeid) {
+        int mask = indexKeys.length - 1;
+        int slot = (int) (mix(woeid) & mask);
+        while(indexRows[slot] >= 0 && indexKeys[slot] != woeid) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * @return the row for the woeid or -1 if there is no such place
+     */
+    public int row(long woeid) {
+        if(indexKeys == null) {
+            throw new IllegalStateException("call index() first");
+        }
+        return indexRows[slot(woeid)];
+    }
+
+    @Override
+    public boolean contains(long woeid) {
+        return row(woeid) >= 0;
+    }
+
+    /**
+     * @return number of rows, including any rows for duplicate woeids
+     */
+    public int rows() {
+        return rows.get();
+    }
+
+    public long woeid(int row) {
+        return woeids[row >>> PAGE_BITS][row & PAGE_MASK];
+    }
+
+    /**
+     * @return parent woeid or -1 if the place has no parent
+     */
+    public long parentId(int row) {
+        return parentIds[row >>> PAGE_BITS][row & PAGE_MASK];
+    }
+
+    public String placeType(int row) {
+        return placeTypes.value(types[row >>> PAGE_BITS][row & PAGE_MASK]);
+    }
+
+    /**
+     * Visits the name of the place and its merged alternative names, unless the row was replaced by a later row with
+     * the same woeid.
+     */
+    public void names(int row, NameVisitor visitor) {
+        if(replaced != null && replaced.get(row)) {
+            return;
+        }
+        int page = row >>> PAGE_BITS;
+        int i = row & PAGE_MASK;
+        if(names[page][i] != null) {
+            visitor.visit(languages.value(placeLanguages[page][i]), new String(names[page][i], UTF8));
+        }
+        byte[] entries = aliases[page][i];
+        if(entries != null) {
+            int o = 0;
+            while(o < entries.length) {
+                short languageId = (short) (((entries[o] & 0xff) << 8) | (entries[o + 1] & 0xff));
+                int length = nameLength(entries, o);
+                visitor.visit(languages.value(languageId), new String(entries, o + 5, length, UTF8));
+                o += 5 + length;
+            }
+        }
+    }
+
+    interface NameVisitor {
+        /**
+         * @param language null if the place name has no language
+         */
+        void visit(String language, String name);
+    }
+
+    /**
+     * Adds an alternative name unless the place already has that name for that language. Preferred names go before the
+     * other names for the language.
+     */
+    public void addName(int row, String language, String name, boolean preferred) {
+        if(language == null || name == null) {
+            return;
+        }
+        byte[] nameBytes = name.getBytes(UTF8);
+        addName(row, languages.id(language), nameBytes, 0, nameBytes.length, preferred);
+    }
+
+    /**
+     * Same as {@link #addName(int, String, String, boolean)} with a language that was pooled with {@link #languages()}
+     * and a slice of utf8 bytes for the name.
+     */
+    public void addName(int row, short languageId, byte[] name, int offset, int length, boolean preferred) {
+        if(languageId < 0 || length == 0) {
+            return;
+        }
+        if(length > 0xffff) {
+            throw new IllegalArgumentException("name too long: " + new String(name, offset, length, UTF8));
+        }
+        // entries are: language id (2 bytes), preferred flag (1 byte), name length (2 bytes), utf8 name
+        RowLog log = threadLogs.get()[NAME_LOG];
+        log.begin(row, 5 + length);
+        log.putShort(languageId);
+        log.putByte(preferred ? 1 : 0);
+        log.putShort(length);
+        log.put(name, offset, length);
+    }
+
+    /**
+     * Adds a neighbor; duplicates are removed by {@link #merge(int)}.
+     */
+    public void addNeighbor(int row, long neighborWoeid) {
+        RowLog log = threadLogs.get()[NEIGHBOR_LOG];
+        log.begin(row, 8);
+        log.putLong(neighborWoeid);
+    }
+
+    /**
+     * Adds the names and neighbors that were added since the last merge to the places. Each thread merges the rows of
+     * its own shards, so this needs no locking either. Must not be called while names or neighbors are being added.
+     */
+    public void merge(int threads) {
+        final List<RowLog[]> pending;
+        synchronized(logs) {
+            pending = new ArrayList<>(logs);
+            logs.clear();
+        }
+        // threads that add after this get new logs
+        threadLogs = newThreadLogs();
+        final int[] counts = new int[rows.get()];
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for(int shard=0;shard<RowLog.SHARDS;shard++) {
+                final int s = shard;
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        mergeNeighbors(s, pending, counts);
+                        mergeNames(s, pending, counts);
+                    }
+                }));
+            }
+            for(Future<?> future: futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        for(RowLog[] threadLog: pending) {
+            threadLog[NAME_LOG].clear();
+            threadLog[NEIGHBOR_LOG].clear();
+        }
+    }
+
+    /**
+     * Counts the new neighbors per row, grows the arrays once, fills them and then sorts and deduplicates them.
+     * counts is used for the rows of this shard only; it holds the fill position while filling.
+     */
+    private void mergeNeighbors(int shard, List<RowLog[]> pending, final int[] counts) {
+        for(RowLog[] threadLog: pending) {
+            threadLog[NEIGHBOR_LOG].visit(shard, new RowLog.Visitor() {
+                @Override
+                public void visit(int row, byte[] data, int offset, int length) {
+                    counts[row]++;
+                }
+            });
+        }
+        for(int row=shard;row<counts.length;row+=RowLog.SHARDS) {
+            if(counts[row] > 0) {
+                long[] current = neighbors[row >>> PAGE_BITS][row & PAGE_MASK];
+                int existing = current == null ? 0 : current.length;
+                neighbors[row >>> PAGE_BITS][row & PAGE_MASK] = current == null ? new long[counts[row]] : Arrays.copyOf(current, existing + counts[row]);
+                counts[row] = existing;
+            }
+        }
+        for(RowLog[] threadLog: pending) {
+            threadLog[NEIGHBOR_LOG].visit(shard, new RowLog.Visitor() {
+                @Override
+                public void visit(int row, byte[] data, int offset, int length) {
+                    neighbors[row >>> PAGE_BITS][row & PAGE_MASK][counts[row]++] = RowLog.getLong(data, offset);
+                }
+            });
+        }
+        for(int row=shard;row<counts.length;row+=RowLog.SHARDS) {
+            if(counts[row] > 0) {
+                neighbors[row >>> PAGE_BITS][row & PAGE_MASK] = unique(neighbors[row >>> PAGE_BITS][row & PAGE_MASK]);
+                counts[row] = 0;
+            }
+        }
+    }
+
+    private static long[] unique(long[] values) {
+        Arrays.sort(values);
+        int size = 0;
+        for(int i=0;i<values.length;i++) {
+            if(i == 0 || values[i] != values[i - 1]) {
+                values[size++] = values[i];
+            }
+        }
+        return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Same as {@link #mergeNeighbors(int, List, int[])} but for the name entries, which are counted in bytes.
+     */
+    private void mergeNames(int shard, List<RowLog[]> pending, final int[] counts) {
+        for(RowLog[] threadLog: pending) {
+            threadLog[NAME_LOG].visit(shard, new RowLog.Visitor() {
+                @Override
+                public void visit(int row, byte[] data, int offset, int length) {
+                    counts[row] += length;
+                }
+            });
+        }
+        for(int row=shard;row<counts.length;row+=RowLog.SHARDS) {
+            if(counts[row] > 0) {
+                byte[] current = aliases[row >>> PAGE_BITS][row & PAGE_MASK];
+                int existing = current == null ? 0 : current.length;
+                aliases[row >>> PAGE_BITS][row & PAGE_MASK] = current == null ? new byte[counts[row]] : Arrays.copyOf(current, existing + counts[row]);
+                counts[row] = existing;
+            }
+        }
+        for(RowLog[] threadLog: pending) {
+            threadLog[NAME_LOG].visit(shard, new RowLog.Visitor() {
+                @Override
+                public void visit(int row, byte[] data, int offset, int length) {
+                    System.arraycopy(data, offset, aliases[row >>> PAGE_BITS][row & PAGE_MASK], counts[row], length);
+                    counts[row] += length;
+                }
+            });
+        }
+        for(int row=shard;row<counts.length;row+=RowLog.SHARDS) {
+            if(counts[row] > 0) {
+                aliases[row >>> PAGE_BITS][row & PAGE_MASK] = uniqueNames(aliases[row >>> PAGE_BITS][row & PAGE_MASK]);
+                counts[row] = 0;
+            }
+        }
+    }
+
+    /**
+     * @return the entries without later entries that have the same language and name as an earlier one
+     */
+    static byte[] uniqueNames(final byte[] entries) {
+        int count = 0;
+        for(int o=0;o<entries.length;o+=5 + nameLength(entries, o)) {
+            count++;
+        }
+        Integer[] offsets = new Integer[count];
+        int n = 0;
+        for(int o=0;o<entries.length;o+=5 + nameLength(entries, o)) {
+            offsets[n++] = o;
+        }
+        // sort by language and name; ties stay in order of appearance, so the first one of each run is kept
+        Arrays.sort(offsets, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int c = compareName(entries, o1, o2);
+                return c != 0 ? c : Integer.compare(o1, o2);
+            }
+        });
+        BitSet duplicates = new BitSet(entries.length);
+        int size = entries.length;
+        for(int i=1;i<count;i++) {
+            if(compareName(entries, offsets[i - 1], offsets[i]) == 0) {
+                // offsets[i - 1] is either kept or a duplicate of a kept entry
+                duplicates.set(offsets[i]);
+                size -= 5 + nameLength(entries, offsets[i]);
+            }
+        }
+        if(size == entries.length) {
+            return entries;
+        }
+        byte[] unique = new byte[size];
+        int position = 0;
+        for(int o=0;o<entries.length;o+=5 + nameLength(entries, o)) {
+            if(!duplicates.get(o)) {
+                int length = 5 + nameLength(entries, o);
+                System.arraycopy(entries, o, unique, position, length);
+                position += length;
+            }
+        }
+        return unique;
+    }
+
+    private static int nameLength(byte[] entries, int o) {
+        return ((entries[o + 3] & 0xff) << 8) | (entries[o + 4] & 0xff);
+    }
+
+    /**
+     * Compares language and name of two entries, ignoring the preferred flag.
+     */
+    private static int compareName(byte[] entries, int o1, int o2) {
+        for(int i=0;i<2;i++) {
+            if(entries[o1 + i] != entries[o2 + i]) {
+                return (entries[o1 + i] & 0xff) - (entries[o2 + i] & 0xff);
+            }
+        }
+        int l1 = nameLength(entries, o1);
+        int l2 = nameLength(entries, o2);
+        for(int i=0;i<Math.min(l1, l2);i++) {
+            if(entries[o1 + 5 + i] != entries[o2 + 5 + i]) {
+                return (entries[o1 + 5 + i] & 0xff) - (entries[o2 + 5 + i] & 0xff);
+            }
+        }
+        return l1 - l2;
+    }
+
+    /**
+     * Sets the geometry of the row to a serialized geometry, which is stored as is. May be called concurrently.
+     */
+    public void setGeometry(int row, String geometryJson) {
+        byte[] bytes = geometryJson.getBytes(UTF8);
+        geometries[row >>> PAGE_BITS][row & PAGE_MASK] = geometryArena.add(bytes, 0, bytes.length);
+    }
+
+    public void setGeometry(int row, JsonObject geometry) {
+        setGeometry(row, JsonSerializer.serialize(geometry, false));
+    }
+
+    public boolean hasGeometry(int row) {
+        return geometries[row >>> PAGE_BITS][row & PAGE_MASK] != 0;
+    }
+
+    /**
+     * @return the geometry as it was set, or null if the row has none
+     */
+    public String geometryJson(int row) {
+        long ref = geometries[row >>> PAGE_BITS][row & PAGE_MASK];
+        if(ref == 0) {
+            return null;
+        }
+        return new String(geometryArena.chunk(ref), geometryArena.offset(ref), geometryArena.length(ref), UTF8);
+    }
+
+    /**
+     * @return the parsed geometry, or null if the row has none. Parses the geometry on every call.
+     */
+    public JsonObject geometry(int row) {
+        String json = geometryJson(row);
+        return json == null ? null : PARSER.parse(json).asObject();
+    }
+
+    /**
+     * @return json for the row in the same format as the other converter output, without the geometry, or null if
+     *         the row was replaced by a later row with the same woeid.
+     */
+    public JsonObject toJson(int row) {
+        if(replaced != null && replaced.get(row)) {
+            return null;
+        }
+        int page = row >>> PAGE_BITS;
+        int i = row & PAGE_MASK;
+        JsonObject object = new JsonObject();
+        object.put(WOE_ID, Long.toString(woeids[page][i]));
+        putIfNotNull(object, YAHOO_ISO, isoCodes.value(isos[page][i]));
+        if(names[page][i] != null) {
+            object.put(YAHOO_NAME, new String(names[page][i], UTF8));
+        }
+        putIfNotNull(object, YAHOO_LANGUAGE, languages.value(placeLanguages[page][i]));
+        putIfNotNull(object, PLACE_TYPE, placeTypes.value(types[page][i]));
+        if(parentIds[page][i] >= 0) {
+            object.put(YAHOO_PARENT_ID, Long.toString(parentIds[page][i]));
+        }
+        if(aliases[page][i] != null) {
+            object.put(NAME, namesToJson(aliases[page][i]));
+        }
+        if(neighbors[page][i] != null) {
+            JsonArray array = new JsonArray();
+            for(long woeid: neighbors[page][i]) {
+                array.add(Long.toString(woeid));
+            }
+            object.put(NEIGHBOR_WOEIDS, array);
+        }
+        return object;
+    }
+
+    private JsonObject namesToJson(byte[] entries) {
+        // languages in order of appearance; preferred names in reverse order of appearance at the front
+        LinkedHashMap<Short, ArrayList<String>[]> byLanguage = new LinkedHashMap<>();
+        int o = 0;
+        while(o < entries.length) {
+            short languageId = (short) (((entries[o] & 0xff) << 8) | (entries[o + 1] & 0xff));
+            boolean preferred = entries[o + 2] == 1;
+            int length = ((entries[o + 3] & 0xff) << 8) | (entries[o + 4] & 0xff);
+            String name = new String(entries, o + 5, length, UTF8);
+            ArrayList<String>[] lists = byLanguage.get(languageId);
+            if(lists == null) {
+                @SuppressWarnings("unchecked")
+                ArrayList<String>[] newLists = new ArrayList[] { new ArrayList<String>(), new ArrayList<String>() };
+                lists = newLists;
+                byLanguage.put(languageId, lists);
+            }
+            if(preferred) {
+                lists[0].add(0, name);
+            } else {
+                lists[1].add(name);
+            }
+            o += 5 + length;
+        }
+        JsonObject result = new JsonObject();
+        for(Entry<Short, ArrayList<String>[]> entry: byLanguage.entrySet()) {
+            JsonArray array = new JsonArray();
+            for(ArrayList<String> list: entry.getValue()) {
+                for(String name: list) {
+                    array.add(name);
+                }
+            }
+            result.put(languages.value(entry.getKey()), array);
+        }
+        return result;
+    }
+
+    private static void putIfNotNull(JsonObject object, String key, String value) {
+        if(value != null) {
+            object.put(key, value);
+        }
+    }
+
+    /**
+     * Writes the places and the pooled values, but not the names, neighbors and geometries. Read back with
+     * {@link #readPlaces(DataInput)}.
+     */
+    public void writePlaces(DataOutput out) throws IOException {
+        writePool(out, isoCodes);
+        writePool(out, languages);
+        writePool(out, placeTypes);
+        int size = rows.get();
+        out.writeInt(size);
+        for(int row=0;row<size;row++) {
+            int page = row >>> PAGE_BITS;
+            int i = row & PAGE_MASK;
+            out.writeLong(woeids[page][i]);
+            out.writeLong(parentIds[page][i]);
+            out.writeShort(isos[page][i]);
+            out.writeShort(placeLanguages[page][i]);
+            out.writeShort(types[page][i]);
+            writeBytes(out, names[page][i]);
+        }
+    }
+
+    /**
+     * Adds the places written by {@link #writePlaces(DataOutput)} to an empty store and indexes them.
+     */
+    public void readPlaces(DataInput in) throws IOException {
+        if(rows.get() > 0) {
+            throw new IllegalStateException("store is not empty");
+        }
+        readPool(in, isoCodes);
+        readPool(in, languages);
+        readPool(in, placeTypes);
+        int size = in.readInt();
+        for(int row=0;row<size;row++) {
+            long woeid = in.readLong();
+            long parentId = in.readLong();
+            short iso = in.readShort();
+            short language = in.readShort();
+            short placeType = in.readShort();
+            addPlace(woeid, iso, readBytes(in), language, placeType, parentId);
+        }
+        index();
+    }
+
+    /**
+     * Writes the merged names of all places. Languages are pooled with the place languages, so the pool is written as
+     * well.
+     */
+    public void writeNames(DataOutput out) throws IOException {
+        writePool(out, languages);
+        int size = rows.get();
+        out.writeInt(size);
+        for(int row=0;row<size;row++) {
+            writeBytes(out, aliases[row >>> PAGE_BITS][row & PAGE_MASK]);
+        }
+    }
+
+    /**
+     * Replaces the names with those written by {@link #writeNames(DataOutput)} for a store with the same places.
+     */
+    public void readNames(DataInput in) throws IOException {
+        readPool(in, languages);
+        int size = readRows(in);
+        for(int row=0;row<size;row++) {
+            aliases[row >>> PAGE_BITS][row & PAGE_MASK] = readBytes(in);
+        }
+    }
+
+    public void writeNeighbors(DataOutput out) throws IOException {
+        int size = rows.get();
+        out.writeInt(size);
+        for(int row=0;row<size;row++) {
+            long[] neighborWoeids = neighbors[row >>> PAGE_BITS][row & PAGE_MASK];
+            out.writeInt(neighborWoeids == null ? -1 : neighborWoeids.length);
+            if(neighborWoeids != null) {
+                for(long woeid: neighborWoeids) {
+                    out.writeLong(woeid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the neighbors with those written by {@link #writeNeighbors(DataOutput)} for a store with the same
+     * places.
+     */
+    public void readNeighbors(DataInput in) throws IOException {
+        int size = readRows(in);
+        for(int row=0;row<size;row++) {
+            int length = in.readInt();
+            long[] neighborWoeids = null;
+            if(length >= 0) {
+                neighborWoeids = new long[length];
+                for(int j=0;j<length;j++) {
+                    neighborWoeids[j] = in.readLong();
+                }
+            }
+            neighbors[row >>> PAGE_BITS][row & PAGE_MASK] = neighborWoeids;
+        }
+    }
+
+    private int readRows(DataInput in) throws IOException {
+        int size = in.readInt();
+        if(size != rows.get()) {
+            throw new IOException("expected " + rows.get() + " rows but got " + size);
+        }
+        return size;
+    }
+
+    private static void writePool(DataOutput out, StringPool pool) throws IOException {
+        int size = pool.size();
+        out.writeInt(size);
+        for(short id=0;id<size;id++) {
+            out.writeUTF(pool.value(id));
+        }
+    }
+
+    /**
+     * Adds the values in the same order so they get the same ids; values that are already there must have the same id.
+     */
+    private static void readPool(DataInput in, StringPool pool) throws IOException {
+        int size = in.readInt();
+        for(int id=0;id<size;id++) {
+            String value = in.readUTF();
+            if(pool.id(value) != id) {
+                throw new IOException("pooled value " + value + " does not have id " + id);
+            }
+        }
+    }
+
+    private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        out.writeInt(bytes == null ? -1 : bytes.length);
+        if(bytes != null) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        int length = in.readInt();
+        if(length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return rough estimate of the heap used by the rows, assuming compressed object references
+     */
+    public long estimateBytes() {
+        int size = rows.get();
+        long bytes = (long) PAGE_SIZE * allocatedPages * (8 + 8 + 2 + 2 + 2 + 3 * 4 + 8) + geometryArena.bytes();
+        for(int row=0;row<size;row++) {
+            int page = row >>> PAGE_BITS;
+            int i = row & PAGE_MASK;
+            bytes += arrayBytes(names[page][i], 1);
+            bytes += arrayBytes(aliases[page][i], 1);
+            bytes += arrayBytes(neighbors[page][i], 8);
+        }
+        if(indexKeys != null) {
+            bytes += indexKeys.length * 12L;
+        }
+        return bytes;
+    }
+
+    private static long arrayBytes(Object array, int elementSize) {
+        if(array == null) {
+            return 0;
+        }
+        int length = array instanceof byte[] ? ((byte[]) array).length : ((long[]) array).length;
+        // 16 byte header, padded to 8 bytes
+        return (16 + (long) length * elementSize + 7) & ~7L;
+    }
+}
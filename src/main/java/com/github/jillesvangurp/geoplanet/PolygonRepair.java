@@ -0,0 +1,399 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jillesvangurp.geo.GeoGeometry;
+
+/**
+ * Repairs self intersecting rings.
+ *
+ * The hull strategy replaces the ring with its convex hull. That is cheap and always works but loses a lot of detail.
+ * The split strategy cuts the ring at the points where it intersects itself and returns the resulting simple loops as
+ * separate polygons. Splitting is only attempted for rings within the vertex budget and is abandoned when it takes
+ * longer than the time budget or produces something that still isn't valid; the convex hull is used in those cases.
+ */
+class PolygonRepair {
+    public enum Strategy {
+        HULL, SPLIT
+    }
+
+    private final Strategy strategy;
+    private final int maxVertices;
+    private final long maxNanos;
+
+    /**
+     * @param maxVertices rings with more vertices than this are not split
+     * @param maxMillis splitting a single ring is abandoned after this
+     */
+    public PolygonRepair(Strategy strategy, int maxVertices, long maxMillis) {
+        this.strategy = strategy;
+        this.maxVertices = maxVertices;
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    }
+
+    /**
+     * @param ring a self intersecting ring; the last point is the same as the first
+     * @return one or more valid rings
+     */
+    public List<double[][]> repair(double[][] ring, Stats stats) {
+        long start = System.nanoTime();
+        if(strategy == Strategy.SPLIT) {
+            if(ring.length <= maxVertices) {
+                List<double[][]> loops = split(ring, start + maxNanos);
+                if(loops != null) {
+                    stats.split.record(start);
+                    return loops;
+                }
+            }
+            List<double[][]> hull = hull(ring);
+            stats.fallback.record(start);
+            return hull;
+        } else {
+            List<double[][]> hull = hull(ring);
+            stats.hull.record(start);
+            return hull;
+        }
+    }
+
+    static List<double[][]> hull(double[][] ring) {
+        double[][] hull = GeoGeometry.polygonForPoints(ring);
+        if(!Arrays.equals(hull[0], hull[hull.length - 1])) {
+            hull = Arrays.copyOf(hull, hull.length + 1);
+            hull[hull.length - 1] = hull[0];
+        }
+        return Collections.singletonList(hull);
+    }
+
+    /**
+     * @return the simple loops that make up the ring or null if the ring could not be split within the deadline
+     */
+    static List<double[][]> split(double[][] ring, long deadline) {
+        int edges = ring.length - 1;
+        List<List<Insertion>> insertions = new ArrayList<>(edges);
+        for(int i=0;i<edges;i++) {
+            insertions.add(new ArrayList<Insertion>(0));
+        }
+        if(!findIntersections(ring, insertions, deadline)) {
+            return null;
+        }
+
+        // the ring with all the intersection points added as vertices
+        List<Point> vertices = new ArrayList<>();
+        for(int i=0;i<edges;i++) {
+            addVertex(vertices, new Point(ring[i][0], ring[i][1]));
+            List<Insertion> onEdge = insertions.get(i);
+            Collections.sort(onEdge);
+            for(Insertion insertion: onEdge) {
+                addVertex(vertices, insertion.point);
+            }
+        }
+        if(vertices.size() > 1 && vertices.get(vertices.size() - 1).equals(vertices.get(0))) {
+            vertices.remove(vertices.size() - 1);
+        }
+
+        // walk the ring and cut off a loop whenever we get back to a point we've already seen
+        List<double[][]> loops = new ArrayList<>();
+        List<Point> path = new ArrayList<>();
+        Map<Point, Integer> positions = new HashMap<>();
+        for(int i=0;i<=vertices.size();i++) {
+            Point point = vertices.get(i % vertices.size());
+            Integer position = positions.get(point);
+            if(position == null) {
+                positions.put(point, path.size());
+                path.add(point);
+            } else {
+                List<Point> loop = path.subList(position, path.size());
+                if(loop.size() >= 3) {
+                    double[][] closed = toRing(loop);
+                    if(area(closed) != 0) {
+                        loops.add(closed);
+                    }
+                }
+                for(Point removed: path.subList(position + 1, path.size())) {
+                    positions.remove(removed);
+                }
+                loop.subList(1, loop.size()).clear();
+            }
+            if(System.nanoTime() > deadline) {
+                return null;
+            }
+        }
+        if(loops.isEmpty()) {
+            return null;
+        }
+        SelfIntersectionDetector detector = SelfIntersectionDetector.get();
+        for(double[][] loop: loops) {
+            if(detector.selfIntersects(loop)) {
+                return null;
+            }
+        }
+        return removeNested(loops);
+    }
+
+    private static void addVertex(List<Point> vertices, Point point) {
+        // skip zero length edges
+        if(vertices.isEmpty() || !vertices.get(vertices.size() - 1).equals(point)) {
+            vertices.add(point);
+        }
+    }
+
+    /**
+     * Adds the intersection points of non adjacent edges to both edges.
+     *
+     * @return false if the deadline passed or edges overlap, which we don't know how to split
+     */
+    private static boolean findIntersections(double[][] ring, List<List<Insertion>> insertions, long deadline) {
+        int edges = ring.length - 1;
+        Integer[] order = new Integer[edges];
+        final double[] minX = new double[edges];
+        for(int i=0;i<edges;i++) {
+            order[i] = i;
+            minX[i] = Math.min(ring[i][0], ring[i + 1][0]);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(minX[o1], minX[o2]);
+            }
+        });
+        List<Integer> active = new ArrayList<>();
+        int checks = 0;
+        for(int e: order) {
+            for(int a=active.size() - 1;a>=0;a--) {
+                int f = active.get(a);
+                if(Math.max(ring[f][0], ring[f + 1][0]) < minX[e]) {
+                    active.remove(a);
+                    continue;
+                }
+                int low = Math.min(e, f);
+                int high = Math.max(e, f);
+                if(high == low + 1 || low == 0 && high == edges - 1) {
+                    // adjacent edges share a point; doubling back over each other is caught when validating the loops
+                    continue;
+                }
+                if(!intersect(ring, low, high, insertions)) {
+                    return false;
+                }
+                if(++checks % 1024 == 0 && System.nanoTime() > deadline) {
+                    return false;
+                }
+            }
+            active.add(e);
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the edges overlap
+     */
+    private static boolean intersect(double[][] ring, int e, int f, List<List<Insertion>> insertions) {
+        double[] p1 = ring[e];
+        double[] p2 = ring[e + 1];
+        double[] p3 = ring[f];
+        double[] p4 = ring[f + 1];
+        double d1x = p2[0] - p1[0];
+        double d1y = p2[1] - p1[1];
+        double d2x = p4[0] - p3[0];
+        double d2y = p4[1] - p3[1];
+        double denominator = d1x * d2y - d1y * d2x;
+        double ox = p3[0] - p1[0];
+        double oy = p3[1] - p1[1];
+        if(denominator == 0) {
+            // parallel; only a problem if they are on the same line and overlap
+            if(ox * d1y - oy * d1x != 0) {
+                return true;
+            }
+            double length = d1x * d1x + d1y * d1y;
+            double s3 = (ox * d1x + oy * d1y) / length;
+            double s4 = ((p4[0] - p1[0]) * d1x + (p4[1] - p1[1]) * d1y) / length;
+            // touching end points are fine
+            return Math.max(s3, s4) <= 0 || Math.min(s3, s4) >= 1;
+        }
+        double t = (ox * d2y - oy * d2x) / denominator;
+        double u = (ox * d1y - oy * d1x) / denominator;
+        if(t < 0 || t > 1 || u < 0 || u > 1) {
+            return true;
+        }
+        Point point;
+        if(t == 0) {
+            point = new Point(p1[0], p1[1]);
+        } else if(t == 1) {
+            point = new Point(p2[0], p2[1]);
+        } else if(u == 0) {
+            point = new Point(p3[0], p3[1]);
+        } else if(u == 1) {
+            point = new Point(p4[0], p4[1]);
+        } else {
+            point = new Point(p1[0] + t * d1x, p1[1] + t * d1y);
+        }
+        if(t > 0 && t < 1) {
+            insertions.get(e).add(new Insertion(t, point));
+        }
+        if(u > 0 && u < 1) {
+            insertions.get(f).add(new Insertion(u, point));
+        }
+        return true;
+    }
+
+    /**
+     * A loop can end up inside another loop when the ring winds around. It adds nothing to the area then.
+     */
+    private static List<double[][]> removeNested(List<double[][]> loops) {
+        if(loops.size() == 1) {
+            return loops;
+        }
+        List<double[][]> result = new ArrayList<>();
+        for(int i=0;i<loops.size();i++) {
+            boolean nested = false;
+            for(int j=0;j<loops.size() && !nested;j++) {
+                if(i != j && inside(loops.get(i), loops.get(j))) {
+                    nested = true;
+                }
+            }
+            if(!nested) {
+                result.add(loops.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if a point of the inner loop that is not on the outer loop lies within the outer loop
+     */
+    private static boolean inside(double[][] inner, double[][] outer) {
+        for(double[] point: inner) {
+            boolean onOuter = false;
+            for(double[] other: outer) {
+                if(Arrays.equals(point, other)) {
+                    onOuter = true;
+                    break;
+                }
+            }
+            if(!onOuter) {
+                return contains(outer, point[0], point[1]);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Even odd rule point in polygon test.
+     */
+    static boolean contains(double[][] ring, double x, double y) {
+        boolean inside = false;
+        for(int i=0, j=ring.length - 1;i<ring.length;j=i++) {
+            if((ring[i][1] > y) != (ring[j][1] > y)
+                    && x < (ring[j][0] - ring[i][0]) * (y - ring[i][1]) / (ring[j][1] - ring[i][1]) + ring[i][0]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    static double area(double[][] ring) {
+        double sum = 0;
+        for(int i=0;i<ring.length - 1;i++) {
+            sum += ring[i][0] * ring[i + 1][1] - ring[i + 1][0] * ring[i][1];
+        }
+        return sum / 2;
+    }
+
+    private static double[][] toRing(List<Point> points) {
+        double[][] ring = new double[points.size() + 1][];
+        for(int i=0;i<points.size();i++) {
+            ring[i] = new double[] { points.get(i).x, points.get(i).y };
+        }
+        ring[points.size()] = ring[0];
+        return ring;
+    }
+
+    private static final class Point {
+        private final double x;
+        private final double y;
+
+        Point(double x, double y) {
+            // +0.0 turns -0.0 into 0.0 so equal points have equal hash codes
+            this.x = x + 0.0;
+            this.y = y + 0.0;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Point)) {
+                return false;
+            }
+            Point other = (Point) obj;
+            return x == other.x && y == other.y;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = Double.doubleToLongBits(x) * 31 + Double.doubleToLongBits(y);
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private static final class Insertion implements Comparable<Insertion> {
+        private final double position;
+        private final Point point;
+
+        Insertion(double position, Point point) {
+            this.position = position;
+            this.point = point;
+        }
+
+        @Override
+        public int compareTo(Insertion o) {
+            return Double.compare(position, o.position);
+        }
+    }
+
+    /**
+     * Counts and time spent per repair strategy. Safe for concurrent use.
+     */
+    public static class Stats {
+        final Counter checked = new Counter();
+        final Counter hull = new Counter();
+        final Counter split = new Counter();
+        final Counter fallback = new Counter();
+
+        /**
+         * Records the time spent on checking a ring for self intersections.
+         */
+        public void checked(long startNanos) {
+            checked.record(startNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "checked " + checked + "; convex hull " + hull + "; split " + split + "; convex hull fallback " + fallback;
+        }
+    }
+
+    static class Counter {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+
+        void record(long startNanos) {
+            count.incrementAndGet();
+            nanos.addAndGet(System.nanoTime() - startNanos);
+        }
+
+        public long count() {
+            return count.get();
+        }
+
+        @Override
+        public String toString() {
+            return count.get() + " rings in " + TimeUnit.NANOSECONDS.toMillis(nanos.get()) + "ms";
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the wrapped stream ahead on a separate thread, so that e.g. gzip decompression happens while the consumer is
+ * busy with the previous chunk. At most a fixed number of chunks is buffered.
+ */
+class ReadAheadInputStream extends InputStream {
+    static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<byte[]> chunks;
+    private final Thread reader;
+    private volatile IOException failure;
+    private byte[] current = new byte[0];
+    private int position = 0;
+    private boolean ended = false;
+
+    public ReadAheadInputStream(InputStream in) {
+        this(in, DEFAULT_CHUNK_SIZE, 4);
+    }
+
+    /**
+     * @param chunkSize bytes per chunk
+     * @param maxChunks chunks that may be read ahead
+     */
+    public ReadAheadInputStream(final InputStream in, final int chunkSize, int maxChunks) {
+        chunks = new ArrayBlockingQueue<>(maxChunks);
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean closed = false;
+                try {
+                    while(true) {
+                        byte[] chunk = new byte[chunkSize];
+                        int length = fill(in, chunk);
+                        if(length > 0) {
+                            chunks.put(length == chunkSize ? chunk : Arrays.copyOf(chunk, length));
+                        }
+                        if(length < chunkSize) {
+                            break;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // closed before everything was read
+                    closed = true;
+                } catch (Throwable e) {
+                    // runtime exceptions and errors too; the consumer has to get the END either way
+                    failure = e instanceof IOException ? (IOException) e : new IOException("read ahead failed", e);
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        if(failure == null) {
+                            failure = e;
+                        }
+                    }
+                    if(!closed) {
+                        try {
+                            chunks.put(END);
+                        } catch (InterruptedException e) {
+                            // closed while waiting for room for the END
+                        }
+                    }
+                }
+            }
+        }, "read-ahead");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private static int fill(InputStream in, byte[] chunk) throws IOException {
+        int length = 0;
+        int read;
+        while(length < chunk.length && (read = in.read(chunk, length, chunk.length - length)) >= 0) {
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * @return false at the end of the stream
+     */
+    private boolean next() throws IOException {
+        if(position < current.length) {
+            return true;
+        }
+        if(ended) {
+            return false;
+        }
+        try {
+            current = chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading", e);
+        }
+        position = 0;
+        if(current == END) {
+            ended = true;
+            if(failure != null) {
+                throw failure;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return next() ? current[position++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) {
+            return 0;
+        }
+        if(!next()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+    @Override
+    public void close() {
+        ended = true;
+        current = END;
+        position = 0;
+        reader.interrupt();
+    }
+}
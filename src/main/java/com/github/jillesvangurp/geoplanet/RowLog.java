@@ -0,0 +1,122 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.util.ArrayList;
+
+/**
+ * Append only log of records for rows, written by a single thread. The records are kept in shards by row, so all
+ * records for the rows of a shard can later be read by one thread, which can then update those rows without locking.
+ *
+ * A record is the row, the length of the payload and the payload. Write a record with {@link #begin(int, int)}
+ * followed by puts for exactly the announced number of bytes.
+ */
+class RowLog {
+    static final int SHARDS = 64;
+    private static final int FIRST_CHUNK = 4096;
+    private static final int MAX_CHUNK = 1 << 20;
+
+    private final Shard[] shards = new Shard[SHARDS];
+    private Shard current;
+
+    RowLog() {
+        for(int i=0;i<SHARDS;i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    static int shard(int row) {
+        return row & (SHARDS - 1);
+    }
+
+    public void begin(int row, int payloadLength) {
+        current = shards[shard(row)];
+        current.reserve(8 + payloadLength);
+        putInt(row);
+        putInt(payloadLength);
+    }
+
+    public void putByte(int value) {
+        current.chunk[current.position++] = (byte) value;
+    }
+
+    public void putShort(int value) {
+        putByte(value >>> 8);
+        putByte(value);
+    }
+
+    public void putInt(int value) {
+        putShort(value >>> 16);
+        putShort(value);
+    }
+
+    public void putLong(long value) {
+        putInt((int) (value >>> 32));
+        putInt((int) value);
+    }
+
+    public void put(byte[] data, int offset, int length) {
+        System.arraycopy(data, offset, current.chunk, current.position, length);
+        current.position += length;
+    }
+
+    static int getInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16) | ((data[offset + 2] & 0xff) << 8)
+                | (data[offset + 3] & 0xff);
+    }
+
+    static long getLong(byte[] data, int offset) {
+        return ((long) getInt(data, offset) << 32) | (getInt(data, offset + 4) & 0xffffffffL);
+    }
+
+    /**
+     * Calls the visitor for every record of the shard, in the order they were written.
+     */
+    public void visit(int shard, Visitor visitor) {
+        Shard s = shards[shard];
+        for(int c=0;c<s.chunks.size();c++) {
+            byte[] chunk = s.chunks.get(c);
+            int end = c == s.chunks.size() - 1 ? s.position : s.lengths.get(c);
+            int o = 0;
+            while(o < end) {
+                int row = getInt(chunk, o);
+                int length = getInt(chunk, o + 4);
+                visitor.visit(row, chunk, o + 8, length);
+                o += 8 + length;
+            }
+        }
+    }
+
+    /**
+     * Drops all records.
+     */
+    public void clear() {
+        for(int i=0;i<SHARDS;i++) {
+            shards[i] = new Shard();
+        }
+        current = null;
+    }
+
+    interface Visitor {
+        void visit(int row, byte[] data, int offset, int length);
+    }
+
+    private static final class Shard {
+        private final ArrayList<byte[]> chunks = new ArrayList<>();
+        // lengths of the chunks before the current one
+        private final ArrayList<Integer> lengths = new ArrayList<>();
+        private byte[] chunk;
+        private int position;
+
+        void reserve(int bytes) {
+            if(chunk == null || position + bytes > chunk.length) {
+                if(chunk != null) {
+                    lengths.add(position);
+                }
+                // chunks grow so that logs of rarely used shards stay small
+                int size = chunk == null ? FIRST_CHUNK : Math.min(chunk.length * 2, MAX_CHUNK);
+                chunk = new byte[Math.max(size, bytes)];
+                chunks.add(chunk);
+                position = 0;
+            }
+        }
+    }
+}
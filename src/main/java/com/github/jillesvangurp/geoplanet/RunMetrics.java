@@ -0,0 +1,170 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static com.github.jsonj.tools.JsonBuilder.object;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonSerializer;
+
+/**
+ * The {@link PhaseMetrics} of a run of the converter. After {@link #register()}, the run and each of its phases can be
+ * watched with jconsole or any other JMX client under com.github.jillesvangurp.geoplanet; {@link #writeReport(String)}
+ * writes all of it as json at the end.
+ */
+public class RunMetrics implements RunMetricsMBean {
+    static final String DOMAIN = "com.github.jillesvangurp.geoplanet";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final long start = System.currentTimeMillis();
+    private final long gcMillisAtStart = PhaseMetrics.gcMillis();
+    private final List<PhaseMetrics> phases = new ArrayList<>();
+    private final List<ObjectName> registered = new ArrayList<>();
+    private boolean jmx = false;
+
+    /**
+     * Registers the run and the phases that are started from now on with the platform MBean server.
+     */
+    public synchronized void register() {
+        jmx = true;
+        register(this, DOMAIN + ":type=RunMetrics");
+        for(int i=0;i<phases.size();i++) {
+            register(phases.get(i), phaseName(phases.get(i), i));
+        }
+    }
+
+    public synchronized void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for(ObjectName name: registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                // already gone
+            }
+        }
+        registered.clear();
+        jmx = false;
+    }
+
+    /**
+     * Starts a phase; the previous phase is finished if it wasn't already.
+     */
+    public synchronized PhaseMetrics phase(String name) {
+        if(phases.size() > 0) {
+            phases.get(phases.size() - 1).finish();
+        }
+        PhaseMetrics phase = new PhaseMetrics(name);
+        phases.add(phase);
+        if(jmx) {
+            register(phase, phaseName(phase, phases.size() - 1));
+        }
+        return phase;
+    }
+
+    public synchronized List<PhaseMetrics> phases() {
+        return new ArrayList<>(phases);
+    }
+
+    @Override
+    public synchronized String getCurrentPhase() {
+        if(phases.isEmpty()) {
+            return null;
+        }
+        PhaseMetrics last = phases.get(phases.size() - 1);
+        return last.isDone() ? null : last.getPhase();
+    }
+
+    @Override
+    public synchronized int getPhases() {
+        return phases.size();
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return System.currentTimeMillis() - start;
+    }
+
+    @Override
+    public long getGcMillis() {
+        return PhaseMetrics.gcMillis() - gcMillisAtStart;
+    }
+
+    /**
+     * @return the highest peak heap of the phases; each phase resets the peak when it starts
+     */
+    @Override
+    public synchronized long getPeakHeapBytes() {
+        long peak = 0;
+        for(PhaseMetrics phase: phases) {
+            peak = Math.max(peak, phase.getPeakHeapBytes());
+        }
+        return peak;
+    }
+
+    @Override
+    public synchronized long getErrors() {
+        long errors = 0;
+        for(PhaseMetrics phase: phases) {
+            errors += phase.getErrors();
+        }
+        return errors;
+    }
+
+    @Override
+    public String getReport() {
+        return JsonSerializer.serialize(toJson(), false);
+    }
+
+    public synchronized JsonObject toJson() {
+        JsonArray phaseReports = new JsonArray();
+        for(PhaseMetrics phase: phases) {
+            phaseReports.add(phase.toJson());
+        }
+        return object()
+                .put("elapsedMillis", getElapsedMillis())
+                .put("gcMillis", getGcMillis())
+                .put("peakHeapBytes", getPeakHeapBytes())
+                .put("errors", getErrors())
+                .put("processors", Runtime.getRuntime().availableProcessors())
+                .put("maxHeapBytes", Runtime.getRuntime().maxMemory())
+                .put("phases", phaseReports)
+                .get();
+    }
+
+    public void writeReport(String file) throws IOException {
+        try(BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8))) {
+            JsonSerializer.write(bw, toJson(), true);
+            bw.newLine();
+        }
+    }
+
+    private static String phaseName(PhaseMetrics phase, int index) {
+        return DOMAIN + ":type=Phase,name=" + index + "-" + phase.getPhase();
+    }
+
+    private void register(Object bean, String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if(server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(bean, objectName);
+            registered.add(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
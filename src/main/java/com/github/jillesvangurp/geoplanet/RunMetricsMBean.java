@@ -0,0 +1,23 @@
+package com.github.jillesvangurp.geoplanet;
+
+/**
+ * What {@link RunMetrics} exposes over JMX while the converter is running.
+ */
+public interface RunMetricsMBean {
+    String getCurrentPhase();
+
+    int getPhases();
+
+    long getElapsedMillis();
+
+    long getGcMillis();
+
+    long getPeakHeapBytes();
+
+    long getErrors();
+
+    /**
+     * @return the report as it would be written now
+     */
+    String getReport();
+}
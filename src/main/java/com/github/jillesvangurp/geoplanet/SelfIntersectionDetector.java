@@ -0,0 +1,241 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.util.Arrays;
+
+import com.github.jsonj.JsonArray;
+
+/**
+ * Detects self intersecting rings. Works on primitive coordinate arrays that are reused between calls, so checking a
+ * ring does not allocate anything once the buffers are big enough. Not thread safe; use {@link #get()} to get an
+ * instance for the current thread.
+ *
+ * A ring is self intersecting if it has a repeated vertex or if two of its edges intersect. The latter is checked with
+ * a sweep over the edges sorted by their smallest x coordinate, which only compares edges whose x ranges overlap.
+ */
+class SelfIntersectionDetector {
+    private static final ThreadLocal<SelfIntersectionDetector> PER_THREAD = new ThreadLocal<SelfIntersectionDetector>() {
+        @Override
+        protected SelfIntersectionDetector initialValue() {
+            return new SelfIntersectionDetector();
+        }
+    };
+
+    private double[] xs = new double[1024];
+    private double[] ys = new double[1024];
+    private int n = 0;
+    // open addressing set of vertex index + 1
+    private int[] vertexTable = new int[2048];
+    private int[] edgeOrder = new int[1024];
+    private int[] activeEdges = new int[1024];
+
+    /**
+     * @return detector for the current thread
+     */
+    public static SelfIntersectionDetector get() {
+        return PER_THREAD.get();
+    }
+
+    /**
+     * @param ring geojson ring of [x,y] points; the last point should be the same as the first
+     * @return true if the ring self intersects
+     */
+    public boolean selfIntersects(JsonArray ring) {
+        ensureCapacity(ring.size());
+        n = ring.size();
+        for(int i=0;i<n;i++) {
+            JsonArray point = ring.get(i).asArray();
+            xs[i] = point.get(0).asDouble();
+            ys[i] = point.get(1).asDouble();
+        }
+        return hasRepeatedVertex() || hasIntersectingEdges();
+    }
+
+    /**
+     * @param ring ring of [x,y] points; the last point should be the same as the first
+     * @return true if the ring self intersects
+     */
+    public boolean selfIntersects(double[][] ring) {
+        ensureCapacity(ring.length);
+        n = ring.length;
+        for(int i=0;i<n;i++) {
+            xs[i] = ring[i][0];
+            ys[i] = ring[i][1];
+        }
+        return hasRepeatedVertex() || hasIntersectingEdges();
+    }
+
+    private void ensureCapacity(int points) {
+        if(points > xs.length) {
+            int capacity = Integer.highestOneBit(points) << 1;
+            xs = new double[capacity];
+            ys = new double[capacity];
+            vertexTable = new int[capacity * 2];
+            edgeOrder = new int[capacity];
+            activeEdges = new int[capacity];
+        }
+    }
+
+    /**
+     * @return true if any point other than the closing point occurs more than once
+     */
+    boolean hasRepeatedVertex() {
+        int vertices = n - 1;
+        if(vertices < 2) {
+            return false;
+        }
+        int size = Integer.highestOneBit(vertices) << 2;
+        int mask = size - 1;
+        Arrays.fill(vertexTable, 0, size, 0);
+        for(int i=0;i<vertices;i++) {
+            int slot = hash(xs[i], ys[i]) & mask;
+            while(vertexTable[slot] != 0) {
+                int other = vertexTable[slot] - 1;
+                if(xs[other] == xs[i] && ys[other] == ys[i]) {
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+            vertexTable[slot] = i + 1;
+        }
+        return false;
+    }
+
+    private static int hash(double x, double y) {
+        // +0.0 so that -0.0 and 0.0 hash the same, like they compare
+        long h = Double.doubleToLongBits(x + 0.0) * 0x9E3779B97F4A7C15L + Double.doubleToLongBits(y + 0.0);
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return true if two edges of the ring cross or touch, other than adjacent edges sharing their common point
+     */
+    boolean hasIntersectingEdges() {
+        int edges = n - 1;
+        if(edges < 3) {
+            return false;
+        }
+        for(int i=0;i<edges;i++) {
+            edgeOrder[i] = i;
+        }
+        sortByMinX(0, edges - 1);
+        int active = 0;
+        for(int k=0;k<edges;k++) {
+            int e = edgeOrder[k];
+            double minX = minX(e);
+            int kept = 0;
+            for(int a=0;a<active;a++) {
+                int other = activeEdges[a];
+                if(maxX(other) >= minX) {
+                    activeEdges[kept++] = other;
+                    if(intersects(other, e, edges)) {
+                        return true;
+                    }
+                }
+            }
+            active = kept;
+            activeEdges[active++] = e;
+        }
+        return false;
+    }
+
+    private boolean intersects(int e, int f, int edges) {
+        if(Math.max(ys[e], ys[e + 1]) < Math.min(ys[f], ys[f + 1]) || Math.max(ys[f], ys[f + 1]) < Math.min(ys[e], ys[e + 1])) {
+            return false;
+        }
+        int low = Math.min(e, f);
+        int high = Math.max(e, f);
+        if(high == low + 1) {
+            // shared point is the end of low and the start of high
+            return overlapsCollinear(low + 1, low, high + 1);
+        } else if(low == 0 && high == edges - 1) {
+            // the closing point is shared by the last and the first edge
+            return overlapsCollinear(0, 1, high);
+        }
+        return segmentsIntersect(e, e + 1, f, f + 1);
+    }
+
+    /**
+     * Adjacent edges s-a and s-b only intersect if they double back over each other.
+     */
+    private boolean overlapsCollinear(int s, int a, int b) {
+        if(orientation(s, a, b) != 0) {
+            return false;
+        }
+        return (xs[a] - xs[s]) * (xs[b] - xs[s]) + (ys[a] - ys[s]) * (ys[b] - ys[s]) > 0;
+    }
+
+    private boolean segmentsIntersect(int p1, int p2, int p3, int p4) {
+        int o1 = orientation(p1, p2, p3);
+        int o2 = orientation(p1, p2, p4);
+        int o3 = orientation(p3, p4, p1);
+        int o4 = orientation(p3, p4, p2);
+        if(o1 != o2 && o3 != o4) {
+            return true;
+        }
+        return o1 == 0 && onSegment(p1, p2, p3)
+                || o2 == 0 && onSegment(p1, p2, p4)
+                || o3 == 0 && onSegment(p3, p4, p1)
+                || o4 == 0 && onSegment(p3, p4, p2);
+    }
+
+    private int orientation(int a, int b, int c) {
+        double cross = (xs[b] - xs[a]) * (ys[c] - ys[a]) - (ys[b] - ys[a]) * (xs[c] - xs[a]);
+        return cross > 0 ? 1 : cross < 0 ? -1 : 0;
+    }
+
+    /**
+     * @return true if collinear point p lies within the bounding box of segment a-b
+     */
+    private boolean onSegment(int a, int b, int p) {
+        return xs[p] >= Math.min(xs[a], xs[b]) && xs[p] <= Math.max(xs[a], xs[b])
+                && ys[p] >= Math.min(ys[a], ys[b]) && ys[p] <= Math.max(ys[a], ys[b]);
+    }
+
+    private double minX(int edge) {
+        return Math.min(xs[edge], xs[edge + 1]);
+    }
+
+    private double maxX(int edge) {
+        return Math.max(xs[edge], xs[edge + 1]);
+    }
+
+    private void sortByMinX(int from, int to) {
+        while(to - from > 16) {
+            double pivot = minX(edgeOrder[(from + to) >>> 1]);
+            int i = from;
+            int j = to;
+            while(i <= j) {
+                while(minX(edgeOrder[i]) < pivot) {
+                    i++;
+                }
+                while(minX(edgeOrder[j]) > pivot) {
+                    j--;
+                }
+                if(i <= j) {
+                    int tmp = edgeOrder[i];
+                    edgeOrder[i++] = edgeOrder[j];
+                    edgeOrder[j--] = tmp;
+                }
+            }
+            // recurse into the smaller half to bound the stack depth
+            if(j - from < to - i) {
+                sortByMinX(from, j);
+                from = i;
+            } else {
+                sortByMinX(i, to);
+                to = j;
+            }
+        }
+        for(int i=from + 1;i<=to;i++) {
+            int edge = edgeOrder[i];
+            double key = minX(edge);
+            int j = i - 1;
+            while(j >= from && minX(edgeOrder[j]) > key) {
+                edgeOrder[j + 1] = edgeOrder[j];
+                j--;
+            }
+            edgeOrder[j + 1] = edge;
+        }
+    }
+}
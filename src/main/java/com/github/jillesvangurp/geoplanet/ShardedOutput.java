@@ -0,0 +1,360 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+
+/**
+ * Output that is split into shards by woeid, with an index per shard for looking up single places.
+ *
+ * Shard i of prefix is written to prefix-i.json.gz and has its index in prefix-i.idx. The json file is a gzip file
+ * like the normal output, with a line of json per place, but it consists of small independently gzipped blocks. The
+ * index has an entry per place, sorted by woeid, with the offset and length of its block and the offset of its line in
+ * the uncompressed block. A lookup therefore only decompresses a single block.
+ *
+ * Every shard has its own writer thread that serializes and compresses its places, so writing is not funneled through
+ * a single stream.
+ */
+public class ShardedOutput implements Closeable {
+    static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    private static final int MAGIC = 0x47504958;
+    private static final int HEADER_BYTES = 16;
+    private static final int ENTRY_BYTES = 24;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Shard[] shards;
+
+    private ShardedOutput(Shard[] shards) {
+        this.shards = shards;
+    }
+
+    static int shard(long woeid, int shards) {
+        return (int) (Math.abs(woeid) % shards);
+    }
+
+    static File dataFile(String prefix, int shard) {
+        return new File(prefix + "-" + shard + ".json.gz");
+    }
+
+    static File indexFile(String prefix, int shard) {
+        return new File(prefix + "-" + shard + ".idx");
+    }
+
+    /**
+     * Opens the shards that were written with the prefix. Lookups can be done from any number of threads.
+     */
+    public static ShardedOutput open(String prefix) throws IOException {
+        File first = indexFile(prefix, 0);
+        if(!first.exists()) {
+            throw new IOException("no sharded output at " + prefix);
+        }
+        int count;
+        try(RandomAccessFile raf = new RandomAccessFile(first, "r")) {
+            if(raf.readInt() != MAGIC) {
+                throw new IOException("not a shard index " + first);
+            }
+            count = raf.readInt();
+        }
+        Shard[] shards = new Shard[count];
+        for(int i=0;i<count;i++) {
+            shards[i] = new Shard(dataFile(prefix, i), indexFile(prefix, i));
+        }
+        return new ShardedOutput(shards);
+    }
+
+    /**
+     * @return the place or null if there is no place with this woeid
+     */
+    public JsonObject get(long woeid) throws IOException {
+        return shards[shard(woeid, shards.length)].get(woeid);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for(Shard shard: shards) {
+            shard.close();
+        }
+    }
+
+    private static final class Shard implements Closeable {
+        private final RandomAccessFile data;
+        private final MappedByteBuffer index;
+        private final int entries;
+
+        Shard(File dataFile, File indexFile) throws IOException {
+            data = new RandomAccessFile(dataFile, "r");
+            try(RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+                index = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+            }
+            entries = index.getInt(12);
+        }
+
+        JsonObject get(long woeid) throws IOException {
+            int low = 0;
+            int high = entries - 1;
+            while(low <= high) {
+                int mid = (low + high) >>> 1;
+                int entry = HEADER_BYTES + mid * ENTRY_BYTES;
+                long value = index.getLong(entry);
+                if(value < woeid) {
+                    low = mid + 1;
+                } else if(value > woeid) {
+                    high = mid - 1;
+                } else {
+                    return read(index.getLong(entry + 8), index.getInt(entry + 16), index.getInt(entry + 20));
+                }
+            }
+            return null;
+        }
+
+        private JsonObject read(long blockOffset, int blockLength, int lineOffset) throws IOException {
+            ByteBuffer compressed = ByteBuffer.allocate(blockLength);
+            FileChannel channel = data.getChannel();
+            while(compressed.hasRemaining()) {
+                if(channel.read(compressed, blockOffset + compressed.position()) < 0) {
+                    throw new IOException("unexpected end of shard at " + blockOffset);
+                }
+            }
+            try(InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.array()), 8192)) {
+                long skipped = 0;
+                while(skipped < lineOffset) {
+                    long n = in.skip(lineOffset - skipped);
+                    if(n <= 0) {
+                        throw new IOException("line offset beyond block at " + blockOffset);
+                    }
+                    skipped += n;
+                }
+                ByteArrayOutputStream line = new ByteArrayOutputStream(1024);
+                int b;
+                while((b = in.read()) >= 0 && b != '\n') {
+                    line.write(b);
+                }
+                return new JsonParser().parse(new String(line.toByteArray(), UTF8)).asObject();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            data.close();
+        }
+    }
+
+    /**
+     * Writes places to the shards. Places are handed off to the writer thread of their shard; add blocks when that
+     * thread falls behind.
+     */
+    public static class Writer implements Closeable {
+        private final ShardWriter[] writers;
+        private final Thread[] threads;
+
+        public Writer(String prefix, int shards) throws IOException {
+            this(prefix, shards, DEFAULT_BLOCK_SIZE);
+        }
+
+        /**
+         * @param blockSize uncompressed bytes per gzip block; smaller blocks make lookups cheaper and compression worse
+         */
+        public Writer(String prefix, int shards, int blockSize) throws IOException {
+            writers = new ShardWriter[shards];
+            threads = new Thread[shards];
+            for(int i=0;i<shards;i++) {
+                writers[i] = new ShardWriter(dataFile(prefix, i), indexFile(prefix, i), i, shards, blockSize);
+                threads[i] = new Thread(writers[i], "shard-writer-" + i);
+                threads[i].start();
+            }
+        }
+
+        public void add(long woeid, JsonObject place) throws IOException {
+            add(woeid, place, null);
+        }
+
+        /**
+         * @param geometry serialized geometry that is added to the place as is when it is written; may be null
+         */
+        public void add(long woeid, JsonObject place, String geometry) throws IOException {
+            ShardWriter writer = writers[shard(woeid, writers.length)];
+            writer.checkFailure();
+            try {
+                writer.queue.put(new Entry(woeid, place, geometry));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while writing", e);
+            }
+        }
+
+        /**
+         * Waits for all shards to be written and writes their indexes.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                for(ShardWriter writer: writers) {
+                    writer.queue.put(Entry.END);
+                }
+                for(Thread thread: threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while closing", e);
+            }
+            for(ShardWriter writer: writers) {
+                writer.checkFailure();
+            }
+        }
+    }
+
+    private static final class Entry {
+        static final Entry END = new Entry(0, null, null);
+
+        final long woeid;
+        final JsonObject place;
+        final String geometry;
+
+        Entry(long woeid, JsonObject place, String geometry) {
+            this.woeid = woeid;
+            this.place = place;
+            this.geometry = geometry;
+        }
+    }
+
+    private static final class ShardWriter implements Runnable {
+        private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(1024);
+        private final File dataFile;
+        private final File indexFile;
+        private final int shard;
+        private final int shards;
+        private final int blockSize;
+        private final ByteArrayOutputStream block;
+        private volatile Exception failure;
+
+        private long offset = 0;
+        private int size = 0;
+        private long[] woeids = new long[1024];
+        private long[] blockOffsets = new long[1024];
+        private int[] blockLengths = new int[1024];
+        private int[] lineOffsets = new int[1024];
+        // entries that are in the current block
+        private int blockStart = 0;
+
+        ShardWriter(File dataFile, File indexFile, int shard, int shards, int blockSize) {
+            this.dataFile = dataFile;
+            this.indexFile = indexFile;
+            this.shard = shard;
+            this.shards = shards;
+            this.blockSize = blockSize;
+            block = new ByteArrayOutputStream(blockSize + blockSize / 4);
+        }
+
+        void checkFailure() throws IOException {
+            if(failure != null) {
+                throw new IOException("writing shard " + shard + " failed", failure);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                try(FileOutputStream out = new FileOutputStream(dataFile)) {
+                    Entry entry;
+                    while((entry = queue.take()) != Entry.END) {
+                        add(entry.woeid, entry.place, entry.geometry, out);
+                    }
+                    flushBlock(out);
+                }
+                writeIndex();
+            } catch (Exception e) {
+                failure = e;
+                // keep taking so the producer does not block forever
+                try {
+                    while(queue.take() != Entry.END) {
+                    }
+                } catch (InterruptedException e1) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void add(long woeid, JsonObject place, String geometry, FileOutputStream out) throws IOException {
+            if(size == woeids.length) {
+                int length = size * 2;
+                woeids = Arrays.copyOf(woeids, length);
+                blockOffsets = Arrays.copyOf(blockOffsets, length);
+                blockLengths = Arrays.copyOf(blockLengths, length);
+                lineOffsets = Arrays.copyOf(lineOffsets, length);
+            }
+            woeids[size] = woeid;
+            lineOffsets[size] = block.size();
+            size++;
+            StringWriter json = new StringWriter();
+            GeoPlanetConverter.write(json, place, geometry);
+            byte[] line = json.toString().getBytes(UTF8);
+            block.write(line);
+            block.write('\n');
+            if(block.size() >= blockSize) {
+                flushBlock(out);
+            }
+        }
+
+        private void flushBlock(FileOutputStream out) throws IOException {
+            if(block.size() == 0) {
+                return;
+            }
+            byte[] compressed = ParallelGzipOutputStream.compress(block.toByteArray(), block.size());
+            out.write(compressed);
+            for(int i=blockStart;i<size;i++) {
+                blockOffsets[i] = offset;
+                blockLengths[i] = compressed.length;
+            }
+            offset += compressed.length;
+            blockStart = size;
+            block.reset();
+        }
+
+        private void writeIndex() throws IOException {
+            Integer[] order = new Integer[size];
+            for(int i=0;i<size;i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Long.compare(woeids[o1], woeids[o2]);
+                }
+            });
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 65536))) {
+                out.writeInt(MAGIC);
+                out.writeInt(shards);
+                out.writeInt(shard);
+                out.writeInt(size);
+                for(int i: order) {
+                    out.writeLong(woeids[i]);
+                    out.writeLong(blockOffsets[i]);
+                    out.writeInt(blockLengths[i]);
+                    out.writeInt(lineOffsets[i]);
+                }
+            }
+        }
+    }
+}
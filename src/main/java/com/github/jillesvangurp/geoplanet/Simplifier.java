@@ -0,0 +1,178 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simplifies rings with the Douglas-Peucker algorithm and rounds their coordinates to a fixed number of decimals.
+ *
+ * The tolerance depends on the place type, so that continents and countries can be simplified a lot more than
+ * neighbourhoods. Place types without a tolerance are not simplified, only rounded. Rings that would end up with fewer
+ * than four points are left as they are.
+ */
+class Simplifier {
+    private final Map<String, Double> tolerances;
+    private final double scale;
+
+    /**
+     * @param tolerances maximum distance in degrees between the simplified and the original ring, by place type
+     * @param precision number of decimals to keep; negative to keep the coordinates as they are
+     */
+    public Simplifier(Map<String, Double> tolerances, int precision) {
+        this.tolerances = new HashMap<>();
+        for(Map.Entry<String, Double> entry: tolerances.entrySet()) {
+            this.tolerances.put(entry.getKey().toLowerCase(Locale.ROOT), entry.getValue());
+        }
+        this.scale = precision < 0 ? 0 : Math.pow(10, precision);
+    }
+
+    /**
+     * @param spec comma separated place_type=tolerance pairs, e.g. continent=0.05,country=0.01
+     */
+    static Map<String, Double> parseTolerances(String spec) {
+        Map<String, Double> tolerances = new HashMap<>();
+        if(spec != null) {
+            for(String pair: spec.split(",")) {
+                if(pair.trim().length() > 0) {
+                    String[] parts = pair.split("=");
+                    if(parts.length != 2) {
+                        throw new IllegalArgumentException("expected place_type=tolerance but was " + pair);
+                    }
+                    tolerances.put(parts[0].trim(), Double.valueOf(parts[1].trim()));
+                }
+            }
+        }
+        return tolerances;
+    }
+
+    public double tolerance(String placeType) {
+        Double tolerance = placeType == null ? null : tolerances.get(placeType.toLowerCase(Locale.ROOT));
+        return tolerance == null ? 0 : tolerance;
+    }
+
+    /**
+     * @param ring closed ring; the last point is the same as the first
+     * @return the simplified and rounded ring
+     */
+    public double[][] simplify(double[][] ring, String placeType, Stats stats) {
+        double[][] result = ring;
+        double tolerance = tolerance(placeType);
+        if(tolerance > 0) {
+            result = douglasPeucker(result, tolerance);
+        }
+        if(scale > 0) {
+            result = round(result, scale);
+        }
+        if(result.length < 4) {
+            result = ring;
+        }
+        stats.before.addAndGet(ring.length);
+        stats.after.addAndGet(result.length);
+        return result;
+    }
+
+    /**
+     * @return the points that are needed to stay within tolerance of the line; the first and last point are always kept
+     */
+    static double[][] douglasPeucker(double[][] points, double tolerance) {
+        if(points.length < 3) {
+            return points;
+        }
+        boolean[] keep = new boolean[points.length];
+        keep[0] = true;
+        keep[points.length - 1] = true;
+        // pairs of first and last index of the stretches that still need to be checked
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = points.length - 1;
+        while(top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double maxDistance = 0;
+            int farthest = -1;
+            for(int i=first + 1;i<last;i++) {
+                double distance = distance(points[i], points[first], points[last]);
+                if(distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+            if(farthest >= 0 && maxDistance > tolerance) {
+                keep[farthest] = true;
+                if(top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+        int kept = 0;
+        for(boolean k: keep) {
+            if(k) {
+                kept++;
+            }
+        }
+        double[][] result = new double[kept][];
+        int j = 0;
+        for(int i=0;i<points.length;i++) {
+            if(keep[i]) {
+                result[j++] = points[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return distance of the point to the segment from a to b; in degrees, which is good enough for simplification
+     */
+    static double distance(double[] point, double[] a, double[] b) {
+        double dx = b[0] - a[0];
+        double dy = b[1] - a[1];
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((point[0] - a[0]) * dx + (point[1] - a[1]) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        double x = a[0] + t * dx - point[0];
+        double y = a[1] + t * dy - point[1];
+        return Math.sqrt(x * x + y * y);
+    }
+
+    /**
+     * @return the points rounded to a multiple of 1/scale, without the points that became the same as the point before
+     */
+    static double[][] round(double[][] points, double scale) {
+        double[][] result = new double[points.length][];
+        int j = 0;
+        for(double[] point: points) {
+            double[] rounded = { Math.round(point[0] * scale) / scale, Math.round(point[1] * scale) / scale };
+            if(j == 0 || !Arrays.equals(rounded, result[j - 1])) {
+                result[j++] = rounded;
+            }
+        }
+        return j == result.length ? result : Arrays.copyOf(result, j);
+    }
+
+    public static class Stats {
+        final AtomicLong before = new AtomicLong();
+        final AtomicLong after = new AtomicLong();
+
+        public long before() {
+            return before.get();
+        }
+
+        public long after() {
+            return after.get();
+        }
+
+        @Override
+        public String toString() {
+            long b = before.get();
+            return "vertices " + b + " -> " + after.get() + (b == 0 ? "" : " (" + after.get() * 100 / b + "%)");
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonObject;
+
+/**
+ * Point in polygon lookups over the flickr geometries of the geoplanet places.
+ *
+ * The converter writes the geometries with {@link Writer}; {@link #load(String)} reads them back and bulk loads them
+ * into an R-tree of bounding boxes that is packed with the sort tile recursive algorithm. Lookups find candidate
+ * geometries in the tree and then test the point against their outer rings. The index is immutable once loaded, so
+ * lookups can be done from any number of threads.
+ */
+public class SpatialIndex {
+    private static final int NODE_SIZE = 16;
+
+    private final long[] woeids;
+    private final int[] depths;
+    // per geometry, the rings as x0,y0,x1,y1,...
+    private final double[][][] rings;
+    // boxes per level as minX,minY,maxX,maxY; level 0 has the geometries in tree order, the last level is the root
+    private final List<double[]> levels = new ArrayList<>();
+
+    private SpatialIndex(long[] woeids, int[] depths, double[][][] rings) {
+        int size = woeids.length;
+        final double[][] boxes = new double[size][];
+        for(int i=0;i<size;i++) {
+            boxes[i] = boundingBox(rings[i]);
+        }
+        Integer[] order = strOrder(boxes);
+        this.woeids = new long[size];
+        this.depths = new int[size];
+        this.rings = new double[size][][];
+        double[] leaves = new double[size * 4];
+        for(int i=0;i<size;i++) {
+            int o = order[i];
+            this.woeids[i] = woeids[o];
+            this.depths[i] = depths[o];
+            this.rings[i] = rings[o];
+            System.arraycopy(boxes[o], 0, leaves, i * 4, 4);
+        }
+        levels.add(leaves);
+        double[] level = leaves;
+        while(level.length > 4) {
+            int nodes = (level.length / 4 + NODE_SIZE - 1) / NODE_SIZE;
+            double[] parents = new double[nodes * 4];
+            for(int n=0;n<nodes;n++) {
+                double[] box = { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+                for(int c=n * NODE_SIZE;c<Math.min((n + 1) * NODE_SIZE, level.length / 4);c++) {
+                    box[0] = Math.min(box[0], level[c * 4]);
+                    box[1] = Math.min(box[1], level[c * 4 + 1]);
+                    box[2] = Math.max(box[2], level[c * 4 + 2]);
+                    box[3] = Math.max(box[3], level[c * 4 + 3]);
+                }
+                System.arraycopy(box, 0, parents, n * 4, 4);
+            }
+            levels.add(parents);
+            level = parents;
+        }
+    }
+
+    /**
+     * Sort tile recursive ordering: sort by x, cut into vertical slices and sort each slice by y.
+     */
+    private static Integer[] strOrder(final double[][] boxes) {
+        int size = boxes.length;
+        Integer[] order = new Integer[size];
+        for(int i=0;i<size;i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(boxes[o1][0] + boxes[o1][2], boxes[o2][0] + boxes[o2][2]);
+            }
+        });
+        int leaves = (size + NODE_SIZE - 1) / NODE_SIZE;
+        int sliceSize = (int) Math.ceil(Math.sqrt(leaves)) * NODE_SIZE;
+        for(int start=0;start<size;start+=sliceSize) {
+            Arrays.sort(order, start, Math.min(start + sliceSize, size), new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Double.compare(boxes[o1][1] + boxes[o1][3], boxes[o2][1] + boxes[o2][3]);
+                }
+            });
+        }
+        return order;
+    }
+
+    private static double[] boundingBox(double[][] rings) {
+        double[] box = { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+        for(double[] ring: rings) {
+            for(int i=0;i<ring.length;i+=2) {
+                box[0] = Math.min(box[0], ring[i]);
+                box[1] = Math.min(box[1], ring[i + 1]);
+                box[2] = Math.max(box[2], ring[i]);
+                box[3] = Math.max(box[3], ring[i + 1]);
+            }
+        }
+        return box;
+    }
+
+    /**
+     * @return woeids of the places with a geometry that contains the point, the most specific (deepest in the
+     *         geoplanet hierarchy) first
+     */
+    public long[] containing(double latitude, double longitude) {
+        Matches matches = new Matches();
+        if(woeids.length > 0) {
+            search(levels.size() - 1, 0, longitude, latitude, matches);
+        }
+        // a point is in a handful of places, so a stable insertion sort by depth is all that is needed
+        int[] nodes = matches.nodes;
+        for(int i=1;i<matches.size;i++) {
+            int node = nodes[i];
+            int j = i - 1;
+            while(j >= 0 && depths[nodes[j]] < depths[node]) {
+                nodes[j + 1] = nodes[j];
+                j--;
+            }
+            nodes[j + 1] = node;
+        }
+        long[] result = new long[matches.size];
+        for(int i=0;i<result.length;i++) {
+            result[i] = woeids[nodes[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Growable list of the matching geometries, without boxing them.
+     */
+    private static class Matches {
+        int[] nodes = new int[8];
+        int size;
+
+        void add(int node) {
+            if(size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+            }
+            nodes[size++] = node;
+        }
+    }
+
+    private void search(int level, int node, double x, double y, Matches matches) {
+        double[] boxes = levels.get(level);
+        int o = node * 4;
+        if(x < boxes[o] || y < boxes[o + 1] || x > boxes[o + 2] || y > boxes[o + 3]) {
+            return;
+        }
+        if(level == 0) {
+            for(double[] ring: rings[node]) {
+                if(contains(ring, x, y)) {
+                    matches.add(node);
+                    return;
+                }
+            }
+        } else {
+            int children = levels.get(level - 1).length / 4;
+            for(int c=node * NODE_SIZE;c<Math.min((node + 1) * NODE_SIZE, children);c++) {
+                search(level - 1, c, x, y, matches);
+            }
+        }
+    }
+
+    /**
+     * Even odd rule point in polygon test on a flat x,y array.
+     */
+    private static boolean contains(double[] ring, double x, double y) {
+        boolean inside = false;
+        int points = ring.length / 2;
+        for(int i=0, j=points - 1;i<points;j=i++) {
+            double xi = ring[i * 2];
+            double yi = ring[i * 2 + 1];
+            double xj = ring[j * 2];
+            double yj = ring[j * 2 + 1];
+            if((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    public int size() {
+        return woeids.length;
+    }
+
+    /**
+     * Reads an index written with {@link Writer}.
+     */
+    public static SpatialIndex load(String file) throws IOException {
+        List<Long> woeids = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        List<double[][]> rings = new ArrayList<>();
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new ReadAheadInputStream(new GZIPInputStream(new FileInputStream(file), 65536)), 65536))) {
+            while(true) {
+                long woeid;
+                try {
+                    woeid = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                woeids.add(woeid);
+                depths.add(in.readInt());
+                double[][] geometry = new double[in.readInt()][];
+                for(int r=0;r<geometry.length;r++) {
+                    double[] ring = new double[in.readInt() * 2];
+                    for(int i=0;i<ring.length;i++) {
+                        ring[i] = in.readDouble();
+                    }
+                    geometry[r] = ring;
+                }
+                rings.add(geometry);
+            }
+        }
+        long[] woeidArray = new long[woeids.size()];
+        int[] depthArray = new int[woeids.size()];
+        for(int i=0;i<woeidArray.length;i++) {
+            woeidArray[i] = woeids.get(i);
+            depthArray[i] = depths.get(i);
+        }
+        return new SpatialIndex(woeidArray, depthArray, rings.toArray(new double[rings.size()][][]));
+    }
+
+    /**
+     * Writes the outer rings of geojson polygons and multi polygons to a gzipped index file. Safe for concurrent use.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+
+        public Writer(String file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new ParallelGzipOutputStream(new FileOutputStream(file)), 65536));
+        }
+
+        /**
+         * @param depth depth of the place in the geoplanet hierarchy; used to order lookup results
+         */
+        public synchronized void add(long woeid, int depth, JsonObject geometry) throws IOException {
+            List<JsonArray> outers = new ArrayList<>();
+            JsonArray coordinates = geometry.getArray("coordinates");
+            if("Polygon".equalsIgnoreCase(geometry.getString("type"))) {
+                outers.add(coordinates.get(0).asArray());
+            } else if("MultiPolygon".equalsIgnoreCase(geometry.getString("type"))) {
+                for(int i=0;i<coordinates.size();i++) {
+                    outers.add(coordinates.get(i).asArray().get(0).asArray());
+                }
+            } else {
+                return;
+            }
+            out.writeLong(woeid);
+            out.writeInt(depth);
+            out.writeInt(outers.size());
+            for(JsonArray ring: outers) {
+                out.writeInt(ring.size());
+                for(int i=0;i<ring.size();i++) {
+                    JsonArray point = ring.get(i).asArray();
+                    out.writeDouble(point.get(0).asDouble());
+                    out.writeDouble(point.get(1).asDouble());
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the handful of distinct values of columns like PlaceType, ISO and Language to small ids so places only need to
+ * store a short for them. Values can also be looked up by their utf8 bytes without creating a String. Safe for
+ * concurrent use.
+ */
+class StringPool {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ConcurrentHashMap<String, Short> ids = new ConcurrentHashMap<>();
+    private final ArrayList<String> values = new ArrayList<>();
+    // replaced whenever a value is added, which is rare
+    private volatile ByteLookup byteLookup = new ByteLookup(new byte[0][], 16);
+
+    /**
+     * @return id of the value; -1 for null
+     */
+    public short id(String value) {
+        if(value == null) {
+            return -1;
+        }
+        Short id = ids.get(value);
+        if(id == null) {
+            synchronized(values) {
+                id = ids.get(value);
+                if(id == null) {
+                    if(values.size() > Short.MAX_VALUE) {
+                        throw new IllegalStateException("too many distinct values to pool " + value);
+                    }
+                    id = (short) values.size();
+                    values.add(value);
+                    byteLookup = byteLookup.with(value.getBytes(UTF8));
+                    ids.put(value, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return id of the utf8 encoded value
+     */
+    public short id(byte[] data, int offset, int length) {
+        short id = byteLookup.find(data, offset, length);
+        return id >= 0 ? id : id(new String(data, offset, length, UTF8));
+    }
+
+    /**
+     * @return the value for the id; null for -1
+     */
+    public String value(short id) {
+        if(id < 0) {
+            return null;
+        }
+        synchronized(values) {
+            return values.get(id);
+        }
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * Immutable open addressing table of the utf8 bytes of the values.
+     */
+    private static final class ByteLookup {
+        private final byte[][] encoded;
+        private final short[] slots;
+
+        ByteLookup(byte[][] encoded, int capacity) {
+            this.encoded = encoded;
+            slots = new short[capacity];
+            Arrays.fill(slots, (short) -1);
+            for(short id=0;id<encoded.length;id++) {
+                byte[] value = encoded[id];
+                int slot = slot(value, 0, value.length);
+                slots[slot] = id;
+            }
+        }
+
+        ByteLookup with(byte[] value) {
+            byte[][] updated = Arrays.copyOf(encoded, encoded.length + 1);
+            updated[encoded.length] = value;
+            int capacity = slots.length;
+            while(updated.length * 2 > capacity) {
+                capacity *= 2;
+            }
+            return new ByteLookup(updated, capacity);
+        }
+
+        short find(byte[] data, int offset, int length) {
+            return slots[slot(data, offset, length)];
+        }
+
+        /**
+         * @return the slot with the value or the empty slot where it would go
+         */
+        private int slot(byte[] data, int offset, int length) {
+            int hash = 1;
+            for(int i=offset;i<offset + length;i++) {
+                hash = 31 * hash + data[i];
+            }
+            int mask = slots.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while(slots[slot] >= 0 && !equal(encoded[slots[slot]], data, offset, length)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private static boolean equal(byte[] value, byte[] data, int offset, int length) {
+            if(value.length != length) {
+                return false;
+            }
+            for(int i=0;i<length;i++) {
+                if(value[i] != data[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
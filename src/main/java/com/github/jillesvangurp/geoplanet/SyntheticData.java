@@ -0,0 +1,658 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonElement;
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+
+/**
+ * Generates geoplanet places, aliases and adjacencies tsv files and flickr shapes geojson files of any size, so that
+ * {@link GeoPlanetConverter} and {@link FlickShapeProcessor} can be profiled at several times the size of the real
+ * dumps.
+ *
+ * The number of names per place, neighbors per place, rings per shape and vertices per ring are drawn from a
+ * {@link Profile}, as is the fraction of places with a shape and the fraction of self intersecting rings.
+ * {@link #measure(String, String, String, List)} gets a profile from the real dumps. The defaults are rough guesses,
+ * so measure the real files if you have them.
+ *
+ * Places form a hierarchy of continents, countries, states, counties, towns and, as leaves, suburbs, zip codes, points
+ * of interest and local admins. Everything about place i can be computed from i and the seed, so the files are written
+ * in a single pass without keeping anything in memory.
+ */
+public class SyntheticData {
+    static final String PLACES_FILE = "geoplanet_places_7.10.0.tsv.gz";
+    static final String ALIASES_FILE = "geoplanet_aliases_7.10.0.tsv.gz";
+    static final String ADJACENCIES_FILE = "geoplanet_adjacencies_7.10.0.tsv.gz";
+    // flickr shapes file name and the geoplanet place type of its shapes
+    static final String[][] SHAPE_FILES = {
+        { "flickr_shapes_continents.geojson.gz", "Continent", "continent" },
+        { "flickr_shapes_countries.geojson.gz", "Country", "country" },
+        { "flickr_shapes_regions.geojson.gz", "State", "region" },
+        { "flickr_shapes_counties.geojson.gz", "County", "county" },
+        { "flickr_shapes_localities.geojson.gz", "Town", "locality" },
+        { "flickr_shapes_neighbourhoods.geojson.gz", "Suburb", "neighbourhood" } };
+
+    private static final String[] LEAF_TYPES = { "Suburb", "Zip", "Zip", "POI", "POI", "LocalAdmin" };
+    private static final String[] LANGUAGES = { "ENG", "GER", "FRE", "DUT", "SPA", "ITA", "POR", "JPN", "CHI", "KOR", "RUS", "ARA", "UNK" };
+    private static final String[] NAME_TYPES = { "P", "Q", "V", "S", "A" };
+    private static final String[] NAME_PARTS = { "North", "South", "East", "West", "Port", "Saint", "New", "Old",
+        "Lake", "Mount", "Bad", "Villa", "K\u00f6nigs", "S\u00e3o", "\u00cele", "\u6771", "\u0421\u0435\u0432\u0435\u0440" };
+    private static final int NEIGHBOR_WINDOW = 20;
+
+    private final Profile profile;
+    private final long seed;
+    // hierarchy levels: earth, continents, countries, states, counties, towns, leaves
+    private final long[] levelStart;
+    private final long[] levelSize;
+    private final String[] levelType = { "Supername", "Continent", "Country", "State", "County", "Town", null };
+
+    /**
+     * @param scale multiplies the number of places and shapes of the profile
+     */
+    public SyntheticData(Profile profile, double scale, long seed) {
+        this.profile = profile;
+        this.seed = seed;
+        long places = Math.max(1000, (long) (profile.places * scale));
+        // rough proportions of the geoplanet hierarchy
+        levelSize = new long[] { 1, 7, 250, places / 500, places / 100, places / 10, 0 };
+        levelSize[6] = places - levelSize[0] - levelSize[1] - levelSize[2] - levelSize[3] - levelSize[4] - levelSize[5];
+        levelStart = new long[levelSize.length];
+        for(int i=1;i<levelSize.length;i++) {
+            levelStart[i] = levelStart[i - 1] + levelSize[i - 1];
+        }
+    }
+
+    public long places() {
+        return levelStart[levelStart.length - 1] + levelSize[levelSize.length - 1];
+    }
+
+    static long woeid(long place) {
+        return place + 1;
+    }
+
+    int level(long place) {
+        int level = levelStart.length - 1;
+        while(place < levelStart[level]) {
+            level--;
+        }
+        return level;
+    }
+
+    /**
+     * @return the parent place; the places of a level are spread evenly over the places of the level above, so
+     *         siblings are next to each other
+     */
+    long parent(long place) {
+        int level = level(place);
+        if(level == 0) {
+            return -1;
+        }
+        long position = place - levelStart[level];
+        return levelStart[level - 1] + position * levelSize[level - 1] / levelSize[level];
+    }
+
+    String placeType(long place) {
+        int level = level(place);
+        return level < levelType.length - 1 ? levelType[level] : LEAF_TYPES[(int) (place % LEAF_TYPES.length)];
+    }
+
+    String iso(long place) {
+        long country = place;
+        while(country >= 0 && level(country) > 2) {
+            country = parent(country);
+        }
+        if(country < 0 || level(country) < 2) {
+            return "ZZ";
+        }
+        int index = (int) (country - levelStart[2]);
+        return new String(new char[] { (char) ('A' + index / 26 % 26), (char) ('A' + index % 26) });
+    }
+
+    String name(Random random, long place) {
+        return NAME_PARTS[random.nextInt(NAME_PARTS.length)] + " " + placeType(place) + " " + place;
+    }
+
+    /**
+     * @return random for the place; the seeds are mixed because the first values of randoms with similar seeds are
+     *         similar
+     */
+    private Random random(long place, int stream) {
+        long h = seed * 0x9E3779B97F4A7C15L + place * 31 + stream;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return new Random(h ^ (h >>> 33));
+    }
+
+    /**
+     * Writes the three geoplanet files and the flickr shapes files to the directory.
+     */
+    public void generate(File dir) throws IOException {
+        if(!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("could not create " + dir);
+        }
+        long start = System.currentTimeMillis();
+        generateGeoPlanet(dir);
+        System.out.println("wrote " + places() + " places in " + (System.currentTimeMillis() - start) + "ms");
+        start = System.currentTimeMillis();
+        long shapes = generateShapes(dir);
+        System.out.println("wrote " + shapes + " shapes in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private void generateGeoPlanet(File dir) throws IOException {
+        try(BufferedWriter placesOut = GeoPlanetConverter.gzipFileWriter(new File(dir, PLACES_FILE).getPath());
+                BufferedWriter aliasesOut = GeoPlanetConverter.gzipFileWriter(new File(dir, ALIASES_FILE).getPath());
+                BufferedWriter adjacenciesOut = GeoPlanetConverter.gzipFileWriter(new File(dir, ADJACENCIES_FILE).getPath())) {
+            placesOut.write("\"WOE_ID\"\t\"ISO\"\t\"Name\"\t\"Language\"\t\"PlaceType\"\t\"Parent_ID\"\n");
+            aliasesOut.write("\"WOE_ID\"\t\"Name\"\t\"Name_Type\"\t\"Language\"\n");
+            adjacenciesOut.write("\"Place_WOE_ID\"\t\"Place_ISO\"\t\"Neighbour_WOE_ID\"\t\"Neighbour_ISO\"\n");
+            StringBuilder line = new StringBuilder();
+            long places = places();
+            for(long place=0;place<places;place++) {
+                Random random = random(place, 0);
+                String iso = iso(place);
+                String name = name(random, place);
+                long parent = parent(place);
+
+                line.setLength(0);
+                line.append(woeid(place)).append('\t');
+                quoted(line, iso).append('\t');
+                quoted(line, name).append('\t');
+                quoted(line, LANGUAGES[random.nextInt(LANGUAGES.length)]).append('\t');
+                quoted(line, placeType(place)).append('\t');
+                line.append(parent < 0 ? 0 : woeid(parent)).append('\n');
+                placesOut.append(line);
+
+                int names = profile.namesPerPlace.sample(random);
+                for(int i=0;i<names;i++) {
+                    line.setLength(0);
+                    line.append(woeid(place)).append('\t');
+                    quoted(line, i == 0 ? name : name + " " + LANGUAGES[random.nextInt(LANGUAGES.length)].toLowerCase() + i).append('\t');
+                    quoted(line, NAME_TYPES[random.nextInt(NAME_TYPES.length)]).append('\t');
+                    quoted(line, LANGUAGES[random.nextInt(LANGUAGES.length)]).append('\n');
+                    aliasesOut.append(line);
+                }
+
+                // every row counts for both places, so write half the neighbors of each place
+                int neighbors = profile.neighborsPerPlace.sample(random);
+                int rows = neighbors / 2 + (neighbors % 2 == 1 && random.nextBoolean() ? 1 : 0);
+                int level = level(place);
+                for(int i=0;i<rows && levelSize[level] > 1;i++) {
+                    long neighbor = place;
+                    while(neighbor == place) {
+                        long offset = random.nextInt(2 * NEIGHBOR_WINDOW + 1) - NEIGHBOR_WINDOW;
+                        neighbor = Math.max(levelStart[level], Math.min(levelStart[level] + levelSize[level] - 1, place + offset));
+                    }
+                    line.setLength(0);
+                    line.append(woeid(place)).append('\t');
+                    quoted(line, iso).append('\t');
+                    line.append(woeid(neighbor)).append('\t');
+                    quoted(line, iso(neighbor)).append('\n');
+                    adjacenciesOut.append(line);
+                }
+                if(place > 0 && place % 1000000 == 0) {
+                    System.out.println("generated " + place + " places");
+                }
+            }
+        }
+    }
+
+    private long generateShapes(File dir) throws IOException {
+        // continents and countries always have a shape, like in the real data; the rest is drawn
+        long always = levelSize[1] + levelSize[2];
+        long eligible = 0;
+        for(long place=levelStart[3];place<places();place++) {
+            if(shapeFile(placeType(place)) >= 0) {
+                eligible++;
+            }
+        }
+        double shapeRate = Math.min(1, Math.max(0, profile.geometries * places() - always) / Math.max(1, eligible));
+        long shapes = 0;
+        BufferedWriter[] writers = new BufferedWriter[SHAPE_FILES.length];
+        boolean[] first = new boolean[SHAPE_FILES.length];
+        try {
+            for(int i=0;i<SHAPE_FILES.length;i++) {
+                writers[i] = GeoPlanetConverter.gzipFileWriter(new File(dir, SHAPE_FILES[i][0]).getPath());
+                writers[i].write("{\"type\":\"FeatureCollection\",\"features\":[\n");
+                first[i] = true;
+            }
+            StringBuilder feature = new StringBuilder();
+            for(long place=0;place<places();place++) {
+                int file = shapeFile(placeType(place));
+                Random random = random(place, 1);
+                if(file >= 0 && (file < 2 || random.nextDouble() < shapeRate)) {
+                    feature.setLength(0);
+                    feature(feature, random, place, SHAPE_FILES[file][2], level(place));
+                    if(!first[file]) {
+                        writers[file].write(",\n");
+                    }
+                    first[file] = false;
+                    writers[file].append(feature);
+                    shapes++;
+                }
+            }
+        } finally {
+            for(BufferedWriter writer: writers) {
+                if(writer != null) {
+                    writer.write("\n]}\n");
+                    writer.close();
+                }
+            }
+        }
+        return shapes;
+    }
+
+    private static int shapeFile(String placeType) {
+        for(int i=0;i<SHAPE_FILES.length;i++) {
+            if(SHAPE_FILES[i][1].equals(placeType)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void feature(StringBuilder json, Random random, long place, String flickrType, int level) {
+        double radius = 20 / Math.pow(3, level);
+        double x = random.nextDouble() * 340 - 170;
+        double y = random.nextDouble() * 160 - 80;
+        int polygons = Math.max(1, profile.polygonsPerShape.sample(random));
+        json.append("{\"type\":\"Feature\",\"id\":").append(woeid(place));
+        json.append(",\"properties\":{\"woe_id\":").append(woeid(place));
+        json.append(",\"place_id\":\"p").append(Long.toHexString(place)).append('"');
+        json.append(",\"place_type\":\"").append(flickrType).append('"');
+        json.append(",\"label\":\"").append(name(random, place)).append('"');
+        json.append("},\"geometry\":{\"type\":\"").append(polygons == 1 ? "Polygon" : "MultiPolygon").append("\",\"coordinates\":");
+        if(polygons > 1) {
+            json.append('[');
+        }
+        for(int p=0;p<polygons;p++) {
+            if(p > 0) {
+                json.append(',');
+            }
+            boolean selfIntersecting = random.nextDouble() < profile.selfIntersectionRate;
+            int vertices = Math.max(3, profile.verticesPerRing.sample(random));
+            double[][] ring = ring(random, x + p * 2.5 * radius, y, radius, vertices, selfIntersecting);
+            json.append('[').append('[');
+            for(int i=0;i<ring.length;i++) {
+                if(i > 0) {
+                    json.append(',');
+                }
+                json.append('[').append(ring[i][0]).append(',').append(ring[i][1]).append(']');
+            }
+            json.append(']').append(']');
+        }
+        if(polygons > 1) {
+            json.append(']');
+        }
+        json.append("}}");
+    }
+
+    /**
+     * @param vertices number of distinct vertices; the ring is closed, so it has one point more
+     * @return ring with its vertices at increasing angles around the center, which is a simple polygon; a self
+     *         intersecting ring has two neighboring vertices swapped after putting them and their neighbors on a
+     *         circle, which makes two of its edges cross
+     */
+    static double[][] ring(Random random, double x, double y, double radius, int vertices, boolean selfIntersecting) {
+        if(selfIntersecting) {
+            vertices = Math.max(4, vertices);
+        }
+        double[] radii = new double[vertices];
+        for(int i=0;i<vertices;i++) {
+            radii[i] = radius * (0.7 + 0.3 * random.nextDouble());
+        }
+        int swap = -1;
+        if(selfIntersecting) {
+            swap = 1 + random.nextInt(vertices - 3);
+            for(int i=swap - 1;i<=swap + 2;i++) {
+                radii[i] = radius;
+            }
+        }
+        double[][] ring = new double[vertices + 1][];
+        for(int i=0;i<vertices;i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            ring[i] = new double[] { round(x + radii[i] * Math.cos(angle)), round(y + radii[i] * Math.sin(angle)) };
+        }
+        if(swap >= 0) {
+            double[] point = ring[swap];
+            ring[swap] = ring[swap + 1];
+            ring[swap + 1] = point;
+        }
+        ring[vertices] = ring[0];
+        return ring;
+    }
+
+    private static double round(double coordinate) {
+        return Math.round(coordinate * 1000000) / 1000000.0;
+    }
+
+    private static StringBuilder quoted(StringBuilder tsv, String value) {
+        return tsv.append('"').append(value).append('"');
+    }
+
+    /**
+     * Measures the profile of the real dumps. Keeps the woeid of every alias and adjacency in memory while counting,
+     * which takes a few hundred MB for the real files.
+     */
+    public static Profile measure(String placesFile, String aliasesFile, String adjacenciesFile, List<String> shapeFiles) throws IOException {
+        Profile profile = new Profile();
+        long places = 0;
+        try(TsvReader reader = TsvReader.openGzipFile(placesFile)) {
+            for(TsvReader.Block block: reader) {
+                TsvReader.Record record = block.records();
+                while(record.next()) {
+                    places++;
+                }
+            }
+        }
+        profile.places = places;
+
+        LongList aliases = new LongList();
+        try(TsvReader reader = TsvReader.openGzipFile(aliasesFile)) {
+            int woeidColumn = GeoPlanetConverter.column(reader.header(), GeoPlanetConverter.WOE_ID);
+            for(TsvReader.Block block: reader) {
+                TsvReader.Record record = block.records();
+                while(record.next()) {
+                    aliases.add(record.longValue(woeidColumn));
+                }
+            }
+        }
+        profile.namesPerPlace = Distribution.of(countsPerWoeid(aliases, places));
+
+        LongList adjacencies = new LongList();
+        try(TsvReader reader = TsvReader.openGzipFile(adjacenciesFile)) {
+            int placeColumn = GeoPlanetConverter.column(reader.header(), "Place_WOE_ID");
+            int neighbourColumn = GeoPlanetConverter.column(reader.header(), "Neighbour_WOE_ID");
+            for(TsvReader.Block block: reader) {
+                TsvReader.Record record = block.records();
+                while(record.next()) {
+                    // the converter adds the neighbor to both places
+                    adjacencies.add(record.longValue(placeColumn));
+                    adjacencies.add(record.longValue(neighbourColumn));
+                }
+            }
+        }
+        profile.neighborsPerPlace = Distribution.of(countsPerWoeid(adjacencies, places));
+
+        SortedMap<Long, Long> vertices = new TreeMap<>();
+        SortedMap<Long, Long> polygons = new TreeMap<>();
+        long shapes = 0;
+        long rings = 0;
+        long selfIntersecting = 0;
+        JsonParser parser = new JsonParser();
+        for(String file: shapeFiles) {
+            try(BufferedReader br = GeoPlanetConverter.gzipFileReader(file)) {
+                for(JsonObject feature: new GeoJsonFeatureReader(br, parser)) {
+                    JsonObject geometry = feature.getObject("geometry");
+                    if(geometry == null) {
+                        continue;
+                    }
+                    List<JsonArray> outers = new ArrayList<>();
+                    JsonArray coordinates = geometry.getArray("coordinates");
+                    if("MultiPolygon".equalsIgnoreCase(geometry.getString("type"))) {
+                        for(JsonElement polygon: coordinates) {
+                            outers.add(polygon.asArray().get(0).asArray());
+                        }
+                    } else {
+                        outers.add(coordinates.get(0).asArray());
+                    }
+                    shapes++;
+                    increment(polygons, outers.size());
+                    for(JsonArray ring: outers) {
+                        rings++;
+                        increment(vertices, ring.size() - 1);
+                        if(SelfIntersectionDetector.get().selfIntersects(ring)) {
+                            selfIntersecting++;
+                        }
+                    }
+                }
+            }
+        }
+        profile.geometries = places == 0 ? 0 : (double) shapes / places;
+        profile.polygonsPerShape = Distribution.of(polygons);
+        profile.verticesPerRing = Distribution.of(vertices);
+        profile.selfIntersectionRate = rings == 0 ? 0 : (double) selfIntersecting / rings;
+        return profile;
+    }
+
+    /**
+     * @return histogram of the number of times each woeid occurs; places that don't occur count as 0
+     */
+    private static SortedMap<Long, Long> countsPerWoeid(LongList woeids, long places) {
+        long[] sorted = woeids.sorted();
+        SortedMap<Long, Long> counts = new TreeMap<>();
+        long distinct = 0;
+        int i = 0;
+        while(i < sorted.length) {
+            int j = i;
+            while(j < sorted.length && sorted[j] == sorted[i]) {
+                j++;
+            }
+            increment(counts, j - i);
+            distinct++;
+            i = j;
+        }
+        if(places > distinct) {
+            counts.put(0l, places - distinct);
+        }
+        return counts;
+    }
+
+    private static void increment(SortedMap<Long, Long> counts, long value) {
+        Long bucket = Distribution.bucket(value);
+        Long count = counts.get(bucket);
+        counts.put(bucket, count == null ? 1 : count + 1);
+    }
+
+    private static class LongList {
+        private long[] values = new long[1 << 16];
+        private int size = 0;
+
+        void add(long value) {
+            if(size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] sorted() {
+            long[] result = Arrays.copyOf(values, size);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+
+    /**
+     * Histogram to draw values from. Values below 16 have their own bucket; above that the buckets double in size and
+     * values are drawn uniformly from the bucket.
+     */
+    public static class Distribution {
+        private final long[] buckets;
+        private final long[] cumulative;
+
+        Distribution(long[] buckets, long[] weights) {
+            this.buckets = buckets;
+            cumulative = new long[weights.length];
+            long total = 0;
+            for(int i=0;i<weights.length;i++) {
+                total += weights[i];
+                cumulative[i] = total;
+            }
+            if(total <= 0) {
+                throw new IllegalArgumentException("distribution without weights");
+            }
+        }
+
+        /**
+         * @param spec comma separated bucket:weight pairs, e.g. 0:60,1:25,2:10,16:5
+         */
+        public static Distribution parse(String spec) {
+            SortedMap<Long, Long> weights = new TreeMap<>();
+            for(String pair: spec.split(",")) {
+                String[] parts = pair.trim().split(":");
+                if(parts.length != 2) {
+                    throw new IllegalArgumentException("expected bucket:weight but was " + pair);
+                }
+                long value = Long.parseLong(parts[0].trim());
+                if(bucket(value) != value) {
+                    throw new IllegalArgumentException(value + " is not the start of a bucket; use " + bucket(value));
+                }
+                weights.put(value, Long.valueOf(parts[1].trim()));
+            }
+            return of(weights);
+        }
+
+        static Distribution of(SortedMap<Long, Long> weights) {
+            long[] buckets = new long[weights.size()];
+            long[] counts = new long[weights.size()];
+            int i = 0;
+            for(Map.Entry<Long, Long> entry: weights.entrySet()) {
+                buckets[i] = entry.getKey();
+                counts[i] = entry.getValue();
+                i++;
+            }
+            return new Distribution(buckets, counts);
+        }
+
+        /**
+         * @return the start of the bucket of the value
+         */
+        static long bucket(long value) {
+            return value < 16 ? value : Long.highestOneBit(value);
+        }
+
+        private static long width(long bucket) {
+            return bucket < 16 ? 1 : bucket;
+        }
+
+        public int sample(Random random) {
+            long r = (long) (random.nextDouble() * cumulative[cumulative.length - 1]);
+            int index = Arrays.binarySearch(cumulative, r + 1);
+            if(index < 0) {
+                index = -index - 1;
+            }
+            long bucket = buckets[index];
+            long width = width(bucket);
+            return (int) (width == 1 ? bucket : bucket + (long) (random.nextDouble() * width));
+        }
+
+        /**
+         * @return the mean, taking the middle of each bucket
+         */
+        public double mean() {
+            double sum = 0;
+            long previous = 0;
+            for(int i=0;i<buckets.length;i++) {
+                sum += (cumulative[i] - previous) * (buckets[i] + (width(buckets[i]) - 1) / 2.0);
+                previous = cumulative[i];
+            }
+            return sum / cumulative[cumulative.length - 1];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder spec = new StringBuilder();
+            long previous = 0;
+            for(int i=0;i<buckets.length;i++) {
+                if(i > 0) {
+                    spec.append(',');
+                }
+                spec.append(buckets[i]).append(':').append(cumulative[i] - previous);
+                previous = cumulative[i];
+            }
+            return spec.toString();
+        }
+    }
+
+    /**
+     * What the generated data looks like at scale 1. Stored as a properties file so a measured profile can be reused.
+     */
+    public static class Profile {
+        long places = 5000000;
+        // shapes per place
+        double geometries = 0.04;
+        double selfIntersectionRate = 0.05;
+        Distribution namesPerPlace = Distribution.parse("0:50,1:25,2:10,3:5,4:4,6:3,8:2,16:1");
+        Distribution neighborsPerPlace = Distribution.parse("0:30,2:15,4:15,5:10,6:10,8:8,10:6,16:5,32:1");
+        Distribution polygonsPerShape = Distribution.parse("1:90,2:6,3:2,4:1,16:1");
+        Distribution verticesPerRing = Distribution.parse("4:2,8:5,16:15,32:20,64:20,128:15,256:10,512:7,1024:4,4096:2");
+
+        public static Profile load(File file) throws IOException {
+            Properties properties = new Properties();
+            try(InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            }
+            Profile profile = new Profile();
+            profile.places = Long.parseLong(properties.getProperty("places", Long.toString(profile.places)));
+            profile.geometries = Double.parseDouble(properties.getProperty("geometries", Double.toString(profile.geometries)));
+            profile.selfIntersectionRate = Double.parseDouble(properties.getProperty("selfIntersectionRate", Double.toString(profile.selfIntersectionRate)));
+            profile.namesPerPlace = Distribution.parse(properties.getProperty("namesPerPlace", profile.namesPerPlace.toString()));
+            profile.neighborsPerPlace = Distribution.parse(properties.getProperty("neighborsPerPlace", profile.neighborsPerPlace.toString()));
+            profile.polygonsPerShape = Distribution.parse(properties.getProperty("polygonsPerShape", profile.polygonsPerShape.toString()));
+            profile.verticesPerRing = Distribution.parse(properties.getProperty("verticesPerRing", profile.verticesPerRing.toString()));
+            return profile;
+        }
+
+        public void save(File file) throws IOException {
+            try(OutputStream out = new FileOutputStream(file)) {
+                toProperties().store(out, "geoplanet and flickr shapes profile");
+            }
+        }
+
+        Properties toProperties() {
+            Properties properties = new Properties();
+            properties.setProperty("places", Long.toString(places));
+            properties.setProperty("geometries", Double.toString(geometries));
+            properties.setProperty("selfIntersectionRate", Double.toString(selfIntersectionRate));
+            properties.setProperty("namesPerPlace", namesPerPlace.toString());
+            properties.setProperty("neighborsPerPlace", neighborsPerPlace.toString());
+            properties.setProperty("polygonsPerShape", polygonsPerShape.toString());
+            properties.setProperty("verticesPerRing", verticesPerRing.toString());
+            return properties;
+        }
+
+        @Override
+        public String toString() {
+            return toProperties().toString();
+        }
+    }
+
+    /**
+     * java SyntheticData generate dir writes the files to dir; use -Dsynthetic.scale=10 for ten times the places of
+     * the profile, -Dsynthetic.profile=file for a measured profile and -Dsynthetic.seed to get different data.
+     *
+     * java SyntheticData measure profile places aliases adjacencies shapes... measures the real files and saves the
+     * profile.
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length >= 2 && "generate".equals(args[0])) {
+            String profileFile = System.getProperty("synthetic.profile");
+            Profile profile = profileFile == null ? new Profile() : Profile.load(new File(profileFile));
+            double scale = Double.parseDouble(System.getProperty("synthetic.scale", "1"));
+            SyntheticData data = new SyntheticData(profile, scale, Long.getLong("synthetic.seed", 42));
+            data.generate(new File(args[1]));
+        } else if(args.length >= 6 && "measure".equals(args[0])) {
+            Profile profile = measure(args[2], args[3], args[4], Arrays.asList(args).subList(5, args.length));
+            profile.save(new File(args[1]));
+            System.out.println(profile);
+        } else {
+            System.err.println("usage: generate dir | measure profile places aliases adjacencies shapes...");
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads tab separated files like the geoplanet dumps as blocks of whole lines of utf8 bytes. The lines in a block are
+ * read with a {@link Record}, which only tracks where the fields start and end. Values are parsed straight from the
+ * bytes, so reading a line does not allocate anything unless the caller asks for a String or a copy of the bytes.
+ *
+ * Iterating the blocks is not thread safe but the blocks can be handed off to other threads; each block has its own
+ * bytes and gets its own record.
+ */
+class TsvReader implements Iterable<TsvReader.Block>, Closeable {
+    static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final InputStream in;
+    private final int blockSize;
+    private final ArrayList<String> header = new ArrayList<>();
+    private byte[] carry = new byte[0];
+    private int carryLength = 0;
+    private boolean eof = false;
+    private Block next;
+
+    /**
+     * Reads the header line right away.
+     */
+    public TsvReader(InputStream in, int blockSize) throws IOException {
+        this.in = in;
+        this.blockSize = blockSize;
+        next = readBlock();
+        if(next != null) {
+            Record record = next.records();
+            if(record.next()) {
+                for(int i=0;i<record.fields();i++) {
+                    header.add(record.string(i) == null ? "" : record.string(i));
+                }
+            }
+            next = record.remaining();
+        }
+    }
+
+    /**
+     * The file is decompressed ahead of the reader on a separate thread; see {@link ReadAheadInputStream}.
+     */
+    public static TsvReader openGzipFile(String file) throws IOException {
+        return new TsvReader(new ReadAheadInputStream(new GZIPInputStream(new FileInputStream(file), 65536)), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @return the dequoted field names from the first line
+     */
+    public ArrayList<String> header() {
+        return header;
+    }
+
+    private Block readBlock() throws IOException {
+        while(true) {
+            byte[] data = new byte[Math.max(blockSize, carryLength * 2)];
+            System.arraycopy(carry, 0, data, 0, carryLength);
+            int length = carryLength;
+            int read = 0;
+            while(length < data.length && (read = in.read(data, length, data.length - length)) >= 0) {
+                length += read;
+            }
+            if(read < 0) {
+                eof = true;
+            }
+            int end = length;
+            if(!eof) {
+                while(end > 0 && data[end - 1] != '\n') {
+                    end--;
+                }
+                if(end == 0) {
+                    // a line that is longer than the block; read more
+                    carry = data;
+                    carryLength = length;
+                    continue;
+                }
+            }
+            carryLength = length - end;
+            if(carry.length < carryLength) {
+                carry = new byte[Math.max(carryLength, blockSize)];
+            }
+            System.arraycopy(data, end, carry, 0, carryLength);
+            return end == 0 ? null : new Block(data, 0, end);
+        }
+    }
+
+    @Override
+    public Iterator<Block> iterator() {
+        return new Iterator<Block>() {
+            @Override
+            public boolean hasNext() {
+                if(next == null && !eof) {
+                    try {
+                        next = readBlock();
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Block next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Block block = next;
+                next = null;
+                return block;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Whole lines of utf8 bytes.
+     */
+    static class Block {
+        private final byte[] data;
+        private final int start;
+        private final int end;
+
+        Block(byte[] data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return a new record positioned before the first line of the block
+         */
+        public Record records() {
+            return new Record(data, start, end);
+        }
+    }
+
+    /**
+     * Cursor over the lines of a block. Fields are dequoted; empty fields and fields beyond the end of the line are
+     * treated as missing.
+     */
+    static class Record {
+        private final byte[] data;
+        private final int end;
+        private int position;
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int fields = 0;
+
+        private Record(byte[] data, int start, int end) {
+            this.data = data;
+            this.position = start;
+            this.end = end;
+        }
+
+        /**
+         * Moves to the next non empty line.
+         *
+         * @return false if there are no more lines
+         */
+        public boolean next() {
+            while(position < end) {
+                int lineEnd = position;
+                while(lineEnd < end && data[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                int next = lineEnd + 1;
+                if(lineEnd > position && data[lineEnd - 1] == '\r') {
+                    lineEnd--;
+                }
+                if(lineEnd > position) {
+                    split(position, lineEnd);
+                    position = next;
+                    return true;
+                }
+                position = next;
+            }
+            return false;
+        }
+
+        private void split(int lineStart, int lineEnd) {
+            fields = 0;
+            int fieldStart = lineStart;
+            for(int i=lineStart;i<=lineEnd;i++) {
+                if(i == lineEnd || data[i] == '\t') {
+                    if(fields == starts.length) {
+                        starts = Arrays.copyOf(starts, fields * 2);
+                        ends = Arrays.copyOf(ends, fields * 2);
+                    }
+                    int s = fieldStart;
+                    int e = i;
+                    if(e - s >= 2 && data[s] == '"' && data[e - 1] == '"') {
+                        s++;
+                        e--;
+                    }
+                    starts[fields] = s;
+                    ends[fields] = e;
+                    fields++;
+                    fieldStart = i + 1;
+                }
+            }
+        }
+
+        /**
+         * @return the lines that have not been read yet
+         */
+        Block remaining() {
+            return position < end ? new Block(data, position, end) : null;
+        }
+
+        public int fields() {
+            return fields;
+        }
+
+        public boolean isEmpty(int column) {
+            return length(column) == 0;
+        }
+
+        public int length(int column) {
+            return column < fields ? ends[column] - starts[column] : 0;
+        }
+
+        public int offset(int column) {
+            return starts[column];
+        }
+
+        public byte[] data() {
+            return data;
+        }
+
+        /**
+         * @throws NumberFormatException if the value is missing or not a number
+         */
+        public long longValue(int column) {
+            int length = length(column);
+            if(length == 0) {
+                throw new NumberFormatException("missing value in column " + column);
+            }
+            int i = starts[column];
+            int e = ends[column];
+            boolean negative = data[i] == '-';
+            if(negative && ++i == e) {
+                throw new NumberFormatException(string(column));
+            }
+            long value = 0;
+            for(;i<e;i++) {
+                int digit = data[i] - '0';
+                if(digit < 0 || digit > 9) {
+                    throw new NumberFormatException(string(column));
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        /**
+         * @return the value or missingValue if the field is empty
+         */
+        public long longValue(int column, long missingValue) {
+            return isEmpty(column) ? missingValue : longValue(column);
+        }
+
+        /**
+         * @return true if the value is the given ascii value, ignoring case
+         */
+        public boolean equalsIgnoreCase(int column, String value) {
+            if(length(column) != value.length()) {
+                return false;
+            }
+            int s = starts[column];
+            for(int i=0;i<value.length();i++) {
+                if(Character.toLowerCase((char) data[s + i]) != Character.toLowerCase(value.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return pooled id of the value; -1 if it is missing
+         */
+        public short id(int column, StringPool pool) {
+            int length = length(column);
+            return length == 0 ? -1 : pool.id(data, starts[column], length);
+        }
+
+        /**
+         * @return copy of the utf8 bytes of the value or null if it is missing
+         */
+        public byte[] bytes(int column) {
+            int length = length(column);
+            return length == 0 ? null : Arrays.copyOfRange(data, starts[column], starts[column] + length);
+        }
+
+        /**
+         * @return the value or null if it is missing
+         */
+        public String string(int column) {
+            int length = length(column);
+            return length == 0 ? null : new String(data, starts[column], length, UTF8);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.jillesvangurp.geoplanet;
+
+import java.util.Arrays;
+
+/**
+ * Set of woeids with a bit per woeid. Bits are kept in pages that are only allocated when a woeid in their range is
+ * added, so the gaps in the woeid space don't cost anything.
+ *
+ * Adding is not thread safe; concurrent calls to contains are fine once everything has been added.
+ */
+class WoeIdSet implements WoeIds {
+    private static final int PAGE_BITS = 20;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+    private long[][] pages = new long[64][];
+    private int size = 0;
+
+    public void add(long woeid) {
+        int page = page(woeid);
+        if(page >= pages.length) {
+            pages = Arrays.copyOf(pages, Math.max(page + 1, pages.length * 2));
+        }
+        long[] bits = pages[page];
+        if(bits == null) {
+            bits = new long[(PAGE_MASK + 1) / 64];
+            pages[page] = bits;
+        }
+        int offset = (int) (woeid & PAGE_MASK);
+        long mask = 1L << (offset & 63);
+        if((bits[offset >>> 6] & mask) == 0) {
+            bits[offset >>> 6] |= mask;
+            size++;
+        }
+    }
+
+    @Override
+    public boolean contains(long woeid) {
+        if(woeid < 0) {
+            return false;
+        }
+        int page = page(woeid);
+        if(page >= pages.length || pages[page] == null) {
+            return false;
+        }
+        int offset = (int) (woeid & PAGE_MASK);
+        return (pages[page][offset >>> 6] & (1L << (offset & 63))) != 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int page(long woeid) {
+        if(woeid < 0 || woeid >>> PAGE_BITS > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("woeid out of range " + woeid);
+        }
+        return (int) (woeid >>> PAGE_BITS);
+    }
+}
@@ -0,0 +1,8 @@
+package com.github.jillesvangurp.geoplanet;
+
+/**
+ * Anything that can tell whether a woeid refers to a known place.
+ */
+interface WoeIds {
+    boolean contains(long woeid);
+}
@@ -0,0 +1,111 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static com.github.jsonj.tools.JsonBuilder.array;
+import static com.github.jsonj.tools.JsonBuilder.object;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.testng.annotations.Test;
+
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonObject;
+
+@Test
+public class BinaryOutputTest {
+
+    public void shouldReadBackPlaces() throws IOException {
+        File file = File.createTempFile("geoplanet", ".bin");
+        try {
+            try(BinaryOutput.Writer writer = new BinaryOutput.Writer(file.getPath(), 5)) {
+                writer.add(amsterdam());
+                writer.add(object().put("id", "1").get());
+                for(int i=0;i<1000;i++) {
+                    writer.add(object().put("id", Integer.toString(1000 + i)).put("title", "place " + i).get());
+                }
+            }
+            try(BinaryOutput output = BinaryOutput.open(file.getPath())) {
+                assertThat(output.records(), is(1002L));
+                BinaryOutput.Cursor cursor = output.cursor();
+
+                assertThat(cursor.next(), is(true));
+                assertThat(cursor.woeid(), is(727232L));
+                assertThat(cursor.parentWoeid(), is(12591836L));
+                assertThat(cursor.placeType(), is("Town"));
+                assertThat(cursor.country(), is("NL"));
+                assertThat(cursor.title(), is("Amsterdam"));
+                assertThat(cursor.names(), is(3));
+                assertThat(cursor.nameLanguage(2), is("ENG"));
+                assertThat(cursor.name(1), is("Mokum"));
+                assertThat(cursor.ancestors().length, is(2));
+                assertThat(cursor.ancestors()[1], is(23424909L));
+                assertThat(cursor.neighbors().length, is(1));
+                assertThat(cursor.geometryWoeid(), is(-1L));
+                assertThat(cursor.polygons(), is(2));
+                assertThat(cursor.rings(1), is(1));
+                double[] ring = cursor.ring(1, 0);
+                assertThat(ring.length, is(8));
+                assertThat(ring[0], is(5.12346));
+                assertThat(ring[2], is(6.12346));
+                assertThat(ring[3], is(-1.0));
+                assertThat(ring[5], is(0.0));
+
+                assertThat(cursor.next(), is(true));
+                assertThat(cursor.woeid(), is(1L));
+                assertThat(cursor.parentWoeid(), is(-1L));
+                assertThat(cursor.title(), nullValue());
+                assertThat(cursor.placeType(), nullValue());
+                assertThat(cursor.names(), is(0));
+                assertThat(cursor.polygons(), is(0));
+
+                int count = 0;
+                while(cursor.next()) {
+                    assertThat(cursor.title(), is("place " + count));
+                    count++;
+                }
+                assertThat(count, is(1000));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void shouldZigZagEncode() {
+        for(long value: new long[] {0, 1, -1, 42, -4242, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            assertThat(BinaryOutput.zigZagDecode(BinaryOutput.zigZagEncode(value)), is(value));
+        }
+        assertThat(BinaryOutput.zigZagEncode(-1), is(1L));
+    }
+
+    private static JsonObject amsterdam() {
+        JsonObject names = object().put("DUT", array("Amsterdam", "Mokum")).put("ENG", array("Amsterdam")).get();
+        JsonArray polygons = new JsonArray();
+        polygons.add(polygon(0, 0));
+        polygons.add(polygon(5.123456, -1));
+        return object()
+                .put("id", "727232")
+                .put("title", "Amsterdam")
+                .put("categories", object().put("geoplanet", array("Town")).get())
+                .put(GeoPlanetConverter.PARENT_ID, "12591836")
+                .put("country", "NL")
+                .put("name", names)
+                .put(GeoPlanetConverter.ANCESTOR_IDS, array("12591836", "23424909"))
+                .put(GeoPlanetConverter.NEIGHBOR_IDS, array("42"))
+                .put("geometry", object().put("type", "MultiPolygon").put("coordinates", polygons).get())
+                .get();
+    }
+
+    private static JsonArray polygon(double x, double y) {
+        JsonArray ring = new JsonArray();
+        ring.add(array(x, y));
+        ring.add(array(x + 1, y));
+        ring.add(array(x + 1, y + 1));
+        ring.add(array(x, y));
+        JsonArray polygon = new JsonArray();
+        polygon.add(ring);
+        return polygon;
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.testng.annotations.Test;
+
+import com.github.jsonj.JsonObject;
+
+@Test
+public class CheckpointsTest {
+
+    public void shouldRestoreStoreFromCheckpoints() throws IOException {
+        final PlaceStore store = new PlaceStore();
+        store.addPlace(727232, "NL", "Amsterdam", "DUT", "Town", 12591836);
+        store.addPlace(12591836, "NL", "Noord-Holland", "DUT", "State", 23424909);
+        store.index();
+        int row = store.row(727232);
+        store.addName(row, "ENG", "Amsterdam", true);
+        store.addName(row, "DUT", "Mokum", false);
+        store.addNeighbor(row, 12591836);
+        store.merge(2);
+
+        Checkpoints checkpoints = new Checkpoints(Files.createTempDirectory("checkpoints").toFile());
+        checkpoints.save("places", "a", new Checkpoints.Writer() {
+            @Override
+            public void write(DataOutputStream out) throws IOException {
+                store.writePlaces(out);
+            }
+        });
+        checkpoints.save("aliases", "a", new Checkpoints.Writer() {
+            @Override
+            public void write(DataOutputStream out) throws IOException {
+                store.writeNames(out);
+            }
+        });
+        checkpoints.save("adjacencies", "a", new Checkpoints.Writer() {
+            @Override
+            public void write(DataOutputStream out) throws IOException {
+                store.writeNeighbors(out);
+            }
+        });
+
+        final PlaceStore restored = new PlaceStore();
+        assertThat(checkpoints.load("places", "a", new Checkpoints.Reader() {
+            @Override
+            public void read(DataInputStream in) throws IOException {
+                restored.readPlaces(in);
+            }
+        }), is(true));
+        assertThat(checkpoints.load("aliases", "a", new Checkpoints.Reader() {
+            @Override
+            public void read(DataInputStream in) throws IOException {
+                restored.readNames(in);
+            }
+        }), is(true));
+        assertThat(checkpoints.load("adjacencies", "a", new Checkpoints.Reader() {
+            @Override
+            public void read(DataInputStream in) throws IOException {
+                restored.readNeighbors(in);
+            }
+        }), is(true));
+
+        assertThat(restored.rows(), is(2));
+        for(long woeid: new long[] {727232, 12591836}) {
+            JsonObject expected = store.toJson(store.row(woeid));
+            assertThat(restored.toJson(restored.row(woeid)), is(expected));
+        }
+    }
+
+    public void shouldReplaceCheckpointWithOtherKey() throws IOException {
+        File dir = Files.createTempDirectory("checkpoints").toFile();
+        Checkpoints checkpoints = new Checkpoints(dir);
+        Checkpoints.Writer writer = new Checkpoints.Writer() {
+            @Override
+            public void write(DataOutputStream out) throws IOException {
+                out.writeInt(42);
+            }
+        };
+        checkpoints.save("places", "a", writer);
+        checkpoints.save("places", "b", writer);
+        assertThat(checkpoints.file("places", "a").exists(), is(false));
+        assertThat(checkpoints.file("places", "b").exists(), is(true));
+        assertThat(checkpoints.load("places", "a", null), is(false));
+    }
+
+    public void shouldChangeChecksumWhenContentChanges() throws IOException {
+        File file = File.createTempFile("input", ".tsv");
+        try(FileOutputStream out = new FileOutputStream(file)) {
+            out.write("1\t2\n".getBytes("UTF-8"));
+        }
+        String before = Checkpoints.checksum(file.getAbsolutePath());
+        try(FileOutputStream out = new FileOutputStream(file)) {
+            out.write("1\t3\n".getBytes("UTF-8"));
+        }
+        assertThat(Checkpoints.checksum(file.getAbsolutePath()), not(before));
+        assertThat(Checkpoints.key("x", before), not(Checkpoints.key("x", Checkpoints.checksum(file.getAbsolutePath()))));
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.Test;
+
+@Test
+public class FeaturePipelineTest {
+
+    public void shouldWriteInSubmissionOrder() throws Exception {
+        String[] lines = run(true);
+        for(int i=0;i<lines.length;i++) {
+            // 500 is skipped
+            assertThat(lines[i], is("" + (i < 500 ? i : i + 1)));
+        }
+    }
+
+    public void shouldWriteAllLinesWhenUnordered() throws Exception {
+        String[] lines = run(false);
+        Set<String> unique = new HashSet<>(Arrays.asList(lines));
+        assertThat(lines.length, is(999));
+        assertThat(unique.size(), is(999));
+    }
+
+    @Test(timeOut = 10000)
+    public void shouldFinishWhenClosedWithTasksQueuedInOrder() throws Exception {
+        finishAfterClose(true);
+    }
+
+    @Test(timeOut = 10000)
+    public void shouldFinishWhenClosedWithTasksQueuedUnordered() throws Exception {
+        finishAfterClose(false);
+    }
+
+    @Test(timeOut = 10000)
+    public void shouldReleaseThePermitOfARejectedTask() throws Exception {
+        StringWriter writer = new StringWriter();
+        FeaturePipeline pipeline = new FeaturePipeline(1, 1, true);
+        FeaturePipeline.Output output = pipeline.open(writer);
+        pipeline.close();
+        try {
+            output.submit(line("rejected"));
+            throw new AssertionError("expected the task to be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        // would block if the rejected task kept its permit
+        output.finish();
+        assertThat(writer.toString(), is(""));
+    }
+
+    @Test(timeOut = 10000)
+    public void shouldStopWritingWhenFinishIsInterrupted() throws Exception {
+        StringWriter writer = new StringWriter();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        try(FeaturePipeline pipeline = new FeaturePipeline(1, 10, true)) {
+            final FeaturePipeline.Output output = pipeline.open(writer);
+            output.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    blocked.await();
+                    return "late";
+                }
+            });
+            final AtomicReference<Exception> failure = new AtomicReference<>();
+            Thread finisher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        output.finish();
+                    } catch (Exception e) {
+                        failure.set(e);
+                    }
+                }
+            });
+            finisher.start();
+            Thread.sleep(100);
+            finisher.interrupt();
+            finisher.join();
+            assertThat(failure.get() instanceof InterruptedException, is(true));
+            blocked.countDown();
+        }
+        assertThat(writer.toString(), is(""));
+    }
+
+    private void finishAfterClose(boolean ordered) throws Exception {
+        StringWriter writer = new StringWriter();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        FeaturePipeline pipeline = new FeaturePipeline(1, 10, ordered);
+        FeaturePipeline.Output output = pipeline.open(writer);
+        output.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                // interrupted by close
+                blocked.await();
+                return "interrupted";
+            }
+        });
+        for(int i=0;i<5;i++) {
+            output.submit(line("queued"));
+        }
+        pipeline.close();
+        // would block on the tasks that close dropped from the queue
+        output.finish();
+        assertThat(writer.toString(), is(""));
+    }
+
+    private static Callable<String> line(final String line) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return line;
+            }
+        };
+    }
+
+    private String[] run(boolean ordered) throws Exception {
+        StringWriter writer = new StringWriter();
+        final Random random = new Random(42);
+        try(FeaturePipeline pipeline = new FeaturePipeline(4, 10, ordered)) {
+            FeaturePipeline.Output output = pipeline.open(writer);
+            for(int i=0;i<1000;i++) {
+                final int n = i;
+                final int sleep = random.nextInt(3);
+                output.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        Thread.sleep(sleep);
+                        // null means no output
+                        return n == 500 ? null : "" + n;
+                    }
+                });
+            }
+            output.finish();
+        }
+        String[] lines = writer.toString().split("\n");
+        assertThat(lines.length, is(999));
+        return lines;
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.testng.annotations.Test;
+
+import com.github.jsonj.tools.JsonParser;
+
+@Test
+public class FlickShapeProcessorTest {
+
+    public void shouldLeaveNothingBehindWhenAFileFails() throws IOException {
+        File dir = Files.createTempDirectory("flickr").toFile();
+        File output = new File(dir, "flickr.json.gz");
+        Files.write(output.toPath(), new byte[] { 42 });
+        try(FeaturePipeline pipeline = new FeaturePipeline(2, 100, true)) {
+            FlickShapeProcessor processor = new FlickShapeProcessor(new JsonParser(), true, pipeline,
+                    new PolygonRepair(PolygonRepair.Strategy.HULL, 1000, 1000), null);
+            try {
+                processor.processAll(Arrays.asList(new File(dir, "missing1.geojson.gz").getPath(),
+                        new File(dir, "missing2.geojson.gz").getPath()), output.getPath());
+                throw new AssertionError("expected the missing files to fail");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        // the previous output is untouched and the parts and the temporary output are gone
+        assertThat(Files.readAllBytes(output.toPath()), is(new byte[] { 42 }));
+        assertThat(dir.list().length, is(1));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectEmptyFileList() throws IOException {
+        try(FeaturePipeline pipeline = new FeaturePipeline(1, 100, true)) {
+            new FlickShapeProcessor(new JsonParser(), true, pipeline, new PolygonRepair(PolygonRepair.Strategy.HULL, 1000, 1000), null)
+                    .processAll(Collections.<String>emptyList(), "flickr.json.gz");
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.testng.annotations.Test;
+
+@Test
+public class FlickrShapeLineTest {
+    private static final String GEOMETRY = "{\"type\":\"Polygon\",\"coordinates\":[[[4.8,52.3],[4.9,52.3],[4.9,52.4],[4.8,52.3]]]}";
+
+    public void shouldFindWoeidAndGeometry() {
+        String line = "{\"title\":\"Amsterdam\",\"ids\":[\"727232\",\"abc\"],\"categories\":{\"flickr\":[\"locality\"]},\"geometry\":"
+                + GEOMETRY + "}";
+        assertThat(FlickrShapeLine.woeid(line), is(727232l));
+        assertThat(FlickrShapeLine.geometry(line), is(GEOMETRY));
+    }
+
+    public void shouldSkipGeohashAndKeysInStrings() {
+        String line = "u173zq;{ \"title\" : \"\\\"geometry\\\": {\\\"ids\\\":[\\\"1\\\"]}\" , \"geometry\" : " + GEOMETRY
+                + " , \"ids\" : [ \"42\" ] }";
+        assertThat(FlickrShapeLine.woeid(line), is(42l));
+        assertThat(FlickrShapeLine.geometry(line), is(GEOMETRY));
+    }
+
+    public void shouldReturnNullWithoutGeometry() {
+        assertThat(FlickrShapeLine.geometry("{\"ids\":[\"1\"],\"nested\":{\"geometry\":{}}}"), nullValue());
+        assertThat(FlickrShapeLine.hasGeometry("{\"ids\":[\"1\"],\"nested\":{\"geometry\":{}}}"), is(false));
+        assertThat(FlickrShapeLine.hasGeometry("{\"ids\":[\"1\"],\"geometry\":" + GEOMETRY + "}"), is(true));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectLineWithoutIds() {
+        FlickrShapeLine.woeid("{\"title\":\"x\"}");
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+
+@Test
+public class GeoJsonFeatureReaderTest {
+
+    public void shouldReadFeaturesOneByOne() {
+        String json = "{\"type\": \"FeatureCollection\", \"bbox\": [1, 2, 3, 4], \"name\": \"features [\\\"{\",\n"
+                + "  \"features\": [\n"
+                + "    {\"type\": \"Feature\", \"properties\": {\"label\": \"a }] \\\" b\", \"woe_id\": 1}, \"geometry\": {\"type\": \"Polygon\", \"coordinates\": [[[1, 2], [3, 4], [1, 2]]]}},\n"
+                + "    {\"type\": \"Feature\", \"properties\": {\"label\": \"c\", \"woe_id\": 2}, \"geometry\": null}\n"
+                + "  ]\n"
+                + "}";
+        List<JsonObject> features = new ArrayList<>();
+        for(JsonObject feature: new GeoJsonFeatureReader(new StringReader(json), new JsonParser())) {
+            features.add(feature);
+        }
+        assertThat(features.size(), is(2));
+        assertThat(features.get(0).getString("properties", "label"), is("a }] \" b"));
+        assertThat(features.get(0).getArray("geometry", "coordinates").get(0).asArray().size(), is(3));
+        assertThat(features.get(1).getString("properties", "label"), is("c"));
+    }
+
+    public void shouldHandleEmptyCollection() {
+        GeoJsonFeatureReader reader = new GeoJsonFeatureReader(new StringReader("{\"type\":\"FeatureCollection\",\"features\":[]}"), new JsonParser());
+        assertThat(reader.iterator().hasNext(), is(false));
+    }
+}
@@ -3,8 +3,25 @@ package com.github.jillesvangurp.geoplanet;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
 import org.testng.annotations.Test;
 
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+
 @Test
 public class GeoPlanetConverterTest {
 
@@ -13,4 +30,175 @@ public class GeoPlanetConverterTest {
         assertThat(GeoPlanetConverter.deqoute("foo"), is("foo"));
     }
 
+    public void shouldCleanUpPlace() {
+        JsonObject place = new JsonParser().parse("{\"WOE_ID\":\"2\",\"ISO\":\"NL\",\"Name\":\"Amsterdam\",\"Language\":\"DUT\","
+                + "\"PlaceType\":\"Town\",\"Parent_ID\":\"1\",\"name\":{\"ENG\":[\"Amsterdam\"]},\"ancestor_woeids\":[\"1\"],"
+                + "\"geometry_woeid\":\"1\"}").asObject();
+        JsonObject cleaned = GeoPlanetConverter.PostProcess.clean(place);
+        assertThat(cleaned.getString("id"), is("2"));
+        assertThat(cleaned.getString("title"), is("Amsterdam"));
+        assertThat(cleaned.getString("country"), is("NL"));
+        assertThat(cleaned.getString("parentId"), is("1"));
+        assertThat(cleaned.getObject("name").getArray("DUT").get(0).asString(), is("Amsterdam"));
+        assertThat(cleaned.getObject("categories").getArray("geoplanet").get(0).asString(), is("Town"));
+        assertThat(cleaned.getArray("ancestors").size(), is(1));
+        assertThat(cleaned.getString("geometryId"), is("1"));
+    }
+
+    public void shouldSpliceGeometry() throws IOException {
+        String geometry = "{\"type\":\"Point\",\"coordinates\":[4.9,52.4]}";
+        JsonObject place = new JsonParser().parse("{\"id\":\"2\",\"title\":\"Amsterdam\"}").asObject();
+        StringWriter out = new StringWriter();
+        GeoPlanetConverter.write(out, place, geometry);
+        JsonObject written = new JsonParser().parse(out.toString()).asObject();
+        assertThat(written.getString("title"), is("Amsterdam"));
+        assertThat(written.getObject("geometry"), is(new JsonParser().parse(geometry).asObject()));
+
+        out = new StringWriter();
+        GeoPlanetConverter.write(out, new JsonObject(), geometry);
+        assertThat(new JsonParser().parse(out.toString()).asObject().getObject("geometry").getString("type"), is("Point"));
+    }
+
+    public void shouldWriteShardsAndBinaryTogether() throws IOException {
+        File dir = Files.createTempDirectory("converter").toFile();
+        try {
+            int shapes = input(dir);
+            GeoPlanetConverter converter = converter(dir);
+            converter.setShards(3);
+            converter.setBinaryFile(new File(dir, "out.bin").getPath());
+            converter.convert(new File(dir, "out.json.gz").getPath());
+
+            int places = 0;
+            int geometries = 0;
+            for(int i=0;i<3;i++) {
+                try(BufferedReader br = GeoPlanetConverter.gzipFileReader(new File(dir, "out-" + i + ".json.gz").getPath())) {
+                    String line;
+                    while((line = br.readLine()) != null) {
+                        int first = line.indexOf("\"geometry\":");
+                        if(first >= 0) {
+                            assertThat(line, line.indexOf("\"geometry\":", first + 1), is(-1));
+                            geometries++;
+                        }
+                        places++;
+                    }
+                }
+            }
+            assertThat(places, is(2000));
+            assertThat(geometries, is(shapes));
+
+            int binaryGeometries = 0;
+            try(BinaryOutput binary = BinaryOutput.open(new File(dir, "out.bin").getPath())) {
+                assertThat(binary.records(), is(2000l));
+                BinaryOutput.Cursor cursor = binary.cursor();
+                while(cursor.next()) {
+                    if(cursor.polygons() > 0) {
+                        binaryGeometries++;
+                    }
+                }
+            }
+            assertThat(binaryGeometries, is(shapes));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    static GeoPlanetConverter converter(File dir) {
+        return new GeoPlanetConverter(new File(dir, SyntheticData.PLACES_FILE).getPath(), new File(dir, SyntheticData.ALIASES_FILE).getPath(),
+                new File(dir, SyntheticData.ADJACENCIES_FILE).getPath(), new File(dir, "flickr.json.gz").getPath());
+    }
+
+    public void shouldWriteTheSamePlacesInBothJoinModes() throws IOException {
+        File dir = Files.createTempDirectory("converter").toFile();
+        try {
+            input(dir);
+            File inMemory = new File(dir, "in-memory.json.gz");
+            converter(dir).convert(inMemory.getPath());
+            File partitioned = new File(dir, "partitioned.json.gz");
+            converter(dir).convertPartitioned(partitioned.getPath(), 4, dir);
+            Map<String, JsonObject> expected = places(inMemory);
+            assertThat(expected.size(), is(2000));
+            // the partitioned output has the places in a different order, but the same records
+            assertThat(places(partitioned), is(expected));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private static Map<String, JsonObject> places(File file) throws IOException {
+        Map<String, JsonObject> places = new HashMap<>();
+        JsonParser parser = new JsonParser();
+        try(BufferedReader br = GeoPlanetConverter.gzipFileReader(file.getPath())) {
+            String line;
+            while((line = br.readLine()) != null) {
+                JsonObject place = parser.parse(line).asObject();
+                places.put(place.getString("id"), place);
+            }
+        }
+        return places;
+    }
+
+    public void shouldOnlyReferToPlacesWithAGeometryWhenPartitioned() throws IOException {
+        File dir = Files.createTempDirectory("converter").toFile();
+        try {
+            input(dir);
+            File output = new File(dir, "out.json.gz");
+            converter(dir).convertPartitioned(output.getPath(), 3, dir);
+            Set<String> withGeometry = new HashSet<>();
+            Set<String> geometryIds = new HashSet<>();
+            JsonParser parser = new JsonParser();
+            try(BufferedReader br = GeoPlanetConverter.gzipFileReader(output.getPath())) {
+                String line;
+                while((line = br.readLine()) != null) {
+                    JsonObject place = parser.parse(line).asObject();
+                    if(place.getObject("geometry") != null) {
+                        withGeometry.add(place.getString("id"));
+                    }
+                    if(place.getString("geometryId") != null) {
+                        geometryIds.add(place.getString("geometryId"));
+                    }
+                }
+            }
+            assertThat(geometryIds.isEmpty(), is(false));
+            assertThat(withGeometry.containsAll(geometryIds), is(true));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    /**
+     * Generates 2000 places and a flickr shapes file with a square for every seventh place, starting with the first,
+     * and a shape without a geometry for every seventh place, starting with the fourth.
+     *
+     * @return number of shapes
+     */
+    static int input(File dir) throws IOException {
+        SyntheticData.Profile profile = new SyntheticData.Profile();
+        profile.places = 2000;
+        new SyntheticData(profile, 1, 42).generate(dir);
+        List<Long> woeids = new ArrayList<>();
+        try(TsvReader reader = TsvReader.openGzipFile(new File(dir, SyntheticData.PLACES_FILE).getPath())) {
+            int woeidColumn = GeoPlanetConverter.column(reader.header(), GeoPlanetConverter.WOE_ID);
+            for(TsvReader.Block block: reader) {
+                TsvReader.Record record = block.records();
+                while(record.next()) {
+                    woeids.add(record.longValue(woeidColumn));
+                }
+            }
+        }
+        int shapes = 0;
+        try(BufferedWriter bw = GeoPlanetConverter.gzipFileWriter(new File(dir, "flickr.json.gz").getPath())) {
+            for(int i=3;i<woeids.size();i+=7) {
+                // shapes without a geometry are not attached
+                bw.write("{\"title\":\"empty " + i + "\",\"ids\":[\"" + woeids.get(i) + "\"]}");
+                bw.newLine();
+            }
+            for(int i=0;i<woeids.size();i+=7) {
+                bw.write("{\"title\":\"shape " + i + "\",\"ids\":[\"" + woeids.get(i) + "\"],\"geometry\":{\"type\":\"Polygon\","
+                        + "\"coordinates\":[[[" + i + ",0],[" + i + ",1],[" + (i + 1) + ",1],[" + i + ",0]]]}}");
+                bw.newLine();
+                shapes++;
+            }
+        }
+        return shapes;
+    }
 }
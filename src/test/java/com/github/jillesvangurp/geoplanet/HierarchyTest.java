@@ -0,0 +1,110 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+
+import org.testng.annotations.Test;
+
+@Test
+public class HierarchyTest {
+
+    public void shouldComputeDepths() {
+        Hierarchy hierarchy = new Hierarchy(1);
+        hierarchy.add(4, 3);
+        hierarchy.add(3, 2);
+        hierarchy.add(1, 0);
+        hierarchy.add(2, 1);
+        hierarchy.add(5, 42);
+        hierarchy.computeDepths();
+        assertThat(hierarchy.depth(1), is(0));
+        assertThat(hierarchy.depth(4), is(3));
+        // parent is not a known place
+        assertThat(hierarchy.depth(5), is(0));
+        assertThat(hierarchy.depth(6), is(-1));
+        assertThat(hierarchy.parent(4), is(3L));
+        assertThat(hierarchy.size(), is(5));
+    }
+
+    public void shouldResolveAncestors() {
+        Hierarchy hierarchy = new Hierarchy(1);
+        hierarchy.add(1, -1);
+        hierarchy.add(2, 1);
+        hierarchy.add(3, 2);
+        hierarchy.add(4, 3);
+        hierarchy.setHasGeometry(2);
+        hierarchy.computeDepths();
+        assertThat(hierarchy.ancestors(4), is(new long[] { 3, 2, 1 }));
+        assertThat(hierarchy.ancestors(1).length, is(0));
+        assertThat(hierarchy.nearestAncestorWithGeometry(4), is(2L));
+        assertThat(hierarchy.nearestAncestorWithGeometry(2), is(-1L));
+    }
+
+    public void shouldCutCycles() {
+        Hierarchy hierarchy = new Hierarchy(10);
+        hierarchy.add(1, 2);
+        hierarchy.add(2, 3);
+        hierarchy.add(3, 1);
+        hierarchy.add(4, 1);
+        hierarchy.computeDepths();
+        assertThat(hierarchy.cycles(), is(1));
+        // the first walk goes 4, 1, 2, 3 and back to 1, so 3 is the last place on the path and becomes the root
+        assertThat(hierarchy.depth(3), is(0));
+        assertThat(hierarchy.depth(2), is(1));
+        assertThat(hierarchy.depth(1), is(2));
+        assertThat(hierarchy.ancestors(1), is(new long[] { 2, 3 }));
+        assertThat(hierarchy.depth(4), is(hierarchy.depth(1) + 1));
+        // the chain ends where the cycle was cut rather than going round
+        assertThat(hierarchy.ancestors(4).length, is(hierarchy.depth(4)));
+    }
+
+    public void shouldResolveTheSameOnDisk() throws IOException {
+        File dir = Files.createTempDirectory("hierarchy").toFile();
+        Hierarchy onHeap = new Hierarchy(1);
+        Hierarchy onDisk = new Hierarchy(1, dir);
+        for(Hierarchy hierarchy: new Hierarchy[] { onHeap, onDisk }) {
+            for(int i=1;i<=100000;i++) {
+                // a tree of 10 levels with a cycle at the end
+                hierarchy.add(i, i == 100000 ? 99990 : i <= 10 ? i - 1 : i / 10);
+                if(i % 7 == 0) {
+                    hierarchy.setHasGeometry(i);
+                }
+            }
+            hierarchy.computeDepths();
+        }
+        assertThat(onDisk.size(), is(onHeap.size()));
+        assertThat(onDisk.cycles(), is(onHeap.cycles()));
+        for(int i=1;i<=100000;i++) {
+            assertThat(onDisk.ancestors(i), is(onHeap.ancestors(i)));
+            assertThat(onDisk.nearestAncestorWithGeometry(i), is(onHeap.nearestAncestorWithGeometry(i)));
+        }
+        // the mapped files are deleted as soon as they are mapped
+        assertThat(dir.list().length, is(0));
+    }
+
+    public void shouldNotUseHeapForPlacesOnDisk() throws IOException {
+        // the partitioned join keeps the hierarchy of all places on disk, so more places and partitions should not need
+        // more heap; on the heap 1M places take about 40MB
+        File dir = Files.createTempDirectory("hierarchy").toFile();
+        long before = usedHeapAfterGc();
+        Hierarchy hierarchy = new Hierarchy(1, dir);
+        for(int i=1;i<=1000000;i++) {
+            hierarchy.add(i, i / 10);
+        }
+        hierarchy.computeDepths();
+        long growth = usedHeapAfterGc() - before;
+        assertThat(hierarchy.depth(999999), is(5));
+        assertThat("heap growth " + growth, growth < 8 * 1024 * 1024, is(true));
+    }
+
+    private static long usedHeapAfterGc() {
+        for(int i=0;i<3;i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+@Test
+public class NameIndexTest {
+
+    public void shouldNormalizeNames() {
+        assertThat(NameIndex.normalize("S\u00e3o Paulo"), is("sao paulo"));
+        assertThat(NameIndex.normalize("  K\u00f6ln-Deutz, (Bahnhof) "), is("koln deutz bahnhof"));
+        assertThat(NameIndex.normalize("\u6771\u4eac"), is("\u6771\u4eac"));
+        assertThat(NameIndex.normalize("--"), is(""));
+    }
+
+    public void shouldRankByPlaceType() {
+        assertThat(NameIndex.rank("Country"), is(0));
+        assertThat(NameIndex.rank("town") < NameIndex.rank("Suburb"), is(true));
+        assertThat(NameIndex.rank("Colloquial") < NameIndex.rank("POI"), is(true));
+    }
+
+    public void shouldLookUpExactAndByPrefix() throws IOException {
+        NameIndex index = index(
+                "1", "POI", "ENG", "Paris Hotel",
+                "2", "Town", "FRE", "Paris",
+                "3", "Country", "SPA", "Paraguay",
+                "4", "Town", "ENG", "Paris",
+                "5", "Suburb", "ENG", "Parkside",
+                "2", "Town", "FRE", "paris",
+                "6", "Town", "POR", "S\u00e3o Paulo");
+
+        assertThat(index.exact("paris", 10), is(new long[] { 2, 4 }));
+        assertThat(index.exact("PARIS", "FRE", 10), is(new long[] { 2 }));
+        assertThat(index.exact("par", 10), is(new long[0]));
+        assertThat(index.exact("paris", "DUT", 10), is(new long[0]));
+
+        assertThat(index.complete("par", 10), is(new long[] { 3, 2, 4, 5, 1 }));
+        assertThat(index.complete("par", 2), is(new long[] { 3, 2 }));
+        assertThat(index.complete("Paris ", 10), is(new long[] { 2, 4, 1 }));
+        assertThat(index.complete("sao p", 10), is(new long[] { 6 }));
+        assertThat(index.complete("", 10), is(new long[0]));
+        assertThat(index.complete("x", 10), is(new long[0]));
+        // the second french name of 2 is the same after normalizing, so it is only stored once
+        assertThat(index.size(), is(6));
+    }
+
+    public void shouldFindEveryName() throws IOException {
+        File file = File.createTempFile("names", ".gz");
+        file.deleteOnExit();
+        Random random = new Random(42);
+        String[] names = new String[5000];
+        try(NameIndex.Writer writer = new NameIndex.Writer(file.getPath())) {
+            for(int i=0;i<names.length;i++) {
+                names[i] = "place " + Integer.toString(random.nextInt(1000000), 36);
+                writer.add(i, i % 2 == 0 ? "Town" : "Zip", "ENG", names[i]);
+            }
+        }
+        NameIndex index = NameIndex.load(file.getPath());
+        for(int i=0;i<names.length;i++) {
+            boolean found = false;
+            for(long woeid: index.exact(names[i], 100)) {
+                found |= woeid == i;
+            }
+            assertThat(names[i], found, is(true));
+        }
+    }
+
+    public void shouldMergeSpilledRuns() throws IOException {
+        File dir = Files.createTempDirectory("names").toFile();
+        File inMemory = new File(dir, "in-memory.gz");
+        File spilled = new File(dir, "spilled.gz");
+        String[] types = { "Country", "Town", "Zip", "Suburb" };
+        Random random = new Random(42);
+        try(NameIndex.Writer memoryWriter = new NameIndex.Writer(inMemory.getPath());
+                NameIndex.Writer spillingWriter = new NameIndex.Writer(spilled.getPath())) {
+            for(int i=0;i<5000;i++) {
+                // names and woeids repeat, so duplicates end up in different runs
+                long woeid = random.nextInt(2000);
+                String name = "place " + Integer.toString(random.nextInt(3000), 36);
+                String language = random.nextBoolean() ? "ENG" : "DUT";
+                memoryWriter.add(woeid, types[(int) (woeid % types.length)], language, name);
+                spillingWriter.add(woeid, types[(int) (woeid % types.length)], language, name);
+                if(i % 1000 == 999) {
+                    spillingWriter.spill();
+                }
+            }
+        }
+        assertThat(dir.list().length, is(2));
+        assertThat(Files.readAllBytes(spilled.toPath()), is(Files.readAllBytes(inMemory.toPath())));
+        NameIndex index = NameIndex.load(spilled.getPath());
+        assertThat(index.size(), is(NameIndex.load(inMemory.getPath()).size()));
+    }
+
+    private static NameIndex index(String... postings) throws IOException {
+        File file = File.createTempFile("names", ".gz");
+        file.deleteOnExit();
+        try(NameIndex.Writer writer = new NameIndex.Writer(file.getPath())) {
+            for(int i=0;i<postings.length;i+=4) {
+                writer.add(Long.parseLong(postings[i]), postings[i + 1], postings[i + 2], postings[i + 3]);
+            }
+        }
+        return NameIndex.load(file.getPath());
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.Test;
+
+@Test
+public class ParallelGzipOutputStreamTest {
+
+    public void shouldWriteGzipMembersThatReadBackAsOneStream() throws IOException {
+        byte[] data = new byte[100000];
+        Random random = new Random(42);
+        for(int i=0;i<data.length;i++) {
+            data[i] = (byte) ('a' + random.nextInt(4));
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try(ParallelGzipOutputStream out = new ParallelGzipOutputStream(bos, 4096, 3)) {
+            out.write(data, 0, 10);
+            out.write(data[10]);
+            out.write(data, 11, data.length - 11);
+        }
+        assertThat(IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(bos.toByteArray()))), is(data));
+    }
+
+    public void shouldWriteValidGzipForEmptyStream() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(bos).close();
+        assertThat(IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(bos.toByteArray()))).length, is(0));
+    }
+}
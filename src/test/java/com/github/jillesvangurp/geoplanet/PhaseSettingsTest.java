@@ -0,0 +1,35 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+@Test
+public class PhaseSettingsTest {
+
+    public void shouldOverrideDefaultsWithSystemProperties() {
+        System.setProperty("geoplanet.testphase.threads", "3");
+        System.setProperty("geoplanet.testphase.autoTune", "true");
+        try {
+            PhaseSettings settings = PhaseSettings.forLinePhase("testphase");
+            assertThat(settings.threads(), is(3));
+            assertThat(settings.blockSize(), is(10000));
+            assertThat(settings.autoTune(), is(true));
+            assertThat(PhaseSettings.forTsvPhase("otherphase").threads(), is(PhaseSettings.CORES));
+        } finally {
+            System.clearProperty("geoplanet.testphase.threads");
+            System.clearProperty("geoplanet.testphase.autoTune");
+        }
+    }
+
+    public void shouldVaryThreadsAndBlockSize() {
+        List<PhaseSettings> candidates = new PhaseSettings("test", 1, 1, 2, true).candidates();
+        // can't go below one thread or one item per block
+        assertThat(candidates.size(), is(3));
+        assertThat(candidates.get(1).threads(), is(2));
+        assertThat(candidates.get(2).blockSize(), is(4));
+    }
+}
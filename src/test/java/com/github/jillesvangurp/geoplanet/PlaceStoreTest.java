@@ -0,0 +1,124 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.testng.annotations.Test;
+
+import com.github.jsonj.JsonObject;
+
+@Test
+public class PlaceStoreTest {
+
+    public void shouldLookupPlacesByWoeId() {
+        PlaceStore store = new PlaceStore();
+        for(int i=0;i<100000;i++) {
+            store.addPlace(i * 7L, "NL", "place " + i, "DUT", "Town", 1);
+        }
+        store.index();
+        assertThat(store.rows(), is(100000));
+        assertThat(store.row(7 * 4242L), is(4242));
+        assertThat(store.contains(8), is(false));
+    }
+
+    public void shouldConvertRowToJson() {
+        PlaceStore store = new PlaceStore();
+        store.addPlace(727232, "NL", "Amsterdam", "DUT", "Town", 12591836);
+        store.addPlace(1, null, null, null, "Earth", -1);
+        store.index();
+        int row = store.row(727232);
+        store.addName(row, "DUT", "Amsterdam", false);
+        store.addName(row, "ENG", "Amsterdam", false);
+        store.addName(row, "DUT", "Mokum", false);
+        store.addName(row, "DUT", "Amsterdam", true);
+        store.addName(row, "DUT", "A'dam", true);
+        store.addNeighbor(row, 42);
+        store.addNeighbor(row, 42);
+        store.merge(2);
+
+        JsonObject amsterdam = store.toJson(row);
+        assertThat(amsterdam.getString("WOE_ID"), is("727232"));
+        assertThat(amsterdam.getString("ISO"), is("NL"));
+        assertThat(amsterdam.getString("Parent_ID"), is("12591836"));
+        assertThat(amsterdam.getArray("name", "DUT").size(), is(3));
+        assertThat(amsterdam.getArray("name", "DUT").get(0).asString(), is("A'dam"));
+        assertThat(amsterdam.getArray("name", "DUT").get(1).asString(), is("Amsterdam"));
+        assertThat(amsterdam.getArray("name", "ENG").size(), is(1));
+        assertThat(amsterdam.getArray("neighbor_woeids").size(), is(1));
+
+        JsonObject earth = store.toJson(store.row(1));
+        assertThat(earth.getString("ISO"), nullValue());
+        assertThat(earth.getString("Parent_ID"), nullValue());
+        assertThat(earth.getObject("name"), nullValue());
+    }
+
+    public void shouldStoreGeometriesAsIs() {
+        PlaceStore store = new PlaceStore();
+        for(int i=0;i<1000;i++) {
+            store.addPlace(i, "NL", "place " + i, "DUT", "Town", -1);
+        }
+        store.index();
+        StringBuilder large = new StringBuilder("{\"type\":\"Polygon\",\"coordinates\":[[");
+        for(int i=0;i<100000;i++) {
+            large.append("[4.123456,52.123456],");
+        }
+        large.append("[4.123456,52.123456]]]}");
+        for(int i=0;i<1000;i+=2) {
+            store.setGeometry(i, i == 500 ? large.toString() : "{\"type\":\"Point\",\"coordinates\":[" + i + ",1]}");
+        }
+        for(int i=0;i<1000;i++) {
+            assertThat(store.hasGeometry(i), is(i % 2 == 0));
+        }
+        assertThat(store.geometryJson(1), nullValue());
+        assertThat(store.geometryJson(42), is("{\"type\":\"Point\",\"coordinates\":[42,1]}"));
+        assertThat(store.geometryJson(500), is(large.toString()));
+        assertThat(store.geometry(998).getArray("coordinates").get(0).asLong(), is(998l));
+        assertThat(store.toJson(42).getObject("geometry"), nullValue());
+    }
+
+    public void shouldMergeNamesAndNeighborsAddedConcurrently() throws InterruptedException {
+        final PlaceStore store = new PlaceStore();
+        for(int i=0;i<1000;i++) {
+            store.addPlace(i, "NL", "place " + i, "DUT", "Town", -1);
+        }
+        store.index();
+        Thread[] threads = new Thread[4];
+        for(int t=0;t<threads.length;t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for(int row=0;row<1000;row++) {
+                        for(int n=0;n<10;n++) {
+                            store.addNeighbor(row, n);
+                        }
+                        store.addName(row, "ENG", "name " + row, false);
+                        store.addName(row, "ENG", "other " + row, false);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for(Thread thread: threads) {
+            thread.join();
+        }
+        store.merge(3);
+        store.addNeighbor(7, 42);
+        store.merge(1);
+        for(int row=0;row<1000;row++) {
+            JsonObject place = store.toJson(row);
+            assertThat(place.getArray("neighbor_woeids").size(), is(row == 7 ? 11 : 10));
+            assertThat(place.getArray("name", "ENG").size(), is(2));
+        }
+        assertThat(store.toJson(7).getArray("neighbor_woeids").get(10).asString(), is("42"));
+    }
+
+    public void shouldKeepLastDuplicate() {
+        PlaceStore store = new PlaceStore();
+        store.addPlace(42, "NL", "first", "DUT", "Town", 1);
+        store.addPlace(42, "NL", "second", "DUT", "Town", 1);
+        store.index();
+        assertThat(store.row(42), is(1));
+        assertThat(store.toJson(0), nullValue());
+    }
+}
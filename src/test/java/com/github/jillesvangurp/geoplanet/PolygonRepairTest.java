@@ -0,0 +1,47 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+@Test
+public class PolygonRepairTest {
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    public void shouldSplitBowTie() {
+        List<double[][]> loops = PolygonRepair.split(new double[][] { { 0, 0 }, { 2, 2 }, { 2, 0 }, { 0, 2 }, { 0, 0 } }, NO_DEADLINE);
+        assertThat(loops.size(), is(2));
+        for(double[][] loop: loops) {
+            assertThat(Math.abs(PolygonRepair.area(loop)), closeTo(1, 0.0000001));
+            assertThat(SelfIntersectionDetector.get().selfIntersects(loop), is(false));
+        }
+    }
+
+    public void shouldSplitAtRepeatedVertex() {
+        // two squares touching at 1,1
+        List<double[][]> loops = PolygonRepair.split(new double[][] { { 0, 0 }, { 1, 0 }, { 1, 1 }, { 2, 1 }, { 2, 2 }, { 1, 2 }, { 1, 1 }, { 0, 1 }, { 0, 0 } }, NO_DEADLINE);
+        assertThat(loops.size(), is(2));
+    }
+
+    public void shouldDropSpike() {
+        List<double[][]> loops = PolygonRepair.split(new double[][] { { 0, 0 }, { 2, 0 }, { 2, 2 }, { 1, 2 }, { 1, 3 }, { 1, 2 }, { 0, 2 }, { 0, 0 } }, NO_DEADLINE);
+        assertThat(loops.size(), is(1));
+        assertThat(Math.abs(PolygonRepair.area(loops.get(0))), closeTo(4, 0.0000001));
+    }
+
+    public void shouldGiveUpAfterDeadline() {
+        assertThat(PolygonRepair.split(new double[][] { { 0, 0 }, { 2, 2 }, { 2, 0 }, { 0, 2 }, { 0, 0 } }, 0) == null, is(true));
+    }
+
+    public void shouldCountRepairs() {
+        PolygonRepair repair = new PolygonRepair(PolygonRepair.Strategy.SPLIT, 1000, 1000);
+        PolygonRepair.Stats stats = new PolygonRepair.Stats();
+        repair.repair(new double[][] { { 0, 0 }, { 2, 2 }, { 2, 0 }, { 0, 2 }, { 0, 0 } }, stats);
+        assertThat(stats.split.count(), is(1L));
+        assertThat(stats.fallback.count(), is(0L));
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.annotations.Test;
+
+@Test
+public class ReadAheadInputStreamTest {
+
+    public void shouldReadEverything() throws IOException {
+        byte[] data = new byte[10000];
+        for(int i=0;i<data.length;i++) {
+            data[i] = (byte) i;
+        }
+        try(ReadAheadInputStream in = new ReadAheadInputStream(new ByteArrayInputStream(data), 333, 2)) {
+            assertThat(in.read(), is(0));
+            byte[] rest = IOUtils.toByteArray(in);
+            assertThat(rest.length, is(data.length - 1));
+            assertThat(rest[rest.length - 1], is(data[data.length - 1]));
+            assertThat(in.read(), is(-1));
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void shouldRethrowReadFailure() throws IOException {
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("broken");
+            }
+        };
+        try(ReadAheadInputStream in = new ReadAheadInputStream(failing, 16, 2)) {
+            IOUtils.toByteArray(in);
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void shouldRethrowRuntimeExceptionPartWay() throws IOException {
+        InputStream failing = new InputStream() {
+            private int count = 0;
+
+            @Override
+            public int read() {
+                if(count++ == 100) {
+                    throw new IllegalStateException("broken");
+                }
+                return 42;
+            }
+        };
+        try(ReadAheadInputStream in = new ReadAheadInputStream(failing, 16, 2)) {
+            IOUtils.toByteArray(in);
+            throw new AssertionError("expected the failure to be rethrown");
+        } catch (IOException e) {
+            assertThat(e.getCause() instanceof IllegalStateException, is(true));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.testng.annotations.Test;
+
+@Test
+public class RunMetricsTest {
+
+    public void shouldExposePhasesOverJmx() throws JMException {
+        RunMetrics metrics = new RunMetrics();
+        metrics.register();
+        try {
+            PhaseMetrics phase = metrics.phase("places");
+            phase.addLines(42);
+            phase.brokenReference();
+            phase.error(new IllegalStateException("test"));
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName phaseName = new ObjectName(RunMetrics.DOMAIN + ":type=Phase,name=0-places");
+            assertThat((Long) server.getAttribute(phaseName, "Lines"), is(42l));
+            assertThat((Long) server.getAttribute(phaseName, "BrokenReferences"), is(1l));
+            assertThat((Boolean) server.getAttribute(phaseName, "Done"), is(false));
+            ObjectName runName = new ObjectName(RunMetrics.DOMAIN + ":type=RunMetrics");
+            assertThat((String) server.getAttribute(runName, "CurrentPhase"), is("places"));
+            assertThat((Long) server.getAttribute(runName, "Errors"), is(1l));
+
+            metrics.phase("aliases");
+            assertThat(phase.isDone(), is(true));
+            assertThat((Boolean) server.getAttribute(phaseName, "Done"), is(true));
+            assertThat((Integer) server.getAttribute(runName, "Phases"), is(2));
+        } finally {
+            metrics.unregister();
+        }
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(RunMetrics.DOMAIN + ":type=RunMetrics")), is(false));
+    }
+
+    public void shouldCountBytesReadAndDecompressed() throws IOException {
+        byte[] data = new byte[100000];
+        Arrays.fill(data, (byte) 'a');
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try(GZIPOutputStream out = new GZIPOutputStream(bos)) {
+            out.write(data);
+        }
+        byte[] compressed = bos.toByteArray();
+
+        PhaseMetrics phase = new PhaseMetrics("test");
+        try(InputStream in = phase.countDecompressed(new GZIPInputStream(phase.countRead(new ByteArrayInputStream(compressed))))) {
+            byte[] buffer = new byte[4096];
+            while(in.read(buffer) >= 0) {
+                // just read
+            }
+        }
+        assertThat(phase.getBytesRead(), is((long) compressed.length));
+        assertThat(phase.getBytesDecompressed(), is((long) data.length));
+    }
+
+    public void shouldTrackQueueDepth() {
+        PhaseMetrics phase = new PhaseMetrics("test");
+        List<String> items = Arrays.asList("a", "b", "c");
+        int taken = 0;
+        for(String item: phase.countQueued(items)) {
+            assertThat(item, notNullValue());
+            taken++;
+            if(taken == 3) {
+                phase.itemDone();
+            }
+        }
+        assertThat(phase.getQueueDepth(), is(2));
+        phase.itemDone();
+        phase.itemDone();
+        assertThat(phase.getQueueDepth(), is(0));
+    }
+
+    public void shouldFreezeMetricsWhenFinished() throws InterruptedException {
+        RunMetrics metrics = new RunMetrics();
+        PhaseMetrics phase = metrics.phase("serialize");
+        phase.addLines(10);
+        phase.finish();
+        long millis = phase.getMillis();
+        Thread.sleep(5);
+        assertThat(phase.getMillis(), is(millis));
+        assertThat(metrics.getCurrentPhase(), nullValue());
+        assertThat(metrics.toJson().getArray("phases").size(), is(1));
+        assertThat(phase.toJson().getLong("lines"), is(10l));
+    }
+
+    public void shouldSampleHeapAsAWhole() throws InterruptedException {
+        GeoPlanetConverter.resetPeakHeapUsage();
+        long[] retained = new long[8 * 1024 * 1024];
+        Thread.sleep(GeoPlanetConverter.HEAP_SAMPLE_MILLIS * 5);
+        long peak = GeoPlanetConverter.peakHeapUsage();
+        assertThat(peak >= retained.length * 8L, is(true));
+        // unlike the sum of the peaks of the separate pools, a sample of the whole heap never exceeds its maximum
+        long maxHeap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+        assertThat(maxHeap < 0 || peak <= maxHeap, is(true));
+        assertThat(retained.length, is(8 * 1024 * 1024));
+    }
+}
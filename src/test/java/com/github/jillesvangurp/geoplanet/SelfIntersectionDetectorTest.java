@@ -0,0 +1,51 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import org.testng.annotations.Test;
+
+@Test
+public class SelfIntersectionDetectorTest {
+    private final SelfIntersectionDetector detector = new SelfIntersectionDetector();
+
+    public void shouldAcceptSimpleRings() {
+        assertThat(detector.selfIntersects(new double[][] { { 0, 0 }, { 1, 0 }, { 1, 1 }, { 0, 1 }, { 0, 0 } }), is(false));
+        assertThat(detector.selfIntersects(new double[][] { { 0, 0 }, { 1, 0 }, { 0, 1 }, { 0, 0 } }), is(false));
+        // concave
+        assertThat(detector.selfIntersects(new double[][] { { 0, 0 }, { 4, 0 }, { 4, 4 }, { 2, 1 }, { 0, 4 }, { 0, 0 } }), is(false));
+    }
+
+    public void shouldDetectRepeatedVertex() {
+        assertThat(detector.selfIntersects(new double[][] { { 0, 0 }, { 2, 0 }, { 1, 1 }, { 2, 2 }, { 0, 2 }, { 1, 1 }, { 0, 0 } }), is(true));
+    }
+
+    public void shouldDetectCrossingEdges() {
+        // bow tie
+        assertThat(detector.selfIntersects(new double[][] { { 0, 0 }, { 2, 2 }, { 2, 0 }, { 0, 2 }, { 0, 0 } }), is(true));
+    }
+
+    public void shouldDetectVertexTouchingEdge() {
+        assertThat(detector.selfIntersects(new double[][] { { 0, 0 }, { 4, 0 }, { 4, 4 }, { 2, 0 }, { 0, 4 }, { 0, 0 } }), is(true));
+    }
+
+    public void shouldDetectSpike() {
+        assertThat(detector.selfIntersects(new double[][] { { 0, 0 }, { 4, 0 }, { 2, 0 }, { 2, 2 }, { 0, 0 } }), is(true));
+    }
+
+    public void shouldHandleLargeRings() {
+        int points = 5000;
+        double[][] circle = new double[points + 1][];
+        for(int i=0;i<points;i++) {
+            double angle = 2 * Math.PI * i / points;
+            circle[i] = new double[] { Math.cos(angle), Math.sin(angle) };
+        }
+        circle[points] = circle[0];
+        assertThat(detector.selfIntersects(circle), is(false));
+        // swap two points to make edges cross
+        double[] tmp = circle[100];
+        circle[100] = circle[101];
+        circle[101] = tmp;
+        assertThat(detector.selfIntersects(circle), is(true));
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static com.github.jsonj.tools.JsonBuilder.object;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.Test;
+
+import com.github.jsonj.JsonObject;
+
+@Test
+public class ShardedOutputTest {
+
+    public void shouldLookupPlacesByWoeId() throws IOException {
+        File dir = Files.createTempDirectory("shards").toFile();
+        try {
+            String prefix = new File(dir, "places").getPath();
+            // small blocks so that each shard has a lot of them
+            try(ShardedOutput.Writer writer = new ShardedOutput.Writer(prefix, 4, 1024)) {
+                for(int i=0;i<10000;i++) {
+                    long woeid = i * 3L;
+                    writer.add(woeid, place(woeid));
+                }
+            }
+            try(ShardedOutput output = ShardedOutput.open(prefix)) {
+                assertThat(output.get(0).getString("id"), is("0"));
+                assertThat(output.get(3 * 4242L).getString("name"), is("place " + 3 * 4242L));
+                assertThat(output.get(3 * 9999L).getString("id"), is(Long.toString(3 * 9999L)));
+                assertThat(output.get(1), nullValue());
+                assertThat(output.get(3 * 10000L), nullValue());
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    public void shouldWriteShardsThatAreNormalGzipFiles() throws IOException {
+        File dir = Files.createTempDirectory("shards").toFile();
+        try {
+            String prefix = new File(dir, "places").getPath();
+            try(ShardedOutput.Writer writer = new ShardedOutput.Writer(prefix, 2, 100)) {
+                for(int i=0;i<100;i++) {
+                    writer.add(i, place(i));
+                }
+            }
+            int lines = 0;
+            for(int shard=0;shard<2;shard++) {
+                try(BufferedReader reader = GeoPlanetConverter.gzipFileReader(ShardedOutput.dataFile(prefix, shard).getPath())) {
+                    while(reader.readLine() != null) {
+                        lines++;
+                    }
+                }
+            }
+            assertThat(lines, is(100));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    public void shouldDeriveShardPrefixFromOutputFile() {
+        assertThat(GeoPlanetConverter.shardPrefix("geoplanet_cleaned-1.json.gz"), is("geoplanet_cleaned-1"));
+    }
+
+    private static JsonObject place(long woeid) {
+        return object().put("id", Long.toString(woeid)).put("name", "place " + woeid).get();
+    }
+}
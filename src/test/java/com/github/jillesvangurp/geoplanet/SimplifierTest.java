@@ -0,0 +1,62 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+@Test
+public class SimplifierTest {
+
+    public void shouldDropPointsWithinTolerance() {
+        double[][] line = { { 0, 0 }, { 1, 0.001 }, { 2, 1 }, { 3, 2 }, { 3.5, 2.001 }, { 4, 2 } };
+        double[][] simplified = Simplifier.douglasPeucker(line, 0.01);
+        assertThat(simplified.length, is(4));
+        assertThat(simplified[1][0], is(1.0));
+        assertThat(simplified[2][0], is(3.0));
+        assertThat(Simplifier.douglasPeucker(line, 0.0001).length, is(6));
+    }
+
+    public void shouldSimplifyByPlaceType() {
+        Map<String, Double> tolerances = Simplifier.parseTolerances("country=0.1, Neighbourhood=0");
+        Simplifier simplifier = new Simplifier(tolerances, -1);
+        Simplifier.Stats stats = new Simplifier.Stats();
+        double[][] ring = wobblySquare();
+
+        assertThat(simplifier.simplify(ring, "Country", stats).length, is(5));
+        assertThat(simplifier.simplify(ring, "neighbourhood", stats).length, is(ring.length));
+        assertThat(simplifier.simplify(ring, "locality", stats).length, is(ring.length));
+        assertThat(stats.before(), is(3L * ring.length));
+        assertThat(stats.after(), is(5L + 2 * ring.length));
+    }
+
+    public void shouldRoundCoordinates() {
+        Simplifier simplifier = new Simplifier(Simplifier.parseTolerances(null), 2);
+        double[][] ring = { { 0.001, 0.001 }, { 0.002, 0.002 }, { 1.004, 0 }, { 1.006, 1.006 }, { 0, 1 }, { 0.001, 0.001 } };
+        double[][] rounded = simplifier.simplify(ring, "country", new Simplifier.Stats());
+        assertThat(rounded.length, is(5));
+        assertThat(rounded[1][0], is(1.0));
+        assertThat(rounded[2][0], is(1.01));
+    }
+
+    public void shouldKeepRingsThatWouldCollapse() {
+        Simplifier simplifier = new Simplifier(Simplifier.parseTolerances("country=10"), -1);
+        double[][] ring = wobblySquare();
+        assertThat(simplifier.simplify(ring, "country", new Simplifier.Stats()).length, is(ring.length));
+    }
+
+    private static double[][] wobblySquare() {
+        double[][] ring = new double[41][];
+        for(int i=0;i<10;i++) {
+            double wobble = i % 2 == 0 ? 0 : 0.001;
+            ring[i] = new double[] { i / 10.0, wobble };
+            ring[10 + i] = new double[] { 1 + wobble, i / 10.0 };
+            ring[20 + i] = new double[] { 1 - i / 10.0, 1 + wobble };
+            ring[30 + i] = new double[] { wobble, 1 - i / 10.0 };
+        }
+        ring[40] = ring[0];
+        return ring;
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static com.github.jsonj.tools.JsonBuilder.array;
+import static com.github.jsonj.tools.JsonBuilder.object;
+import static com.github.jsonj.tools.JsonBuilder.primitive;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.testng.annotations.Test;
+
+import com.github.jsonj.JsonArray;
+import com.github.jsonj.JsonObject;
+
+@Test
+public class SpatialIndexTest {
+
+    public void shouldFindContainingPlacesMostSpecificFirst() throws IOException {
+        File file = File.createTempFile("spatialindex", ".gz");
+        try {
+            try(SpatialIndex.Writer writer = new SpatialIndex.Writer(file.getPath())) {
+                writer.add(1, 0, square(0, 0, 100));
+                writer.add(2, 1, square(0, 0, 10));
+                writer.add(3, 2, square(1, 1, 2));
+                // lots of small squares elsewhere so the tree has a few levels
+                for(int i=0;i<1000;i++) {
+                    writer.add(1000 + i, 3, square(20 + (i % 30) * 2, 20 + (i / 30) * 2, 1));
+                }
+            }
+            SpatialIndex index = SpatialIndex.load(file.getPath());
+            assertThat(index.size(), is(1003));
+            long[] woeids = index.containing(1.5, 1.5);
+            assertThat(woeids.length, is(3));
+            assertThat(woeids[0], is(3L));
+            assertThat(woeids[1], is(2L));
+            assertThat(woeids[2], is(1L));
+            assertThat(index.containing(5, 5).length, is(2));
+            assertThat(index.containing(20.5, 20.5)[0], is(1000L));
+            assertThat(index.containing(-1, -1).length, is(0));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void shouldSortManyContainingPlacesByDepth() throws IOException {
+        File file = File.createTempFile("spatialindex", ".gz");
+        try {
+            try(SpatialIndex.Writer writer = new SpatialIndex.Writer(file.getPath())) {
+                // nested squares in an order that is unrelated to their depth
+                for(int i=0;i<20;i++) {
+                    int depth = (i * 7) % 20;
+                    writer.add(depth, depth, square(-depth, -depth, 2 * depth + 1));
+                }
+            }
+            SpatialIndex index = SpatialIndex.load(file.getPath());
+            long[] woeids = index.containing(0.5, 0.5);
+            assertThat(woeids.length, is(20));
+            for(int i=0;i<20;i++) {
+                assertThat(woeids[i], is(19L - i));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static JsonObject square(double x, double y, double size) {
+        JsonArray ring = array(point(x, y), point(x + size, y), point(x + size, y + size), point(x, y + size), point(x, y));
+        return object().put("type", "Polygon").put("coordinates", array(ring)).get();
+    }
+
+    private static JsonArray point(double x, double y) {
+        JsonArray point = new JsonArray();
+        point.add(primitive(x));
+        point.add(primitive(y));
+        return point;
+    }
+}
@@ -0,0 +1,138 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.Test;
+
+import com.github.jsonj.JsonObject;
+import com.github.jsonj.tools.JsonParser;
+
+@Test
+public class SyntheticDataTest {
+
+    public void shouldGenerateConsistentFiles() throws IOException {
+        SyntheticData.Profile profile = new SyntheticData.Profile();
+        profile.places = 5000;
+        profile.geometries = 0.1;
+        SyntheticData data = new SyntheticData(profile, 2, 42);
+        File dir = Files.createTempDirectory("synthetic").toFile();
+        try {
+            data.generate(dir);
+
+            Set<Long> woeids = new HashSet<>();
+            List<Long> parents = new ArrayList<>();
+            try(TsvReader reader = TsvReader.openGzipFile(new File(dir, SyntheticData.PLACES_FILE).getPath())) {
+                int woeidColumn = GeoPlanetConverter.column(reader.header(), GeoPlanetConverter.WOE_ID);
+                int parentColumn = GeoPlanetConverter.column(reader.header(), GeoPlanetConverter.YAHOO_PARENT_ID);
+                for(TsvReader.Block block: reader) {
+                    TsvReader.Record record = block.records();
+                    while(record.next()) {
+                        woeids.add(record.longValue(woeidColumn));
+                        parents.add(record.longValue(parentColumn));
+                    }
+                }
+            }
+            assertThat((long) woeids.size(), is(10000l));
+            for(long parent: parents) {
+                assertThat(parent == 0 || woeids.contains(parent), is(true));
+            }
+
+            long aliases = 0;
+            try(TsvReader reader = TsvReader.openGzipFile(new File(dir, SyntheticData.ALIASES_FILE).getPath())) {
+                for(TsvReader.Block block: reader) {
+                    TsvReader.Record record = block.records();
+                    while(record.next()) {
+                        assertThat(woeids.contains(record.longValue(0)), is(true));
+                        aliases++;
+                    }
+                }
+            }
+            assertThat((double) aliases / woeids.size(), closeTo(profile.namesPerPlace.mean(), profile.namesPerPlace.mean() * 0.2));
+
+            long shapes = 0;
+            JsonParser parser = new JsonParser();
+            for(String[] shapeFile: SyntheticData.SHAPE_FILES) {
+                try(BufferedReader br = GeoPlanetConverter.gzipFileReader(new File(dir, shapeFile[0]).getPath())) {
+                    for(JsonObject feature: new GeoJsonFeatureReader(br, parser)) {
+                        assertThat(feature.getString("properties", "place_type"), is(shapeFile[2]));
+                        assertThat(woeids.contains(Long.valueOf(feature.getString("properties", "woe_id"))), is(true));
+                        shapes++;
+                    }
+                }
+            }
+            assertThat(shapes, greaterThan(500l));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    public void shouldGenerateSelfIntersectingRingsOnlyWhenAsked() {
+        Random random = new Random(42);
+        for(int i=0;i<1000;i++) {
+            int vertices = 3 + random.nextInt(200);
+            double[][] simple = SyntheticData.ring(random, 10, 10, 0.5, vertices, false);
+            assertThat(SelfIntersectionDetector.get().selfIntersects(simple), is(false));
+            double[][] crossing = SyntheticData.ring(random, 10, 10, 0.5, vertices, true);
+            assertThat(SelfIntersectionDetector.get().selfIntersects(crossing), is(true));
+        }
+    }
+
+    public void shouldSampleFromDistribution() {
+        SyntheticData.Distribution distribution = SyntheticData.Distribution.parse("0:50,1:30,16:20");
+        assertThat(distribution.toString(), is("0:50,1:30,16:20"));
+        Random random = new Random(42);
+        int[] counts = new int[32];
+        for(int i=0;i<100000;i++) {
+            counts[distribution.sample(random)]++;
+        }
+        assertThat(counts[0] / 100000.0, closeTo(0.5, 0.01));
+        assertThat(counts[1] / 100000.0, closeTo(0.3, 0.01));
+        int inBucket = 0;
+        for(int i=16;i<32;i++) {
+            inBucket += counts[i];
+        }
+        assertThat(inBucket / 100000.0, closeTo(0.2, 0.01));
+        assertThat(distribution.mean(), closeTo(0.3 + 0.2 * 23.5, 0.0001));
+    }
+
+    public void shouldMeasureGeneratedData() throws IOException {
+        SyntheticData.Profile profile = new SyntheticData.Profile();
+        profile.places = 5000;
+        profile.geometries = 0.1;
+        profile.selfIntersectionRate = 0.2;
+        File dir = Files.createTempDirectory("synthetic").toFile();
+        try {
+            new SyntheticData(profile, 1, 7).generate(dir);
+            List<String> shapeFiles = new ArrayList<>();
+            for(String[] shapeFile: SyntheticData.SHAPE_FILES) {
+                shapeFiles.add(new File(dir, shapeFile[0]).getPath());
+            }
+            SyntheticData.Profile measured = SyntheticData.measure(new File(dir, SyntheticData.PLACES_FILE).getPath(),
+                    new File(dir, SyntheticData.ALIASES_FILE).getPath(), new File(dir, SyntheticData.ADJACENCIES_FILE).getPath(), shapeFiles);
+            assertThat(measured.places, is(5000l));
+            assertThat(measured.namesPerPlace.mean(), closeTo(profile.namesPerPlace.mean(), profile.namesPerPlace.mean() * 0.2));
+            assertThat(measured.neighborsPerPlace.mean(), closeTo(profile.neighborsPerPlace.mean(), profile.neighborsPerPlace.mean() * 0.2));
+            assertThat(measured.selfIntersectionRate, closeTo(0.2, 0.05));
+
+            File profileFile = new File(dir, "profile.properties");
+            measured.save(profileFile);
+            assertThat(SyntheticData.Profile.load(profileFile).toString(), is(measured.toString()));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
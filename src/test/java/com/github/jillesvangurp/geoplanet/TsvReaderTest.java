@@ -0,0 +1,55 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+@Test
+public class TsvReaderTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public void shouldReadHeaderAndRecords() throws IOException {
+        StringBuilder tsv = new StringBuilder("\"WOE_ID\"\t\"ISO\"\t\"Name\"\t\"Parent_ID\"\n");
+        for(int i=0;i<100;i++) {
+            tsv.append(i).append("\t\"NL\"\t\"Plaats ").append(i).append(" \u00fc\"\t").append(i == 0 ? "" : "-1").append("\r\n");
+        }
+        tsv.append("\n");
+        // small blocks so that lines are spread over many blocks and some are longer than a block
+        try(TsvReader reader = new TsvReader(new ByteArrayInputStream(tsv.toString().getBytes(UTF8)), 16)) {
+            assertThat(reader.header(), is((List<String>) new ArrayList<>(Arrays.asList("WOE_ID", "ISO", "Name", "Parent_ID"))));
+            StringPool pool = new StringPool();
+            int lines = 0;
+            for(TsvReader.Block block: reader) {
+                TsvReader.Record record = block.records();
+                while(record.next()) {
+                    assertThat(record.longValue(0), is((long) lines));
+                    assertThat(pool.value(record.id(1, pool)), is("NL"));
+                    assertThat(record.string(2), is("Plaats " + lines + " \u00fc"));
+                    assertThat(record.longValue(3, 42), is(lines == 0 ? 42L : -1L));
+                    assertThat(record.string(4), nullValue());
+                    lines++;
+                }
+            }
+            assertThat(lines, is(100));
+            assertThat(pool.size(), is(1));
+        }
+    }
+
+    @Test(expectedExceptions = NumberFormatException.class)
+    public void shouldRejectNonNumericWoeId() throws IOException {
+        try(TsvReader reader = new TsvReader(new ByteArrayInputStream("WOE_ID\n12a\n".getBytes(UTF8)), 1024)) {
+            TsvReader.Record record = reader.iterator().next().records();
+            record.next();
+            record.longValue(0);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.github.jillesvangurp.geoplanet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import org.testng.annotations.Test;
+
+@Test
+public class WoeIdSetTest {
+
+    public void shouldContainAddedWoeIds() {
+        WoeIdSet set = new WoeIdSet();
+        set.add(1);
+        set.add(2347563);
+        set.add(2347563);
+        set.add(2000000000L);
+        assertThat(set.size(), is(3));
+        assertThat(set.contains(1), is(true));
+        assertThat(set.contains(2347563), is(true));
+        assertThat(set.contains(2000000000L), is(true));
+        assertThat(set.contains(2), is(false));
+        assertThat(set.contains(3000000000L), is(false));
+        assertThat(set.contains(-1), is(false));
+    }
+
+    public void shouldParseWoeIdColumn() {
+        assertThat(PartitionedJoin.woeid("\"12\"\t\"NL\"\t\"42\"", 2), is(42L));
+        assertThat(PartitionedJoin.woeid("12\tNL\t42", 0), is(12L));
+    }
+}